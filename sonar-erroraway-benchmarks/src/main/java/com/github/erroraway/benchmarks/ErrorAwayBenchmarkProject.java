@@ -0,0 +1,281 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.InputFile.Type;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.batch.rule.ActiveRules;
+import org.sonar.api.batch.rule.internal.ActiveRulesBuilder;
+import org.sonar.api.batch.rule.internal.NewActiveRule;
+import org.sonar.api.batch.sensor.internal.SensorContextTester;
+
+import com.github.erroraway.sonarqube.ErrorAwayRulesDefinition;
+import com.google.errorprone.BugCheckerInfo;
+import com.google.errorprone.scanner.BuiltInCheckerSuppliers;
+
+/**
+ * Generates Java projects and the sensor context analyzing them
+ *
+ * @author Guillaume Toison
+ *
+ */
+public final class ErrorAwayBenchmarkProject {
+	private static final String MODULE_KEY = "benchmark";
+
+	private ErrorAwayBenchmarkProject() {
+	}
+
+	/**
+	 * Generate a project where each class uses collections and strings and references the previous class
+	 *
+	 * @param baseDir
+	 *            The project base dir
+	 * @param files
+	 *            The number of classes to generate
+	 * @param packages
+	 *            The number of packages the classes are spread over
+	 * @return The generated files
+	 */
+	public static List<Path> generate(Path baseDir, int files, int packages) {
+		return generate(baseDir, files, packages, 0);
+	}
+
+	/**
+	 * Generate a project where each class uses collections and strings, references the previous class and a class of
+	 * one of the libraries
+	 *
+	 * @param baseDir
+	 *            The project base dir
+	 * @param files
+	 *            The number of classes to generate
+	 * @param packages
+	 *            The number of packages the classes are spread over
+	 * @param libraries
+	 *            The number of libraries generated by {@link #generateLibraries(Path, int, int)}
+	 * @return The generated files
+	 */
+	public static List<Path> generate(Path baseDir, int files, int packages, int libraries) {
+		List<Path> paths = new ArrayList<>(files);
+
+		try {
+			for (int i = 0; i < files; i++) {
+				Path path = baseDir.resolve("src/main/java/bench/p" + (i % packages) + "/Class" + i + ".java");
+				Files.createDirectories(path.getParent());
+				Files.writeString(path, source(i, packages, libraries), StandardCharsets.UTF_8);
+
+				paths.add(path);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return paths;
+	}
+
+	/**
+	 * Compile libraries that the generated classes depend on
+	 *
+	 * @param dir
+	 *            The folder where the jars are created
+	 * @param libraries
+	 *            The number of jars
+	 * @param classes
+	 *            The number of classes in each jar
+	 * @return The jars
+	 */
+	public static List<Path> generateLibraries(Path dir, int libraries, int classes) {
+		List<Path> jars = new ArrayList<>(libraries);
+
+		try {
+			for (int library = 0; library < libraries; library++) {
+				Path sourceDir = Files.createDirectories(dir.resolve("lib" + library + "/src"));
+				Path classesDir = Files.createDirectories(dir.resolve("lib" + library + "/classes"));
+
+				List<File> sources = new ArrayList<>(classes);
+				for (int i = 0; i < classes; i++) {
+					Path source = sourceDir.resolve("Lib" + i + ".java");
+					Files.writeString(source, "package lib.j" + library + ";\n\npublic class Lib" + i + " {\n	public int value() {\n		return " + i + ";\n	}\n}\n",
+							StandardCharsets.UTF_8);
+					sources.add(source.toFile());
+				}
+
+				JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+				try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+					fileManager.setLocation(StandardLocation.CLASS_OUTPUT, List.of(classesDir.toFile()));
+
+					if (!compiler.getTask(null, fileManager, null, null, null, fileManager.getJavaFileObjectsFromFiles(sources)).call()) {
+						throw new IllegalStateException("Could not compile library " + library);
+					}
+				}
+
+				jars.add(jar(classesDir, dir.resolve("lib" + library + ".jar")));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return jars;
+	}
+
+	private static Path jar(Path classesDir, Path jar) throws IOException {
+		try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(jar)); Stream<Path> files = Files.walk(classesDir)) {
+			for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+				output.putNextEntry(new JarEntry(classesDir.relativize(file).toString().replace(File.separatorChar, '/')));
+				Files.copy(file, output);
+				output.closeEntry();
+			}
+		}
+
+		return jar;
+	}
+
+	/**
+	 * @param baseDir
+	 *            The project base dir
+	 * @param files
+	 *            The main Java files of the project
+	 * @param settings
+	 *            The project settings
+	 * @return A sensor context with all the Error Prone checkers enabled by default activated and an empty binaries
+	 *         folder
+	 */
+	public static SensorContextTester sensorContext(Path baseDir, List<Path> files, Map<String, String> settings) {
+		SensorContextTester context = SensorContextTester.create(baseDir);
+		context.fileSystem().setEncoding(StandardCharsets.UTF_8);
+		context.fileSystem().setWorkDir(baseDir.resolve(".scannerwork"));
+
+		for (Path file : files) {
+			context.fileSystem().add(inputFile(baseDir, file));
+		}
+
+		try {
+			// sonar-java requires the binaries even though they are not used by the analysis
+			context.settings().setProperty("sonar.java.binaries", Files.createDirectories(baseDir.resolve("target/classes")).toString());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		settings.forEach(context.settings()::setProperty);
+
+		context.setActiveRules(activeRules());
+
+		return context;
+	}
+
+	/**
+	 * @return The rules of all the Error Prone checkers enabled by default
+	 */
+	public static ActiveRules activeRules() {
+		ActiveRulesBuilder activeRules = new ActiveRulesBuilder();
+		addRules(activeRules, BuiltInCheckerSuppliers.ENABLED_WARNINGS);
+		addRules(activeRules, BuiltInCheckerSuppliers.ENABLED_ERRORS);
+
+		return activeRules.build();
+	}
+
+	/**
+	 * @param baseDir
+	 *            The project base dir
+	 * @param file
+	 *            A Java file of the project
+	 * @return The main input file
+	 */
+	public static InputFile inputFile(Path baseDir, Path file) {
+		try {
+			return TestInputFileBuilder.create(MODULE_KEY, baseDir.toFile(), file.toFile())
+					.setLanguage("java")
+					.setType(Type.MAIN)
+					.setCharset(StandardCharsets.UTF_8)
+					.initMetadata(Files.readString(file, StandardCharsets.UTF_8))
+					.build();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void addRules(ActiveRulesBuilder activeRules, Iterable<BugCheckerInfo> checkers) {
+		for (BugCheckerInfo checker : checkers) {
+			activeRules.addRule(new NewActiveRule.Builder().setRuleKey(ErrorAwayRulesDefinition.errorProneRuleKey(checker)).build());
+		}
+	}
+
+	private static String source(int index, int packages, int libraries) {
+		StringBuilder source = new StringBuilder();
+		source.append("package bench.p").append(index % packages).append(";\n\n");
+		source.append("import java.util.ArrayList;\n");
+		source.append("import java.util.HashMap;\n");
+		source.append("import java.util.List;\n");
+		source.append("import java.util.Map;\n\n");
+		source.append("public class Class").append(index).append(" {\n");
+		source.append("	private final List<String> values = new ArrayList<>();\n");
+		source.append("	private final Map<String, Integer> counts = new HashMap<>();\n");
+		source.append("	private int total;\n\n");
+
+		if (libraries > 0) {
+			source.append("	private final lib.j").append(index % libraries).append(".Lib0 library = new lib.j").append(index % libraries).append(".Lib0();\n\n");
+		}
+
+		source.append("	public void add(String value) {\n");
+		source.append("		values.add(value);\n");
+		source.append("		counts.merge(value, 1, Integer::sum);\n");
+		source.append("		total += value.length();\n");
+		source.append("	}\n\n");
+		source.append("	public int count(String value) {\n");
+		source.append("		return counts.getOrDefault(value, 0);\n");
+		source.append("	}\n\n");
+		source.append("	public String describe() {\n");
+		source.append("		StringBuilder builder = new StringBuilder();\n");
+		source.append("		for (String value : values) {\n");
+		source.append("			if (builder.length() > 0) {\n");
+		source.append("				builder.append(\", \");\n");
+		source.append("			}\n");
+		source.append("			builder.append(value).append('=').append(count(value));\n");
+		source.append("		}\n");
+		source.append("		return builder.toString();\n");
+		source.append("	}\n\n");
+		source.append("	public int total() {\n");
+		source.append("		return total;\n");
+		source.append("	}\n");
+
+		if (index > 0) {
+			source.append("\n	public int combined(bench.p").append((index - 1) % packages).append(".Class").append(index - 1).append(" other) {\n");
+			source.append("		return total + other.total();\n");
+			source.append("	}\n");
+		}
+
+		source.append("}\n");
+
+		return source.toString();
+	}
+}
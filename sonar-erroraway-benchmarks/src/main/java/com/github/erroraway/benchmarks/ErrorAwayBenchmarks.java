@@ -0,0 +1,59 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, the command line accepts the usual JMH options, e.g. a regular expression
+ * selecting the benchmarks to run
+ *
+ * @author Guillaume Toison
+ *
+ */
+public final class ErrorAwayBenchmarks {
+	/**
+	 * The javac internals used by Error Prone
+	 */
+	static final String[] ERROR_PRONE_JVM_ARGS = {
+			"--add-exports=jdk.compiler/com.sun.tools.javac.api=ALL-UNNAMED",
+			"--add-exports=jdk.compiler/com.sun.tools.javac.file=ALL-UNNAMED",
+			"--add-exports=jdk.compiler/com.sun.tools.javac.main=ALL-UNNAMED",
+			"--add-exports=jdk.compiler/com.sun.tools.javac.model=ALL-UNNAMED",
+			"--add-exports=jdk.compiler/com.sun.tools.javac.parser=ALL-UNNAMED",
+			"--add-exports=jdk.compiler/com.sun.tools.javac.processing=ALL-UNNAMED",
+			"--add-exports=jdk.compiler/com.sun.tools.javac.tree=ALL-UNNAMED",
+			"--add-exports=jdk.compiler/com.sun.tools.javac.util=ALL-UNNAMED",
+			"--add-opens=jdk.compiler/com.sun.tools.javac.code=ALL-UNNAMED",
+			"--add-opens=jdk.compiler/com.sun.tools.javac.comp=ALL-UNNAMED" };
+
+	private ErrorAwayBenchmarks() {
+	}
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		OptionsBuilder options = new OptionsBuilder();
+		options.parent(new CommandLineOptions(args));
+		options.addProfiler(GCProfiler.class);
+		options.jvmArgsAppend(ERROR_PRONE_JVM_ARGS);
+
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.api.batch.sensor.internal.SensorContextTester;
+import org.sonar.api.impl.utils.DefaultTempFolder;
+
+import com.github.erroraway.sonarqube.ErrorAwayDependencyManager;
+import com.github.erroraway.sonarqube.ErrorAwayJarPool;
+import com.github.erroraway.sonarqube.ErrorAwayPluginConstants;
+import com.github.erroraway.sonarqube.ErrorAwaySensor;
+
+/**
+ * Compares the analysis of a generated project when javac stops after the flow analysis and when it generates the
+ * classes, the temp folder is on disk to include the cost of writing the classes
+ *
+ * @author Guillaume Toison
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ErrorAwayCompilePolicyBenchmark {
+	@Param({ "true", "false" })
+	boolean analysisOnly;
+
+	@Param({ "500" })
+	int files;
+
+	private Path baseDir;
+	private List<Path> paths;
+	private Map<String, String> settings;
+	private SensorContextTester context;
+	private DefaultTempFolder tempFolder;
+
+	@Setup(Level.Trial)
+	public void generateProject() throws Exception {
+		baseDir = Files.createTempDirectory("erroraway-benchmark");
+		paths = ErrorAwayBenchmarkProject.generate(baseDir, files, 20);
+		settings = Map.of(ErrorAwayPluginConstants.ANALYSIS_ONLY, Boolean.toString(analysisOnly), ErrorAwayPluginConstants.OUTPUT_MEMORY_MB, "0");
+	}
+
+	@Setup(Level.Invocation)
+	public void createContext() throws Exception {
+		context = ErrorAwayBenchmarkProject.sensorContext(baseDir, paths, settings);
+		tempFolder = new DefaultTempFolder(Files.createTempDirectory("erroraway-benchmark-temp").toFile(), true);
+	}
+
+	@TearDown(Level.Invocation)
+	public void deleteTempFolder() {
+		tempFolder.stop();
+	}
+
+	@Benchmark
+	public SensorContextTester analyze() {
+		ErrorAwaySensor sensor = new ErrorAwaySensor(new ErrorAwayDependencyManager(tempFolder, context.config()), new ErrorAwayJarPool(), tempFolder);
+		sensor.execute(context);
+
+		return context;
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.sensor.internal.SensorContextTester;
+
+import com.github.erroraway.sonarqube.ErrorAwayDiagnosticListener;
+import com.github.erroraway.sonarqube.ErrorAwayIssueWriter;
+import com.github.erroraway.sonarqube.InputFileJavaFileObject;
+
+/**
+ * Measures the conversion of a diagnostic to an issue: rule parsing, repository lookup, input file resolution and
+ * issue creation, on the javac thread or by the issue writer thread
+ *
+ * @author Guillaume Toison
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ErrorAwayDiagnosticListenerBenchmark {
+	private static final String[] MESSAGES = {
+			"[DurationTemporalUnit] Duration.of(long, TemporalUnit) only works for certain TemporalUnits\n    (see https://errorprone.info/bugpattern/DurationTemporalUnit)",
+			"[Slf4jLoggerShouldBeFinal] Logger field should be final\n    (see https://github.com/KengoTODA/errorprone-slf4j)",
+			"[CollectorMutability] Avoid Collectors.toList()\n    (see https://error-prone.picnic.tech/bugpatterns/CollectorMutability)",
+			"[NullAway] dereferenced expression value is @Nullable\n    (see http://t.uber.com/nullaway )" };
+
+	@Param({ "100" })
+	int files;
+
+	@Param({ "0", "10000" })
+	int issueQueueSize;
+
+	private Path baseDir;
+	private List<InputFile> inputFiles;
+	private List<Diagnostic<JavaFileObject>> diagnostics;
+	private SensorContextTester context;
+	private ErrorAwayIssueWriter issueWriter;
+	private ErrorAwayDiagnosticListener listener;
+	private int index;
+
+	@Setup(Level.Trial)
+	public void generateProject() throws Exception {
+		baseDir = Files.createTempDirectory("erroraway-benchmark");
+		List<Path> paths = ErrorAwayBenchmarkProject.generate(baseDir, files, 10);
+
+		inputFiles = new ArrayList<>();
+		diagnostics = new ArrayList<>();
+		for (int i = 0; i < paths.size(); i++) {
+			InputFile inputFile = ErrorAwayBenchmarkProject.inputFile(baseDir, paths.get(i));
+			inputFiles.add(inputFile);
+			diagnostics.add(new BenchmarkDiagnostic(new InputFileJavaFileObject(inputFile), MESSAGES[i % MESSAGES.length], 10));
+		}
+	}
+
+	/**
+	 * The issues saved in the context are kept in memory, use a new context for each iteration
+	 */
+	@Setup(Level.Iteration)
+	public void createContext() {
+		List<Path> paths = new ArrayList<>();
+		for (Diagnostic<JavaFileObject> diagnostic : diagnostics) {
+			paths.add(Path.of(diagnostic.getSource().toUri()));
+		}
+
+		context = ErrorAwayBenchmarkProject.sensorContext(baseDir, paths, Collections.emptyMap());
+		issueWriter = new ErrorAwayIssueWriter(context, issueQueueSize);
+		listener = new ErrorAwayDiagnosticListener(context, null, inputFiles, issueWriter);
+	}
+
+	@TearDown(Level.Iteration)
+	public void closeIssueWriter() {
+		issueWriter.close();
+	}
+
+	private Diagnostic<JavaFileObject> nextDiagnostic() {
+		index = (index + 1) % diagnostics.size();
+		return diagnostics.get(index);
+	}
+
+	@Benchmark
+	public void report() {
+		listener.report(nextDiagnostic());
+	}
+
+	@Benchmark
+	public InputFile getInputFile() {
+		return listener.getInputFile(nextDiagnostic(), context.fileSystem());
+	}
+
+	@Benchmark
+	public boolean checkDiagnostic() {
+		return listener.checkDiagnostic(nextDiagnostic());
+	}
+
+	/**
+	 * A warning reported by Error Prone
+	 */
+	private static final class BenchmarkDiagnostic implements Diagnostic<JavaFileObject> {
+		private final JavaFileObject source;
+		private final String message;
+		private final long line;
+
+		BenchmarkDiagnostic(JavaFileObject source, String message, long line) {
+			this.source = source;
+			this.message = message;
+			this.line = line;
+		}
+
+		@Override
+		public Kind getKind() {
+			return Kind.WARNING;
+		}
+
+		@Override
+		public JavaFileObject getSource() {
+			return source;
+		}
+
+		@Override
+		public long getPosition() {
+			return NOPOS;
+		}
+
+		@Override
+		public long getStartPosition() {
+			return NOPOS;
+		}
+
+		@Override
+		public long getEndPosition() {
+			return NOPOS;
+		}
+
+		@Override
+		public long getLineNumber() {
+			return line;
+		}
+
+		@Override
+		public long getColumnNumber() {
+			return 1;
+		}
+
+		@Override
+		public String getCode() {
+			return "compiler.warn.error.prone";
+		}
+
+		@Override
+		public String getMessage(Locale locale) {
+			return message;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.JavaFileObject.Kind;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.erroraway.sonarqube.InputFileJavaFileObject;
+
+/**
+ * Measures the methods javac calls on each source file
+ *
+ * @author Guillaume Toison
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ErrorAwayInputFileJavaFileObjectBenchmark {
+	private InputFileJavaFileObject fileObject;
+
+	@Setup
+	public void createFile() throws IOException {
+		Path baseDir = Files.createTempDirectory("erroraway-benchmark");
+		List<Path> paths = ErrorAwayBenchmarkProject.generate(baseDir, 43, 10);
+
+		fileObject = new InputFileJavaFileObject(ErrorAwayBenchmarkProject.inputFile(baseDir, paths.get(42)));
+	}
+
+	@Benchmark
+	public CharSequence getCharContent() throws IOException {
+		return fileObject.getCharContent(false);
+	}
+
+	@Benchmark
+	public boolean isNameCompatible() {
+		return fileObject.isNameCompatible("Class42", Kind.SOURCE);
+	}
+
+	@Benchmark
+	public boolean isNameNotCompatible() {
+		return fileObject.isNameCompatible("Class41", Kind.SOURCE);
+	}
+
+	@Benchmark
+	public String getName() {
+		return fileObject.getName();
+	}
+}
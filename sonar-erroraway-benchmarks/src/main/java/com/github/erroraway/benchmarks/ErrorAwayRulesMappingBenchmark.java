@@ -0,0 +1,84 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.benchmarks;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sonar.api.batch.rule.ActiveRules;
+
+import com.github.erroraway.rules.ErrorAwayRulesMapping;
+import com.github.erroraway.sonarqube.ErrorAwayCheckerIndex;
+import com.google.errorprone.bugpatterns.BugChecker;
+import com.google.errorprone.bugpatterns.time.DurationTemporalUnit;
+import com.uber.nullaway.NullAway;
+
+/**
+ * Measures the lookup of the active checkers, of the plugin checkers and of the repository of a checker
+ *
+ * @author Guillaume Toison
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ErrorAwayRulesMappingBenchmark {
+	private ActiveRules activeRules;
+
+	@Setup
+	public void createActiveRules() {
+		activeRules = ErrorAwayBenchmarkProject.activeRules();
+	}
+
+	@Benchmark
+	public List<Class<? extends BugChecker>> activeCheckers() {
+		return ErrorAwayCheckerIndex.load().activeCheckers(activeRules);
+	}
+
+	@Benchmark
+	public void pluginCheckers(Blackhole blackhole) {
+		Iterator<BugChecker> checkers = ErrorAwayRulesMapping.pluginCheckers();
+
+		while (checkers.hasNext()) {
+			blackhole.consume(checkers.next());
+		}
+	}
+
+	@Benchmark
+	public String errorProneRepository() {
+		return ErrorAwayRulesMapping.repository(DurationTemporalUnit.class);
+	}
+
+	@Benchmark
+	public String nullAwayRepository() {
+		return ErrorAwayRulesMapping.repository(NullAway.class);
+	}
+}
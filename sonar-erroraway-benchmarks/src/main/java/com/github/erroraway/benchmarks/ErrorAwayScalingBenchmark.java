@@ -0,0 +1,312 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.sonar.api.batch.sensor.internal.SensorContextTester;
+import org.sonar.api.impl.utils.DefaultTempFolder;
+
+import com.github.erroraway.sonarqube.ErrorAwayDependencyManager;
+import com.github.erroraway.sonarqube.ErrorAwayJarPool;
+import com.github.erroraway.sonarqube.ErrorAwayPluginConstants;
+import com.github.erroraway.sonarqube.ErrorAwaySensor;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Analyzes generated projects of increasing size with the sensor and reports the wall time, the peak heap, the
+ * allocation rate and the throughput of each analysis in a CSV and a JSON file. Each analysis is run once on a cold
+ * project because the analysis of a large project is long enough to make JMH warmup iterations impractical.
+ * <p>
+ * The arguments are <code>key=value</code> pairs:
+ * <ul>
+ * <li><code>files</code>: the comma separated project sizes, 1000,10000,50000 by default</li>
+ * <li><code>packages</code>: the comma separated numbers of packages the classes are spread over, 100 by default</li>
+ * <li><code>libraries</code>: the comma separated numbers of jars on the classpath, 0 by default</li>
+ * <li><code>library.classes</code>: the number of classes in each jar, 100 by default</li>
+ * <li><code>workers</code>: the comma separated numbers of worker JVMs, 0 by default to analyze the projects in this JVM,
+ * e.g. 0,4 to compare the throughput of the in-process analysis with the one of 4 workers analyzing the clusters of
+ * dependent packages</li>
+ * <li><code>output</code>: the folder where the reports are written, scaling by default</li>
+ * <li>any other key is a setting of the analyzed projects, e.g. <code>erroraway.analysis.shards=4</code></li>
+ * </ul>
+ * The Maven dependencies are resolved offline from the local repository unless
+ * <code>erroraway.maven.work.offline=false</code> is passed, so that the measures do not depend on the network.
+ * The allocation and the peak heap are computed from the GC notifications so they include the shard threads, but not
+ * the worker JVMs.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public final class ErrorAwayScalingBenchmark {
+	static final String CSV_FILE_NAME = "erroraway-scaling.csv";
+	static final String JSON_FILE_NAME = "erroraway-scaling.json";
+
+	private static final String CSV_HEADER = "files,packages,libraries,workers,wallTimeMs,filesPerSecond,peakHeapMb,allocatedMb,allocationRateMbPerSecond,issues";
+
+	/**
+	 * The result of the analysis of a project
+	 */
+	record Result(int files, int packages, int libraries, int workers, double wallTimeMs, double peakHeapMb, double allocatedMb, int issues) {
+		double filesPerSecond() {
+			return files * 1000.0 / wallTimeMs;
+		}
+
+		double allocationRateMbPerSecond() {
+			return allocatedMb * 1000.0 / wallTimeMs;
+		}
+
+		String toCsv() {
+			return String.format(Locale.ROOT, "%d,%d,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%d", files, packages, libraries, workers, wallTimeMs, filesPerSecond(), peakHeapMb, allocatedMb,
+					allocationRateMbPerSecond(), issues);
+		}
+	}
+
+	private ErrorAwayScalingBenchmark() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		Map<String, String> arguments = new LinkedHashMap<>();
+		for (String arg : args) {
+			String[] keyValue = arg.split("=", 2);
+
+			if (keyValue.length != 2) {
+				throw new IllegalArgumentException("Expected key=value but got " + arg);
+			}
+
+			arguments.put(keyValue[0], keyValue[1]);
+		}
+
+		int[] files = integers(arguments.remove("files"), "1000,10000,50000");
+		int[] packages = integers(arguments.remove("packages"), "100");
+		int[] libraries = integers(arguments.remove("libraries"), "0");
+		int libraryClasses = integers(arguments.remove("library.classes"), "100")[0];
+		int[] workers = integers(arguments.remove("workers"), "0");
+		Path output = Files.createDirectories(Path.of(arguments.getOrDefault("output", "scaling")));
+		arguments.remove("output");
+		arguments.putIfAbsent(ErrorAwayPluginConstants.MAVEN_WORK_OFFLINE, "true");
+
+		List<Result> results = new ArrayList<>();
+		for (int fileCount : files) {
+			for (int packageCount : packages) {
+				for (int libraryCount : libraries) {
+					for (int workerCount : workers) {
+						Result result = run(fileCount, packageCount, libraryCount, libraryClasses, workerCount, arguments);
+						System.out.println(CSV_HEADER);
+						System.out.println(result.toCsv());
+
+						results.add(result);
+						write(results, output);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generate a project and analyze it
+	 *
+	 * @param files
+	 *            The number of classes
+	 * @param packages
+	 *            The number of packages the classes are spread over
+	 * @param libraries
+	 *            The number of jars on the classpath
+	 * @param libraryClasses
+	 *            The number of classes in each jar
+	 * @param workers
+	 *            The number of worker JVMs, 0 to analyze the project in this JVM
+	 * @param settings
+	 *            The project settings
+	 * @return The measures of the analysis
+	 */
+	static Result run(int files, int packages, int libraries, int libraryClasses, int workers, Map<String, String> settings) throws IOException {
+		Path baseDir = Files.createTempDirectory("erroraway-scaling");
+		Path tempDir = Files.createTempDirectory("erroraway-scaling-temp");
+
+		try {
+			List<Path> paths = ErrorAwayBenchmarkProject.generate(baseDir, files, packages, libraries);
+			List<Path> jars = ErrorAwayBenchmarkProject.generateLibraries(baseDir.resolve("lib"), libraries, libraryClasses);
+
+			Map<String, String> projectSettings = new LinkedHashMap<>(settings);
+			if (!jars.isEmpty()) {
+				projectSettings.put("sonar.java.libraries", jars.stream().map(Path::toString).collect(Collectors.joining(",")));
+			}
+			if (workers > 0) {
+				projectSettings.put(ErrorAwayPluginConstants.ANALYSIS_FORK, "true");
+				projectSettings.put(ErrorAwayPluginConstants.ANALYSIS_FORK_WORKERS, Integer.toString(workers));
+			}
+
+			SensorContextTester context = ErrorAwayBenchmarkProject.sensorContext(baseDir, paths, projectSettings);
+			DefaultTempFolder tempFolder = new DefaultTempFolder(tempDir.toFile(), true);
+
+			System.gc();
+			HeapMonitor monitor = new HeapMonitor();
+			long start = System.nanoTime();
+			try {
+				new ErrorAwaySensor(new ErrorAwayDependencyManager(tempFolder, context.config()), new ErrorAwayJarPool(), tempFolder).execute(context);
+			} finally {
+				monitor.stop();
+			}
+			long wallTime = System.nanoTime() - start;
+			tempFolder.stop();
+
+			return new Result(files, packages, libraries, workers, wallTime / 1_000_000.0, toMb(monitor.peakBytes()), toMb(monitor.allocatedBytes()), context.allIssues().size());
+		} finally {
+			delete(baseDir);
+			delete(tempDir);
+		}
+	}
+
+	static void write(List<Result> results, Path output) throws IOException {
+		List<String> lines = new ArrayList<>(results.size() + 1);
+		lines.add(CSV_HEADER);
+		results.forEach(result -> lines.add(result.toCsv()));
+		Files.write(output.resolve(CSV_FILE_NAME), lines, StandardCharsets.UTF_8);
+
+		JsonArray report = new JsonArray();
+		for (Result result : results) {
+			JsonObject json = new JsonObject();
+			json.addProperty("files", result.files());
+			json.addProperty("packages", result.packages());
+			json.addProperty("libraries", result.libraries());
+			json.addProperty("workers", result.workers());
+			json.addProperty("wallTimeMs", result.wallTimeMs());
+			json.addProperty("filesPerSecond", result.filesPerSecond());
+			json.addProperty("peakHeapMb", result.peakHeapMb());
+			json.addProperty("allocatedMb", result.allocatedMb());
+			json.addProperty("allocationRateMbPerSecond", result.allocationRateMbPerSecond());
+			json.addProperty("issues", result.issues());
+			report.add(json);
+		}
+
+		try (Writer writer = Files.newBufferedWriter(output.resolve(JSON_FILE_NAME), StandardCharsets.UTF_8)) {
+			new GsonBuilder().setPrettyPrinting().create().toJson(report, writer);
+		}
+	}
+
+	private static int[] integers(String value, String defaultValue) {
+		return Arrays.stream((value == null ? defaultValue : value).split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+	}
+
+	private static double toMb(long bytes) {
+		return bytes / (1024.0 * 1024.0);
+	}
+
+	private static void delete(Path dir) {
+		if (!Files.exists(dir)) {
+			return;
+		}
+
+		try (Stream<Path> paths = Files.walk(dir)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.deleteIfExists(path);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Computes the bytes allocated by all the threads from the heap usage before and after each garbage collection
+	 */
+	private static final class HeapMonitor implements NotificationListener {
+		private final Set<String> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+				.filter(pool -> pool.getType() == MemoryType.HEAP)
+				.map(MemoryPoolMXBean::getName)
+				.collect(Collectors.toSet());
+		private final long startUsed = heapUsed();
+		private final AtomicLong collectedBytes = new AtomicLong();
+		private final AtomicLong peakBytes = new AtomicLong(startUsed);
+		private long endUsed;
+
+		HeapMonitor() {
+			ManagementFactory.getGarbageCollectorMXBeans().forEach(gc -> ((NotificationEmitter) gc).addNotificationListener(this, null, null));
+		}
+
+		@Override
+		public void handleNotification(Notification notification, Object handback) {
+			if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+				return;
+			}
+
+			GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+			long before = heapUsed(info.getGcInfo().getMemoryUsageBeforeGc());
+			long after = heapUsed(info.getGcInfo().getMemoryUsageAfterGc());
+
+			collectedBytes.addAndGet(Math.max(0, before - after));
+			peakBytes.accumulateAndGet(before, Math::max);
+		}
+
+		void stop() {
+			endUsed = heapUsed();
+			peakBytes.accumulateAndGet(endUsed, Math::max);
+
+			ManagementFactory.getGarbageCollectorMXBeans().forEach(gc -> {
+				try {
+					((NotificationEmitter) gc).removeNotificationListener(this);
+				} catch (ListenerNotFoundException e) {
+					// Not registered on this collector
+				}
+			});
+		}
+
+		long allocatedBytes() {
+			return collectedBytes.get() + endUsed - startUsed;
+		}
+
+		long peakBytes() {
+			return peakBytes.get();
+		}
+
+		private long heapUsed() {
+			return ManagementFactory.getMemoryPoolMXBeans().stream().filter(pool -> heapPools.contains(pool.getName())).mapToLong(pool -> pool.getUsage().getUsed()).sum();
+		}
+
+		private long heapUsed(Map<String, MemoryUsage> usages) {
+			return usages.entrySet().stream().filter(usage -> heapPools.contains(usage.getKey())).mapToLong(usage -> usage.getValue().getUsed()).sum();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.erroraway.rules.ErrorAwayRulesMapping;
+import com.google.errorprone.BugCheckerInfo;
+import com.google.errorprone.ErrorProneOptions;
+import com.google.errorprone.bugpatterns.BugChecker;
+import com.google.errorprone.scanner.BuiltInCheckerSuppliers;
+import com.google.errorprone.scanner.Scanner;
+import com.google.errorprone.scanner.ScannerSupplier;
+
+/**
+ * Measures the construction of the scanner with all the checkers enabled by default, as done by the sensor for each
+ * analysis
+ *
+ * @author Guillaume Toison
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ErrorAwayScannerSupplierBenchmark {
+	private List<Class<? extends BugChecker>> checkers;
+	private ErrorProneOptions options;
+
+	@Setup
+	public void collectCheckers() {
+		checkers = new ArrayList<>();
+
+		for (BugCheckerInfo checker : BuiltInCheckerSuppliers.ENABLED_WARNINGS) {
+			checkers.add(checker.checkerClass());
+		}
+		for (BugCheckerInfo checker : BuiltInCheckerSuppliers.ENABLED_ERRORS) {
+			checkers.add(checker.checkerClass());
+		}
+
+		Iterator<BugChecker> pluginCheckers = ErrorAwayRulesMapping.pluginCheckers();
+		while (pluginCheckers.hasNext()) {
+			checkers.add(pluginCheckers.next().getClass());
+		}
+
+		options = ErrorProneOptions.processArgs(List.of("-XepOpt:NullAway:AnnotatedPackages=bench"));
+	}
+
+	@Benchmark
+	public ScannerSupplier scannerSupplier() {
+		return ScannerSupplier.fromBugCheckerClasses(checkers).applyOverrides(options);
+	}
+
+	@Benchmark
+	public Scanner scanner() {
+		return ScannerSupplier.fromBugCheckerClasses(checkers).applyOverrides(options).get();
+	}
+}
@@ -34,6 +34,11 @@ public final class ErrorAwayRulesMapping {
 	public static final String ERRORPRONE_SLF4J_REPOSITORY = "errorprone-slf4j";
 	public static final String PICNIC_REPOSITORY = "picnic-errorprone";
 
+	/**
+	 * The index generated at build time, next to the rules metadata, mapping each rule key to its checker class name
+	 */
+	public static final String CHECKER_INDEX = "checkers.properties";
+
 	public static final int ERRORPRONE_REPOSITORY_RULES_COUNT = 475;
 	public static final int NULLAWAY_REPOSITORY_RULES_COUNT = 1;
 	public static final int ERRORPRONE_SLF4J_REPOSITORY_RULES_COUNT = 8;
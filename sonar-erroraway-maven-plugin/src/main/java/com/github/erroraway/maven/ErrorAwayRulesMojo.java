@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -32,6 +33,7 @@ import org.commonmark.node.Node;
 import org.commonmark.parser.Parser;
 import org.commonmark.renderer.html.HtmlRenderer;
 import org.json.JSONObject;
+import org.sonar.api.rule.RuleKey;
 import org.sonar.api.rule.RuleStatus;
 import org.sonar.api.rule.Severity;
 import org.sonar.api.rules.RuleType;
@@ -64,6 +66,8 @@ public class ErrorAwayRulesMojo extends AbstractMojo {
 	@Parameter(defaultValue = "${project.build.outputDirectory}", required = true, readonly = true)
 	File outputDirectory;
 
+	private final Map<String, String> checkerIndex = new TreeMap<>();
+
 	@Override
 	public void execute() throws MojoExecutionException, MojoFailureException {
 		Collection<BugCheckerInfo> errorProneBugCheckerInfos = new ArrayList<>();
@@ -82,6 +86,8 @@ public class ErrorAwayRulesMojo extends AbstractMojo {
 
 			processCheckers(repository, checkersInfos);
 		}
+
+		generateCheckerIndex();
 	}
 
 	public static Map<String, List<Class<? extends BugChecker>>> checkerClassesByRepository() {
@@ -108,6 +114,7 @@ public class ErrorAwayRulesMojo extends AbstractMojo {
 			String ruleKey = asRuleKey(bugCheckerInfo);
 
 			ruleKeys.add(ruleKey);
+			checkerIndex.put(RuleKey.of(repositoryName, ruleKey).toString(), bugCheckerInfo.checkerClass().getName());
 
 			generateRuleMetaData(repositoryOutputDirectory, bugCheckerInfo);
 			generateRuleDescription(repositoryOutputDirectory, bugCheckerInfo);
@@ -182,6 +189,23 @@ public class ErrorAwayRulesMojo extends AbstractMojo {
 		}
 	}
 
+	/**
+	 * Write the class name of the checker of each rule so that the sensor can load the active checkers without
+	 * instantiating all the plugin checkers, the keys are sorted to keep the build reproducible
+	 */
+	public void generateCheckerIndex() throws MojoFailureException {
+		File indexFile = new File(outputDirectory, ErrorAwayRulesMapping.CHECKER_INDEX);
+
+		try (FileWriter writer = new FileWriter(indexFile, StandardCharsets.UTF_8)) {
+			for (Map.Entry<String, String> entry : checkerIndex.entrySet()) {
+				// The rule keys contain the repository and key separator which must be escaped in a properties file
+				writer.write(entry.getKey().replace(":", "\\:") + "=" + entry.getValue() + "\n");
+			}
+		} catch (IOException e) {
+			throw new MojoFailureException("Error writing the checker index " + indexFile, e);
+		}
+	}
+
 	public MojoFailureException handleDescriptionReadException(String ruleName, Exception e) {
 		getLog().warn("Error parsing MD description for" + ruleName, e);
 
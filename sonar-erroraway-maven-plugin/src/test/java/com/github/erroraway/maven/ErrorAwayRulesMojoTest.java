@@ -1,5 +1,6 @@
 package com.github.erroraway.maven;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.mockito.ArgumentMatchers.any;
@@ -10,10 +11,16 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
+import java.io.Reader;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
 
 import org.junit.jupiter.api.Test;
 
+import com.github.erroraway.rules.ErrorAwayRulesMapping;
+
 class ErrorAwayRulesMojoTest {
 
 	@Test
@@ -24,6 +31,22 @@ class ErrorAwayRulesMojoTest {
 		assertDoesNotThrow(mojo::execute);
 	}
 
+	@Test
+	void checkerIndex() throws Exception {
+		ErrorAwayRulesMojo mojo = new ErrorAwayRulesMojo();
+		mojo.outputDirectory = new File("target/test/metadata");
+		mojo.execute();
+
+		Properties index = new Properties();
+		try (Reader reader = Files.newBufferedReader(new File(mojo.outputDirectory, ErrorAwayRulesMapping.CHECKER_INDEX).toPath(), StandardCharsets.UTF_8)) {
+			index.load(reader);
+		}
+
+		assertThat(index).hasSize(ErrorAwayRulesMapping.RULES_COUNT)
+				.containsEntry("errorprone:DurationTemporalUnit", "com.google.errorprone.bugpatterns.time.DurationTemporalUnit")
+				.containsEntry("nullaway:NullAway", "com.uber.nullaway.NullAway");
+	}
+
 	@Test
 	void handleDescriptionReadException() throws Exception {
 		ErrorAwayRulesMojo mojo = spy(ErrorAwayRulesMojo.class);
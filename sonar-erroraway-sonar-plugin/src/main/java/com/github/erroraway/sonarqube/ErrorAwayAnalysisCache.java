@@ -0,0 +1,245 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.InputFile.Status;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.rule.RuleKey;
+
+import com.github.erroraway.ErrorAwayException;
+
+/**
+ * Persists the issues raised on each file in the Sonar analysis cache so that they can be replayed for unchanged
+ * files instead of analyzing them again. The entries are only reused when the file content and the analysis
+ * fingerprint (plugin version, active checkers, options and classpath) are the same as in the previous analysis.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayAnalysisCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayAnalysisCache.class);
+
+	private static final String KEY_PREFIX = "erroraway:issues:";
+	private static final int FORMAT_VERSION = 1;
+
+	private final SensorContext context;
+	private final String fingerprint;
+	private final boolean readEnabled;
+	private final boolean writeEnabled;
+	private final Map<InputFile, List<ErrorAwayIssue>> issues = new ConcurrentHashMap<>();
+
+	public ErrorAwayAnalysisCache(SensorContext context, String fingerprint) {
+		this.context = context;
+		this.fingerprint = fingerprint;
+
+		writeEnabled = context.isCacheEnabled();
+		readEnabled = writeEnabled && context.canSkipUnchangedFiles();
+	}
+
+	/**
+	 * @param parts
+	 *            The settings that change the issues raised on a file, e.g. the plugin version or the active checkers
+	 * @param classpath
+	 *            The classpath, jars are identified by their path, modification time and size, folders by their path,
+	 *            the latest modification time of their files and their number of files
+	 * @return A digest of the settings
+	 */
+	public static String fingerprint(Collection<String> parts, Collection<File> classpath) {
+		MessageDigest digest = newDigest();
+
+		for (String part : parts) {
+			digest.update(part.getBytes(UTF_8));
+			digest.update((byte) 0);
+		}
+
+		for (File file : classpath) {
+			digest.update(file.getAbsolutePath().getBytes(UTF_8));
+			digest.update(version(file).getBytes(UTF_8));
+			digest.update((byte) 0);
+		}
+
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * The classes of a folder, e.g. the <code>target/classes</code> of another module of the build, change when the
+	 * module is compiled again, as do the SNAPSHOT jars
+	 */
+	private static String version(File file) {
+		if (file.isFile()) {
+			return file.lastModified() + ":" + file.length();
+		}
+
+		if (!file.isDirectory()) {
+			return "-1";
+		}
+
+		try (Stream<Path> files = Files.walk(file.toPath())) {
+			LongSummaryStatistics modificationTimes = files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().lastModified()).summaryStatistics();
+
+			return modificationTimes.getMax() + ":" + modificationTimes.getCount();
+		} catch (IOException | UncheckedIOException e) {
+			LOGGER.debug("Error listing the files of {}", file, e);
+			return "-1";
+		}
+	}
+
+	/**
+	 * @param inputFile
+	 *            The file to look up
+	 * @return The issues raised on this file by the previous analysis or <code>null</code> if the file must be analyzed
+	 */
+	public List<ErrorAwayIssue> cachedIssues(InputFile inputFile) {
+		String key = key(inputFile);
+
+		if (!readEnabled || inputFile.status() != Status.SAME || !context.previousCache().contains(key)) {
+			return null;
+		}
+
+		try (DataInputStream input = new DataInputStream(context.previousCache().read(key))) {
+			if (input.readInt() != FORMAT_VERSION || !fingerprint.equals(input.readUTF()) || !contentHash(inputFile).equals(input.readUTF())) {
+				return null;
+			}
+
+			int count = input.readInt();
+			List<ErrorAwayIssue> cachedIssues = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++) {
+				RuleKey ruleKey = RuleKey.of(input.readUTF(), input.readUTF());
+				int line = input.readInt();
+				byte[] message = new byte[input.readInt()];
+				input.readFully(message);
+
+				cachedIssues.add(new ErrorAwayIssue(inputFile, ruleKey, line, new String(message, UTF_8)));
+			}
+
+			context.nextCache().copyFromPrevious(key);
+
+			return cachedIssues;
+		} catch (IOException | RuntimeException e) {
+			LOGGER.debug("Could not read cached issues for {}", inputFile, e);
+			return null;
+		}
+	}
+
+	/**
+	 * @param issue
+	 *            An issue raised on an analyzed file
+	 */
+	public void record(ErrorAwayIssue issue) {
+		if (writeEnabled) {
+			issues.computeIfAbsent(issue.inputFile(), f -> Collections.synchronizedList(new ArrayList<>())).add(issue);
+		}
+	}
+
+	/**
+	 * Write the issues recorded for the analyzed files in the next cache, including the files without any issue
+	 *
+	 * @param analyzedFiles
+	 *            The compilation units of the analysis, the files only read from the source path may raise issues
+	 *            with other settings
+	 */
+	public void write(Collection<InputFile> analyzedFiles) {
+		if (!writeEnabled) {
+			return;
+		}
+
+		for (InputFile inputFile : analyzedFiles) {
+			try {
+				context.nextCache().write(key(inputFile), serialize(inputFile, issues.getOrDefault(inputFile, Collections.emptyList())));
+			} catch (IOException | RuntimeException e) {
+				LOGGER.debug("Could not write cached issues for {}", inputFile, e);
+			}
+		}
+	}
+
+	private byte[] serialize(InputFile inputFile, List<ErrorAwayIssue> fileIssues) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (DataOutputStream output = new DataOutputStream(bytes)) {
+			output.writeInt(FORMAT_VERSION);
+			output.writeUTF(fingerprint);
+			output.writeUTF(contentHash(inputFile));
+
+			synchronized (fileIssues) {
+				output.writeInt(fileIssues.size());
+
+				for (ErrorAwayIssue issue : fileIssues) {
+					byte[] message = issue.message().getBytes(UTF_8);
+
+					output.writeUTF(issue.ruleKey().repository());
+					output.writeUTF(issue.ruleKey().rule());
+					output.writeInt(issue.line());
+					output.writeInt(message.length);
+					output.write(message);
+				}
+			}
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private static String key(InputFile inputFile) {
+		return KEY_PREFIX + inputFile.key();
+	}
+
+	private static String contentHash(InputFile inputFile) throws IOException {
+		MessageDigest digest = newDigest();
+
+		try (InputStream input = inputFile.inputStream()) {
+			byte[] buffer = new byte[8192];
+			for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+				digest.update(buffer, 0, read);
+			}
+		}
+
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new ErrorAwayException("SHA-256 is not available", e);
+		}
+	}
+}
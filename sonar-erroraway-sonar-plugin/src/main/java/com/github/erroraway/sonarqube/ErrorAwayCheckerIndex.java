@@ -0,0 +1,121 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.rule.ActiveRule;
+import org.sonar.api.batch.rule.ActiveRules;
+
+import com.github.erroraway.ErrorAwayException;
+import com.github.erroraway.rules.ErrorAwayRulesMapping;
+import com.google.errorprone.bugpatterns.BugChecker;
+
+/**
+ * The checker class of each rule, generated at build time by the rules Mojo. Only the classes of the active rules are
+ * loaded, none of the checkers is instantiated.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayCheckerIndex {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayCheckerIndex.class);
+
+	private static ErrorAwayCheckerIndex instance;
+
+	private final Properties checkerClassNames;
+
+	ErrorAwayCheckerIndex(Properties checkerClassNames) {
+		this.checkerClassNames = checkerClassNames;
+	}
+
+	/**
+	 * @return The index bundled with the plugin, it is loaded once for all the modules of the project
+	 */
+	public static synchronized ErrorAwayCheckerIndex load() {
+		if (instance == null) {
+			instance = new ErrorAwayCheckerIndex(read());
+		}
+
+		return instance;
+	}
+
+	/**
+	 * @param activeRules
+	 *            The active rules of the project
+	 * @return The checker classes of the active rules of all the repositories
+	 */
+	public List<Class<? extends BugChecker>> activeCheckers(ActiveRules activeRules) {
+		List<Class<? extends BugChecker>> checkers = new ArrayList<>();
+
+		for (String repository : ErrorAwayRulesMapping.REPOSITORIES) {
+			for (ActiveRule activeRule : activeRules.findByRepository(repository)) {
+				String className = checkerClassNames.getProperty(activeRule.ruleKey().toString());
+
+				if (className == null) {
+					LOGGER.warn("No checker found for the rule {}, the rule is ignored", activeRule.ruleKey());
+				} else {
+					checkers.add(checkerClass(className));
+				}
+			}
+		}
+
+		return checkers;
+	}
+
+	/**
+	 * @return The number of rules in the index
+	 */
+	public int size() {
+		return checkerClassNames.size();
+	}
+
+	private static Class<? extends BugChecker> checkerClass(String className) {
+		try {
+			// The class is initialized when the scanner supplier instantiates the checker
+			return Class.forName(className, false, ErrorAwayCheckerIndex.class.getClassLoader()).asSubclass(BugChecker.class);
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new ErrorAwayException("Could not load the checker " + className, e);
+		}
+	}
+
+	private static Properties read() {
+		Properties properties = new Properties();
+
+		try (InputStream input = ErrorAwayRulesMapping.class.getResourceAsStream(ErrorAwayRulesMapping.CHECKER_INDEX)) {
+			if (input == null) {
+				throw new ErrorAwayException("Checker index not found in the classpath: " + ErrorAwayRulesMapping.CHECKER_INDEX);
+			}
+
+			try (Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
+				properties.load(reader);
+			}
+		} catch (IOException e) {
+			throw new ErrorAwayException("Error loading the checker index", e);
+		}
+
+		return properties;
+	}
+}
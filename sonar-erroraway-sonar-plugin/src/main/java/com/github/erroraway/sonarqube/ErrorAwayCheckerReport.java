@@ -0,0 +1,153 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Collects the time spent by each checker in all the javac tasks of an analysis and reports it along with the number of
+ * issues raised by the checker. Error Prone only measures the wall time of the checkers, the CPU time is measured for
+ * whole javac tasks.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayCheckerReport {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayCheckerReport.class);
+
+	public static final String REPORT_FILE_NAME = "erroraway-checkers.json";
+
+	private final Map<String, Duration> wallTimes = new ConcurrentHashMap<>();
+	private final AtomicLong initializationNanos = new AtomicLong();
+	private final AtomicLong taskCpuNanos = new AtomicLong();
+	private final AtomicLong taskWallNanos = new AtomicLong();
+
+	/**
+	 * The time spent by a checker and the number of issues it raised
+	 */
+	public record CheckerStatistics(String checker, Duration wallTime, long issues) {
+	}
+
+	/**
+	 * @param checkerTimings
+	 *            The wall time of each checker in a javac task
+	 * @param initializationTime
+	 *            The time spent by Error Prone to instantiate the checkers
+	 * @param taskWallTime
+	 *            The wall time of the javac task
+	 * @param taskCpuTime
+	 *            The CPU time of the javac task, negative when it could not be measured
+	 */
+	public void addTask(Map<String, Duration> checkerTimings, Duration initializationTime, Duration taskWallTime, Duration taskCpuTime) {
+		checkerTimings.forEach((checker, time) -> wallTimes.merge(checker, time, Duration::plus));
+		initializationNanos.addAndGet(initializationTime.toNanos());
+		taskWallNanos.addAndGet(taskWallTime.toNanos());
+
+		if (!taskCpuTime.isNegative()) {
+			taskCpuNanos.addAndGet(taskCpuTime.toNanos());
+		}
+	}
+
+	/**
+	 * @param issueCounts
+	 *            The number of issues raised by each checker
+	 * @return The statistics of each checker, the slowest first
+	 */
+	public List<CheckerStatistics> statistics(Map<String, Long> issueCounts) {
+		Set<String> checkers = new HashSet<>(wallTimes.keySet());
+		checkers.addAll(issueCounts.keySet());
+
+		List<CheckerStatistics> statistics = new ArrayList<>(checkers.size());
+		for (String checker : checkers) {
+			statistics.add(new CheckerStatistics(checker, wallTimes.getOrDefault(checker, Duration.ZERO), issueCounts.getOrDefault(checker, 0L)));
+		}
+
+		statistics.sort(Comparator.comparing(CheckerStatistics::wallTime).reversed().thenComparing(CheckerStatistics::checker));
+
+		return statistics;
+	}
+
+	/**
+	 * Log the slowest checkers
+	 *
+	 * @param issueCounts
+	 *            The number of issues raised by each checker
+	 * @param top
+	 *            The number of checkers to log
+	 */
+	public void log(Map<String, Long> issueCounts, int top) {
+		List<CheckerStatistics> statistics = statistics(issueCounts);
+
+		LOGGER.info("Javac tasks took {} ms ({} ms CPU), checkers initialization took {} ms, slowest checkers:", taskWallNanos.get() / 1_000_000,
+				taskCpuNanos.get() / 1_000_000, initializationNanos.get() / 1_000_000);
+
+		for (CheckerStatistics checker : statistics.subList(0, Math.min(top, statistics.size()))) {
+			LOGGER.info(String.format("  %-50s %8d ms %6d issues", checker.checker(), checker.wallTime().toMillis(), checker.issues()));
+		}
+	}
+
+	/**
+	 * Write the statistics of all the checkers in a JSON file
+	 *
+	 * @param issueCounts
+	 *            The number of issues raised by each checker
+	 * @param file
+	 *            The report file
+	 */
+	public void write(Map<String, Long> issueCounts, Path file) {
+		JsonObject report = new JsonObject();
+		report.addProperty("taskWallTimeMs", taskWallNanos.get() / 1_000_000.0);
+		report.addProperty("taskCpuTimeMs", taskCpuNanos.get() / 1_000_000.0);
+		report.addProperty("initializationTimeMs", initializationNanos.get() / 1_000_000.0);
+
+		JsonArray checkers = new JsonArray();
+		for (CheckerStatistics statistics : statistics(issueCounts)) {
+			JsonObject checker = new JsonObject();
+			checker.addProperty("name", statistics.checker());
+			checker.addProperty("wallTimeMs", statistics.wallTime().toNanos() / 1_000_000.0);
+			checker.addProperty("issues", statistics.issues());
+
+			checkers.add(checker);
+		}
+		report.add("checkers", checkers);
+
+		try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			new GsonBuilder().setPrettyPrinting().create().toJson(report, writer);
+		} catch (IOException e) {
+			LOGGER.warn("Could not write the checkers report {}", file, e);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The class data sharing archive of the worker JVMs: the classes of javac, Error Prone and the checkers loaded by a
+ * worker are parsed and verified once and mapped by the next workers instead of being loaded again from the jars.
+ * <p>
+ * There is no archive until a worker trained it: the first worker started without an archive dumps its loaded classes
+ * when it exits, the archive is then moved next to the previous ones where the next workers find it. The archive is
+ * specific to the JDK, the worker classpath and the JVM options, a new one is created when one of them changes.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayClassDataSharing {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayClassDataSharing.class);
+
+	private static final String TRAINING_OPTION = "-XX:ArchiveClassesAtExit=";
+	private static final String ARCHIVE_OPTION = "-XX:SharedArchiveFile=";
+
+	private final Path directory;
+	private final String workerClasspath;
+	private final Path archive;
+	private Path trainingArchive;
+
+	/**
+	 * @param directory
+	 *            The folder of the archives
+	 * @param workerClasspath
+	 *            The classpath of the worker JVMs
+	 * @param jvmOptions
+	 *            The options of the worker JVMs given by the user
+	 */
+	public ErrorAwayClassDataSharing(Path directory, String workerClasspath, List<String> jvmOptions) {
+		this.directory = directory;
+		this.workerClasspath = workerClasspath;
+		this.archive = directory.resolve(ErrorAwayForkedCompiler.workerKey(workerClasspath, jvmOptions) + ".jsa");
+	}
+
+	/**
+	 * @return The archive once it was created by a worker
+	 */
+	public Path archive() {
+		return archive;
+	}
+
+	/**
+	 * @return The options of a worker JVM using the archive, empty when there is no archive
+	 */
+	public List<String> archiveOptions() {
+		return Files.isRegularFile(archive) ? List.of(ARCHIVE_OPTION + archive) : List.of();
+	}
+
+	/**
+	 * @return The options of a worker JVM: using the archive, or creating it when there is no archive and no other
+	 *         worker of this analysis is already creating it
+	 */
+	public synchronized List<String> jvmOptions() {
+		if (Files.isRegularFile(archive)) {
+			return archiveOptions();
+		}
+
+		if (trainingArchive != null) {
+			return List.of();
+		}
+
+		// The JVM refuses to dump the classes loaded from directories, e.g. when the plugin is not packaged
+		for (String element : workerClasspath.split(File.pathSeparator)) {
+			if (Files.isDirectory(Path.of(element))) {
+				LOGGER.info("The class data sharing archive is not created because the worker classpath contains the directory {}", element);
+				return List.of();
+			}
+		}
+
+		try {
+			Files.createDirectories(directory);
+		} catch (IOException e) {
+			LOGGER.warn("Error creating the folder of the class data sharing archives {}", directory, e);
+			return List.of();
+		}
+
+		// Another analysis may create the same archive at the same time, each worker writes its own file
+		trainingArchive = directory.resolve(archive.getFileName() + "." + UUID.randomUUID() + ".tmp");
+		LOGGER.info("Creating the class data sharing archive {} when the analysis worker exits", archive);
+
+		return List.of(TRAINING_OPTION + trainingArchive);
+	}
+
+	/**
+	 * @param jvmOptions
+	 *            Options returned by {@link #jvmOptions()}
+	 * @return <code>true</code> if the worker started with these options creates the archive when it exits
+	 */
+	public boolean isTraining(List<String> jvmOptions) {
+		return jvmOptions.stream().anyMatch(option -> option.startsWith(TRAINING_OPTION));
+	}
+
+	/**
+	 * Moves the archive created by the worker to its final location
+	 *
+	 * @param jvmOptions
+	 *            The options returned by {@link #jvmOptions()} for the worker
+	 * @param exitedNormally
+	 *            <code>false</code> if the worker was killed or failed, its archive is incomplete
+	 */
+	public synchronized void workerStopped(List<String> jvmOptions, boolean exitedNormally) {
+		if (!isTraining(jvmOptions) || trainingArchive == null) {
+			return;
+		}
+
+		try {
+			if (exitedNormally && Files.isRegularFile(trainingArchive)) {
+				Files.move(trainingArchive, archive, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				LOGGER.info("Created the class data sharing archive {}", archive);
+			} else {
+				LOGGER.warn("The class data sharing archive {} was not created by the analysis worker", archive);
+				Files.deleteIfExists(trainingArchive);
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Error moving the class data sharing archive {} to {}", trainingArchive, archive, e);
+		}
+
+		trainingArchive = null;
+	}
+}
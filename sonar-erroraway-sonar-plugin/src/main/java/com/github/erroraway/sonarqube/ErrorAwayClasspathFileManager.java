@@ -0,0 +1,183 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Looks for the classes of a package only in the classpath elements that contain this package instead of searching
+ * every element of the classpath. Each classpath element is registered as a location of its own in the standard file
+ * manager, the jars are opened once by the standard file manager whatever the location they are read from. When a jar
+ * pool is given the jars are read from the pool instead, so they are opened once for all the tasks of the analysis.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayClasspathFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+	private final StandardJavaFileManager standardFileManager;
+	private final ErrorAwayClasspathIndex classpathIndex;
+	private final ErrorAwayJarPool jarPool;
+	private final Map<File, Location> locations = new LinkedHashMap<>();
+	private final Map<File, ErrorAwayJarPool.Jar> jars = new LinkedHashMap<>();
+
+	/**
+	 * A single classpath element
+	 */
+	private record ElementLocation(String name) implements Location {
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean isOutputLocation() {
+			return false;
+		}
+	}
+
+	/**
+	 * @param fileManager
+	 *            The file manager the calls are forwarded to
+	 * @param standardFileManager
+	 *            The file manager listing the classpath elements
+	 * @param classpathIndex
+	 *            The packages of the classpath elements
+	 * @param jarPool
+	 *            The jars shared with the other tasks, <code>null</code> to let the standard file manager open the jars
+	 * @param classpath
+	 *            The classpath of the task, a subset of the indexed classpath
+	 */
+	public ErrorAwayClasspathFileManager(JavaFileManager fileManager, StandardJavaFileManager standardFileManager, ErrorAwayClasspathIndex classpathIndex,
+			ErrorAwayJarPool jarPool, Collection<File> classpath) throws IOException {
+		super(fileManager);
+		this.standardFileManager = standardFileManager;
+		this.classpathIndex = classpathIndex;
+		this.jarPool = jarPool;
+
+		try {
+			for (File element : classpath) {
+				ErrorAwayJarPool.Jar jar = jarPool != null && classpathIndex.isIndexed(element) ? jarPool.acquire(element) : null;
+
+				if (jar != null) {
+					jars.put(element, jar);
+				} else {
+					Location location = new ElementLocation("CLASS_PATH[" + locations.size() + "]");
+					standardFileManager.setLocation(location, List.of(element));
+					locations.put(element, location);
+				}
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public Iterable<JavaFileObject> list(Location location, String packageName, Set<Kind> kinds, boolean recurse) throws IOException {
+		if (location != StandardLocation.CLASS_PATH || recurse) {
+			return super.list(location, packageName, kinds, recurse);
+		}
+
+		List<JavaFileObject> files = new ArrayList<>();
+		for (File element : classpathIndex.entries(packageName)) {
+			ErrorAwayJarPool.Jar jar = jars.get(element);
+			Location elementLocation = locations.get(element);
+
+			if (jar != null) {
+				files.addAll(jar.list(packageName, kinds));
+			} else if (elementLocation != null) {
+				standardFileManager.list(elementLocation, packageName, kinds, false).forEach(files::add);
+			}
+		}
+
+		return files;
+	}
+
+	@Override
+	public JavaFileObject getJavaFileForInput(Location location, String className, Kind kind) throws IOException {
+		if (location != StandardLocation.CLASS_PATH) {
+			return super.getJavaFileForInput(location, className, kind);
+		}
+
+		int lastDot = className.lastIndexOf('.');
+		String packageName = lastDot < 0 ? "" : className.substring(0, lastDot);
+
+		return (JavaFileObject) getFileForInput(location, packageName, className.substring(lastDot + 1) + kind.extension);
+	}
+
+	@Override
+	public FileObject getFileForInput(Location location, String packageName, String relativeName) throws IOException {
+		if (location != StandardLocation.CLASS_PATH) {
+			return super.getFileForInput(location, packageName, relativeName);
+		}
+
+		// The elements removed from the classpath of the task are skipped
+		for (File element : classpathIndex.entries(packageName)) {
+			ErrorAwayJarPool.Jar jar = jars.get(element);
+			Location elementLocation = locations.get(element);
+			FileObject file = null;
+
+			if (jar != null) {
+				file = jar.file(packageName, relativeName);
+			} else if (elementLocation != null) {
+				file = standardFileManager.getFileForInput(elementLocation, packageName, relativeName);
+			}
+
+			if (file != null) {
+				return file;
+			}
+		}
+
+		// The index only lists the packages containing classes, the resources of the other packages are looked for in
+		// every element of the classpath
+		return relativeName.endsWith(Kind.CLASS.extension) ? null : super.getFileForInput(location, packageName, relativeName);
+	}
+
+	@Override
+	public String inferBinaryName(Location location, JavaFileObject file) {
+		if (file instanceof ErrorAwayJarPool.JarFileObject jarFileObject) {
+			return jarFileObject.binaryName();
+		}
+
+		return super.inferBinaryName(location, file);
+	}
+
+	/**
+	 * Gives the jars back to the pool, the file manager the calls are forwarded to is closed by its owner
+	 */
+	@Override
+	public void close() {
+		if (jarPool != null) {
+			jars.values().forEach(jarPool::release);
+			jars.clear();
+		}
+	}
+}
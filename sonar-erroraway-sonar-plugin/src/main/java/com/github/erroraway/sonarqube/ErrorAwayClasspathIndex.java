@@ -0,0 +1,335 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The packages of each jar of a classpath, so that javac only looks for the classes of a package in the jars that
+ * contain this package. The packages of the jars are kept for the next modules and saved in a file for the next
+ * analyses, a jar is listed again when its size or modification time changed. Only the most recently used jars are
+ * kept, so that a long-lived JVM does not accumulate the jars of all the analyses it ran.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayClasspathIndex {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayClasspathIndex.class);
+
+	private static final int FORMAT_VERSION = 1;
+	private static final String PROCESSOR_SERVICE = "META-INF/services/javax.annotation.processing.Processor";
+	private static final String VERSIONS_PREFIX = "META-INF/versions/";
+	static final int MAX_CACHED_JARS = 4096;
+
+	/**
+	 * The packages of the jars indexed by the previous modules by path, the least recently used first. Guarded by the
+	 * class lock.
+	 */
+	private static final Map<String, CachedJar> JAR_PACKAGES = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedJar> eldest) {
+			return size() > MAX_CACHED_JARS;
+		}
+	};
+
+	private final List<File> classpath;
+	private final Set<File> directories;
+	private final Map<File, JarPackages> packagesByJar;
+	private final Map<String, List<File>> entriesByPackage = new ConcurrentHashMap<>();
+
+	private record JarKey(String path, long size, long lastModified) {
+		static JarKey of(File jar) {
+			return new JarKey(jar.getAbsolutePath(), jar.length(), jar.lastModified());
+		}
+	}
+
+	/**
+	 * @param packages
+	 *            The packages containing classes, the unnamed package is an empty string
+	 * @param annotationProcessor
+	 *            <code>true</code> if the jar declares annotation processors
+	 * @param readable
+	 *            <code>false</code> if the jar could not be listed, it is then searched for all the packages
+	 */
+	private record JarPackages(Set<String> packages, boolean annotationProcessor, boolean readable) {
+	}
+
+	/**
+	 * @param key
+	 *            The jar when it was listed, the packages are stale when its size or modification time changed
+	 */
+	private record CachedJar(JarKey key, JarPackages packages) {
+	}
+
+	private ErrorAwayClasspathIndex(List<File> classpath, Set<File> directories, Map<File, JarPackages> packagesByJar) {
+		this.classpath = classpath;
+		this.directories = directories;
+		this.packagesByJar = packagesByJar;
+	}
+
+	/**
+	 * @param classpath
+	 *            The classpath
+	 * @param indexFile
+	 *            The file where the packages of the jars are saved, <code>null</code> to only keep them in memory
+	 * @return The index of the classpath
+	 */
+	public static ErrorAwayClasspathIndex load(Collection<File> classpath, Path indexFile) {
+		Set<File> directories = new HashSet<>();
+		Map<File, JarPackages> packagesByJar = new HashMap<>();
+		List<File> missingJars = new ArrayList<>();
+
+		for (File element : classpath) {
+			if (element.isDirectory()) {
+				directories.add(element);
+			} else if (element.isFile()) {
+				JarPackages jarPackages = cached(JarKey.of(element));
+
+				if (jarPackages == null) {
+					missingJars.add(element);
+				} else {
+					packagesByJar.put(element, jarPackages);
+				}
+			}
+		}
+
+		if (!missingJars.isEmpty()) {
+			packagesByJar.putAll(indexJars(missingJars, indexFile));
+		}
+
+		return new ErrorAwayClasspathIndex(List.copyOf(classpath), directories, packagesByJar);
+	}
+
+	/**
+	 * @param packageName
+	 *            A package name, an empty string for the unnamed package
+	 * @return The folders and the jars that may contain classes of the package, in the classpath order
+	 */
+	public List<File> entries(String packageName) {
+		return entriesByPackage.computeIfAbsent(packageName, p -> {
+			List<File> entries = new ArrayList<>();
+
+			for (File element : classpath) {
+				JarPackages jarPackages = packagesByJar.get(element);
+
+				if (jarPackages == null ? directories.contains(element) : !jarPackages.readable() || jarPackages.packages().contains(p)) {
+					entries.add(element);
+				}
+			}
+
+			return entries;
+		});
+	}
+
+	/**
+	 * @param element
+	 *            A classpath element
+	 * @return The packages of the jar, empty for a folder
+	 */
+	public Set<String> packages(File element) {
+		JarPackages jarPackages = packagesByJar.get(element);
+
+		return jarPackages == null ? Set.of() : jarPackages.packages();
+	}
+
+	/**
+	 * @param element
+	 *            A classpath element
+	 * @return <code>true</code> if the element is a jar declaring annotation processors
+	 */
+	public boolean isAnnotationProcessor(File element) {
+		JarPackages jarPackages = packagesByJar.get(element);
+
+		return jarPackages != null && jarPackages.annotationProcessor();
+	}
+
+	/**
+	 * @param element
+	 *            A classpath element
+	 * @return <code>true</code> if the element is a jar that could be listed
+	 */
+	public boolean isIndexed(File element) {
+		JarPackages jarPackages = packagesByJar.get(element);
+
+		return jarPackages != null && jarPackages.readable();
+	}
+
+	/**
+	 * @return The packages of the jar, <code>null</code> if it was not listed or changed since it was listed
+	 */
+	private static synchronized JarPackages cached(JarKey key) {
+		CachedJar cachedJar = JAR_PACKAGES.get(key.path());
+
+		return cachedJar != null && cachedJar.key().equals(key) ? cachedJar.packages() : null;
+	}
+
+	/**
+	 * @return The number of jars kept in memory
+	 */
+	static synchronized int cachedJars() {
+		return JAR_PACKAGES.size();
+	}
+
+	private static synchronized Map<File, JarPackages> indexJars(List<File> jars, Path indexFile) {
+		if (indexFile != null) {
+			read(indexFile);
+		}
+
+		Map<File, JarPackages> packagesByJar = new HashMap<>();
+		int listedJars = 0;
+		for (File jar : jars) {
+			JarKey key = JarKey.of(jar);
+			JarPackages jarPackages = cached(key);
+
+			if (jarPackages == null) {
+				jarPackages = list(jar);
+				JAR_PACKAGES.put(key.path(), new CachedJar(key, jarPackages));
+				listedJars++;
+			}
+
+			packagesByJar.put(jar, jarPackages);
+		}
+
+		LOGGER.debug("Listed the packages of {} jars", listedJars);
+
+		if (indexFile != null && listedJars > 0) {
+			write(indexFile);
+		}
+
+		return packagesByJar;
+	}
+
+	private static JarPackages list(File jar) {
+		Set<String> packages = new HashSet<>();
+		boolean annotationProcessor = false;
+
+		try (ZipFile zipFile = new ZipFile(jar)) {
+			for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements();) {
+				String name = entries.nextElement().getName();
+
+				if (name.equals(PROCESSOR_SERVICE)) {
+					annotationProcessor = true;
+				} else if (name.endsWith(".class") && !name.endsWith("module-info.class")) {
+					if (name.startsWith(VERSIONS_PREFIX)) {
+						// Multi-release jar: META-INF/versions/11/com/foo/Bar.class
+						int versionEnd = name.indexOf('/', VERSIONS_PREFIX.length());
+						name = versionEnd < 0 ? "" : name.substring(versionEnd + 1);
+					}
+
+					int lastSlash = name.lastIndexOf('/');
+					packages.add(lastSlash < 0 ? "" : name.substring(0, lastSlash).replace('/', '.'));
+				}
+			}
+		} catch (IOException e) {
+			// Let javac decide what to do with this file
+			LOGGER.debug("Error listing the packages of {}", jar, e);
+			return new JarPackages(Set.of(), false, false);
+		}
+
+		return new JarPackages(packages, annotationProcessor, true);
+	}
+
+	private static void read(Path indexFile) {
+		if (!Files.isRegularFile(indexFile)) {
+			return;
+		}
+
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+			if (input.readInt() != FORMAT_VERSION) {
+				return;
+			}
+
+			int jarCount = input.readInt();
+			for (int i = 0; i < jarCount; i++) {
+				JarKey key = new JarKey(input.readUTF(), input.readLong(), input.readLong());
+				boolean annotationProcessor = input.readBoolean();
+				Set<String> packages = new HashSet<>();
+
+				int packageCount = input.readInt();
+				for (int j = 0; j < packageCount; j++) {
+					packages.add(input.readUTF());
+				}
+
+				// The jars listed by this JVM are more recent than the file
+				JAR_PACKAGES.putIfAbsent(key.path(), new CachedJar(key, new JarPackages(packages, annotationProcessor, true)));
+			}
+		} catch (IOException | RuntimeException e) {
+			// The jars are listed again and the file is replaced
+			LOGGER.debug("Could not read the classpath index {}", indexFile, e);
+		}
+	}
+
+	private static void write(Path indexFile) {
+		try {
+			Path parent = indexFile.toAbsolutePath().getParent();
+			Files.createDirectories(parent);
+			Path temp = Files.createTempFile(parent, indexFile.getFileName().toString(), ".tmp");
+
+			try {
+				try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+					List<CachedJar> jars = JAR_PACKAGES.values().stream().filter(jar -> jar.packages().readable()).toList();
+
+					output.writeInt(FORMAT_VERSION);
+					output.writeInt(jars.size());
+
+					for (CachedJar jar : jars) {
+						output.writeUTF(jar.key().path());
+						output.writeLong(jar.key().size());
+						output.writeLong(jar.key().lastModified());
+						output.writeBoolean(jar.packages().annotationProcessor());
+						output.writeInt(jar.packages().packages().size());
+
+						for (String packageName : jar.packages().packages()) {
+							output.writeUTF(packageName);
+						}
+					}
+				}
+
+				// Concurrent analyses never read a partial index
+				Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Could not write the classpath index {}", indexFile, e);
+		}
+	}
+}
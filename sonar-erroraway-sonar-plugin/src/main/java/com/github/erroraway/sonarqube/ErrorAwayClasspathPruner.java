@@ -0,0 +1,108 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+
+/**
+ * Removes from the classpath the jars that the source files cannot reference: a jar is kept when one of its packages
+ * appears in the package declaration, the imports or the fully qualified names of the sources. The scan is lexical
+ * so the pruned classpath may miss the jars that are only needed indirectly, e.g. for the super class of a referenced
+ * class, the analysis then falls back to the full classpath.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public final class ErrorAwayClasspathPruner {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayClasspathPruner.class);
+
+	private static final Pattern QUALIFIED_NAME_PATTERN = Pattern.compile("[A-Za-z_$][\\w$]*(?:\\.[A-Za-z_$][\\w$]*)+");
+
+	private ErrorAwayClasspathPruner() {
+	}
+
+	/**
+	 * @param classpath
+	 *            The full classpath
+	 * @param classpathIndex
+	 *            The packages of the jars of the classpath
+	 * @param inputFiles
+	 *            All the files of the module, including the files that are only read from the source path
+	 * @param processorsFromClasspath
+	 *            <code>true</code> if javac looks for the annotation processors in the classpath, the jars declaring
+	 *            processors are then kept
+	 * @return The classpath without the jars that cannot be referenced, the folders are always kept
+	 */
+	public static List<File> prune(Collection<File> classpath, ErrorAwayClasspathIndex classpathIndex, Collection<InputFile> inputFiles, boolean processorsFromClasspath) {
+		Set<String> referencedPackages = new HashSet<>();
+		for (InputFile inputFile : inputFiles) {
+			addReferencedPackages(inputFile, referencedPackages);
+		}
+
+		List<File> prunedClasspath = new ArrayList<>(classpath.size());
+		for (File element : classpath) {
+			if (element.isDirectory()) {
+				prunedClasspath.add(element);
+			} else if (element.isFile()) {
+				if (!classpathIndex.isIndexed(element) || classpathIndex.isAnnotationProcessor(element) && processorsFromClasspath
+						|| classpathIndex.packages(element).stream().anyMatch(referencedPackages::contains)) {
+					prunedClasspath.add(element);
+				}
+			}
+		}
+
+		LOGGER.info("Pruned the classpath from {} to {} elements", classpath.size(), prunedClasspath.size());
+
+		return prunedClasspath;
+	}
+
+	/**
+	 * Add all the prefixes of the qualified names of the file, e.g. <code>java</code>, <code>java.util</code> and
+	 * <code>java.util.List</code> for <code>import java.util.List;</code>
+	 */
+	static void addReferencedPackages(InputFile inputFile, Set<String> referencedPackages) {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputFile.inputStream(), inputFile.charset()))) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				Matcher matcher = QUALIFIED_NAME_PATTERN.matcher(line);
+
+				while (matcher.find()) {
+					String name = matcher.group();
+
+					for (int dot = name.indexOf('.'); dot >= 0; dot = name.indexOf('.', dot + 1)) {
+						referencedPackages.add(name.substring(0, dot));
+					}
+					referencedPackages.add(name);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.debug("Error reading the references of {}", inputFile, e);
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.erroraway.ErrorAwayException;
+
+/**
+ * Replaces the jars of the classpath with stub jars whose class files have no method bodies, like header jars. The
+ * manifest and the resources of the jars are kept as they are. javac and Error Prone mostly need the signatures, the
+ * annotations and the constants of the dependencies, but the stubs lose the local variable tables: the parameter names
+ * of the dependencies compiled without <code>-parameters</code> are no longer available. The stubs must not be used
+ * when annotation processors run, nor when javac reads the parameter names. The stubs are kept in a cache folder, named
+ * after the checksum of the original jar.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public final class ErrorAwayClasspathStubs {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayClasspathStubs.class);
+
+	private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+	/**
+	 * Part of the checksum, so that the stubs written by a previous version of the plugin are not used
+	 */
+	private static final int FORMAT_VERSION = 2;
+
+	/**
+	 * The stub of each jar already seen during the analysis, the jar itself when it cannot be stubbed
+	 */
+	private static final Map<JarKey, File> STUBS = new ConcurrentHashMap<>();
+
+	private record JarKey(String path, long size, long lastModified) {
+		static JarKey of(File jar) {
+			return new JarKey(jar.getAbsolutePath(), jar.length(), jar.lastModified());
+		}
+	}
+
+	private ErrorAwayClasspathStubs() {
+	}
+
+	/**
+	 * @param classpath
+	 *            The classpath
+	 * @param cacheDir
+	 *            The folder containing the stub jars
+	 * @return The classpath with the jars replaced by their stubs, the folders and the jars that cannot be stubbed are
+	 *         kept
+	 */
+	public static List<File> stub(Collection<File> classpath, Path cacheDir) {
+		List<File> stubbedClasspath = new ArrayList<>(classpath.size());
+
+		for (File element : classpath) {
+			if (element.isFile()) {
+				stubbedClasspath.add(STUBS.computeIfAbsent(JarKey.of(element), key -> stub(element, cacheDir)));
+			} else {
+				stubbedClasspath.add(element);
+			}
+		}
+
+		return stubbedClasspath;
+	}
+
+	private static File stub(File jar, Path cacheDir) {
+		try {
+			Path stub = cacheDir.resolve(checksum(jar) + ".jar");
+
+			if (!Files.isRegularFile(stub)) {
+				Files.createDirectories(cacheDir);
+				Path temp = Files.createTempFile(cacheDir, stub.getFileName().toString(), ".tmp");
+
+				try {
+					if (!write(jar, temp)) {
+						return jar;
+					}
+
+					// Concurrent analyses never read a partial stub
+					Files.move(temp, stub, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} finally {
+					Files.deleteIfExists(temp);
+				}
+			}
+
+			return stub.toFile();
+		} catch (IOException | RuntimeException e) {
+			// Let javac read the jar itself
+			LOGGER.debug("Could not stub {}", jar, e);
+			return jar;
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if the jar must not be stubbed, e.g. for a multi-release jar whose classes depend on the
+	 *         target release or for a jar whose manifest references other jars relatively to its location
+	 */
+	private static boolean write(File jar, Path stub) throws IOException {
+		try (ZipFile zipFile = new ZipFile(jar); JarOutputStream output = new JarOutputStream(Files.newOutputStream(stub))) {
+			for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = entries.nextElement();
+				String name = entry.getName();
+
+				if (name.startsWith(VERSIONS_PREFIX) || name.equals(JarFile.MANIFEST_NAME) && hasClassPath(zipFile, entry)) {
+					return false;
+				}
+
+				if (isSignature(name)) {
+					// The signatures no longer match the stubbed classes
+					continue;
+				}
+
+				try (InputStream input = zipFile.getInputStream(entry)) {
+					output.putNextEntry(new ZipEntry(name));
+					output.write(name.endsWith(".class") ? stubClass(input.readAllBytes()) : input.readAllBytes());
+					output.closeEntry();
+				}
+			}
+		}
+
+		return true;
+	}
+
+	private static boolean hasClassPath(ZipFile zipFile, ZipEntry manifestEntry) throws IOException {
+		try (InputStream input = zipFile.getInputStream(manifestEntry)) {
+			return new Manifest(input).getMainAttributes().containsKey(Attributes.Name.CLASS_PATH);
+		}
+	}
+
+	private static boolean isSignature(String name) {
+		return name.startsWith("META-INF/") && name.indexOf('/', "META-INF/".length()) < 0
+				&& (name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC"));
+	}
+
+	private static byte[] stubClass(byte[] classFile) {
+		ClassWriter writer = new ClassWriter(0);
+
+		// The signatures, annotations and constants are kept, the parameter names only when the jar was compiled with -parameters
+		new ClassReader(classFile).accept(writer, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+
+		return writer.toByteArray();
+	}
+
+	private static String checksum(File jar) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update((byte) FORMAT_VERSION);
+
+			try (InputStream input = new DigestInputStream(Files.newInputStream(jar.toPath()), digest)) {
+				input.transferTo(OutputStream.nullOutputStream());
+			}
+
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new ErrorAwayException("SHA-256 is not available", e);
+		}
+	}
+}
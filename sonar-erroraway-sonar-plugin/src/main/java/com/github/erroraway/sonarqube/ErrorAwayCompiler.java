@@ -0,0 +1,207 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.utils.TempFolder;
+
+import com.github.erroraway.ErrorAwayException;
+import com.google.errorprone.ErrorProneTimings;
+import com.sun.source.util.JavacTask;
+import com.sun.tools.javac.api.BasicJavacTask;
+
+/**
+ * Runs one javac task with Error Prone over a set of compilation units, several instances of this class can run
+ * concurrently as long as they each get their own compilation units.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayCompiler implements ErrorAwayTaskCompiler {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayCompiler.class);
+
+	private final JavaCompiler compiler;
+	private final Charset encoding;
+	private final List<String> javacOptions;
+	private final Collection<File> classpath;
+	private final Collection<File> prunedClasspath;
+	private final ErrorAwayClasspathIndex classpathIndex;
+	private final ErrorAwayJarPool jarPool;
+	private final Collection<File> annotationProcessorPath;
+	private final TempFolder tempFolder;
+	private final AtomicLong outputMemoryBytes;
+	private final ErrorAwayCheckerReport checkerReport;
+	private final ErrorAwayPhaseReport phaseReport;
+	private final AtomicInteger prunedClasspathFallbacks = new AtomicInteger();
+
+	/**
+	 * @param prunedClasspath
+	 *            The classpath tried first, the tasks failing with this classpath are run again with the full classpath,
+	 *            <code>null</code> to always use the full classpath
+	 * @param classpathIndex
+	 *            The packages of the classpath elements used to look for the classes of a package only in the elements
+	 *            containing it, <code>null</code> to let javac search all the elements
+	 * @param jarPool
+	 *            The jars shared by the tasks of all the modules, only used with a classpath index, <code>null</code> to
+	 *            let javac open the jars for each task
+	 * @param outputMemoryBytes
+	 *            The memory available to keep the generated sources and classes of all the tasks, files that do not fit
+	 *            are written to the temp folder
+	 * @param checkerReport
+	 *            The report collecting the checkers timings of each task
+	 * @param phaseReport
+	 *            The report collecting the compilation phases timings of each task
+	 */
+	public ErrorAwayCompiler(JavaCompiler compiler, Charset encoding, List<String> javacOptions, Collection<File> classpath, Collection<File> prunedClasspath,
+			ErrorAwayClasspathIndex classpathIndex, ErrorAwayJarPool jarPool, Collection<File> annotationProcessorPath, TempFolder tempFolder, long outputMemoryBytes, ErrorAwayCheckerReport checkerReport,
+			ErrorAwayPhaseReport phaseReport) {
+		this.compiler = compiler;
+		this.encoding = encoding;
+		this.javacOptions = javacOptions;
+		this.classpath = classpath;
+		this.prunedClasspath = prunedClasspath;
+		this.classpathIndex = classpathIndex;
+		this.jarPool = jarPool;
+		this.annotationProcessorPath = annotationProcessorPath;
+		this.tempFolder = tempFolder;
+		this.outputMemoryBytes = new AtomicLong(outputMemoryBytes);
+		this.checkerReport = checkerReport;
+		this.phaseReport = phaseReport;
+	}
+
+	@Override
+	public void compile(Collection<? extends JavaFileObject> compilationUnits, Collection<File> sourcePath, DiagnosticListener<? super JavaFileObject> diagnosticListener) {
+		if (prunedClasspath == null) {
+			compile(compilationUnits, sourcePath, diagnosticListener, classpath);
+			return;
+		}
+
+		// The diagnostics are only reported once the task succeeded with the pruned classpath
+		ErrorAwayDeferredDiagnosticListener deferredListener = new ErrorAwayDeferredDiagnosticListener();
+		compile(compilationUnits, sourcePath, deferredListener, prunedClasspath);
+
+		Diagnostic<JavaFileObject> error = deferredListener.firstError();
+		if (error == null) {
+			deferredListener.replay(diagnosticListener);
+		} else {
+			LOGGER.info("Analyzing {} files again with the full classpath after the error: {}", compilationUnits.size(), error);
+			prunedClasspathFallbacks.incrementAndGet();
+
+			compile(compilationUnits, sourcePath, diagnosticListener, classpath);
+		}
+	}
+
+	@Override
+	public int prunedClasspathFallbacks() {
+		return prunedClasspathFallbacks.get();
+	}
+
+	private void compile(Collection<? extends JavaFileObject> compilationUnits, Collection<File> sourcePath, DiagnosticListener<? super JavaFileObject> diagnosticListener,
+			Collection<File> taskClasspath) {
+		Iterable<String> classes = Collections.emptyList();
+		List<String> options = new ArrayList<>(javacOptions);
+
+		if (!sourcePath.isEmpty()) {
+			// Files from the source path are only needed for symbols resolution: they must not be analyzed nor generated
+			options.add("-implicit:none");
+		}
+
+		try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnosticListener, Locale.getDefault(), encoding)) {
+			fileManager.setLocation(StandardLocation.CLASS_PATH, taskClasspath);
+
+			if (!sourcePath.isEmpty()) {
+				fileManager.setLocation(StandardLocation.SOURCE_PATH, sourcePath);
+			}
+
+			if (!annotationProcessorPath.isEmpty()) {
+				fileManager.setLocation(StandardLocation.ANNOTATION_PROCESSOR_PATH, annotationProcessorPath);
+			}
+
+			configureOutputFolders(fileManager);
+
+			// Closing the classpath file manager only gives the jars back to the pool
+			try (JavaFileManager outputFileManager = new ErrorAwayMemoryFileManager(fileManager, encoding, outputMemoryBytes);
+					JavaFileManager classpathFileManager = classpathIndex != null
+							? new ErrorAwayClasspathFileManager(outputFileManager, fileManager, classpathIndex, jarPool, taskClasspath)
+							: null) {
+				JavaFileManager taskFileManager = classpathFileManager != null ? classpathFileManager : outputFileManager;
+				CompilationTask task = compiler.getTask(null, taskFileManager, diagnosticListener, options, classes, compilationUnits);
+				call(task);
+			}
+		} catch (IOException e) {
+			throw new ErrorAwayException("Error analyzing project", e);
+		}
+	}
+
+	private void call(CompilationTask task) {
+		// The context is released when the task completes, the timings instance registered now is the one used by Error Prone
+		ErrorProneTimings timings = task instanceof BasicJavacTask javacTask ? ErrorProneTimings.instance(javacTask.getContext()) : null;
+
+		if (task instanceof JavacTask javacTask) {
+			javacTask.addTaskListener(new ErrorAwayTaskListener(phaseReport, timings));
+		}
+
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		boolean measureCpu = threadMXBean.isCurrentThreadCpuTimeSupported() && threadMXBean.isThreadCpuTimeEnabled();
+		long cpuStart = measureCpu ? threadMXBean.getCurrentThreadCpuTime() : 0;
+		long wallStart = System.nanoTime();
+
+		try {
+			task.call();
+		} finally {
+			Duration wallTime = Duration.ofNanos(System.nanoTime() - wallStart);
+			Duration cpuTime = measureCpu ? Duration.ofNanos(threadMXBean.getCurrentThreadCpuTime() - cpuStart) : Duration.ofNanos(-1);
+
+			if (timings != null) {
+				checkerReport.addTask(timings.timings(), timings.initializationTime(), wallTime, cpuTime);
+			}
+		}
+	}
+
+	@Override
+	public boolean hasAnnotationProcessors() {
+		return !annotationProcessorPath.isEmpty();
+	}
+
+	private void configureOutputFolders(StandardJavaFileManager fileManager) throws IOException {
+		fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singletonList(tempFolder.newDir("sourceOutput")));
+		fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(tempFolder.newDir("classOutput")));
+	}
+}
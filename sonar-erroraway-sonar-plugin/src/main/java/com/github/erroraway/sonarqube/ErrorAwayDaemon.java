@@ -0,0 +1,256 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.erroraway.ErrorAwayException;
+
+/**
+ * A worker JVM kept alive between the scans of the machine so that they do not pay the startup, the class loading of
+ * the checkers and the JIT warmup of javac. The daemon is reached over a Unix domain socket whose name is derived from
+ * the plugin jars, the checkers and the JVM options: a new daemon is started when the plugin is updated or when a scan
+ * needs other checkers. The daemon exits on its own once it was idle for its idle timeout.
+ * <p>
+ * The socket, its token and the output of the daemon are files of a folder only readable by the owner when the file
+ * system supports it.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayDaemon {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayDaemon.class);
+
+	private static final Duration START_TIMEOUT = Duration.ofSeconds(60);
+
+	private final Path directory;
+	private final String key;
+	private final List<String> jvmOptions;
+	private final long idleTimeoutSeconds;
+
+	/**
+	 * @param directory
+	 *            The folder of the daemon files
+	 * @param checkers
+	 *            The class names of the checkers of the active rules
+	 * @param jvmOptions
+	 *            The options of the daemon JVM
+	 * @param idleTimeoutSeconds
+	 *            The time after which the daemon exits when it does not receive any request
+	 */
+	public ErrorAwayDaemon(Path directory, List<String> checkers, List<String> jvmOptions, long idleTimeoutSeconds) {
+		this.directory = directory;
+		this.key = key(checkers, jvmOptions);
+		this.jvmOptions = jvmOptions;
+		this.idleTimeoutSeconds = idleTimeoutSeconds;
+	}
+
+	/**
+	 * @return The key of the daemons able to run the tasks of the checkers: a hash of the worker classpath, with the
+	 *         modification time and size of its elements, of the checkers and of the JVM options
+	 */
+	static String key(List<String> checkers, List<String> jvmOptions) {
+		List<String> parts = new ArrayList<>();
+		checkers.stream().sorted().forEach(parts::add);
+		parts.addAll(jvmOptions);
+
+		return ErrorAwayForkedCompiler.workerKey(ErrorAwayForkedCompiler.workerClasspath(), parts);
+	}
+
+	/**
+	 * @return The Unix domain socket of the daemon
+	 */
+	public Path socketFile() {
+		return directory.resolve(key + ".sock");
+	}
+
+	private Path tokenFile() {
+		return directory.resolve(key + ".token");
+	}
+
+	private Path lockFile() {
+		return directory.resolve(key + ".lock");
+	}
+
+	private Path logFile() {
+		return directory.resolve(key + ".log");
+	}
+
+	/**
+	 * @return The secret the requests must start with, it changes each time the daemon is started
+	 */
+	public String token() throws IOException {
+		return Files.readString(tokenFile(), StandardCharsets.UTF_8).trim();
+	}
+
+	/**
+	 * Starts the daemon if it is not running and checks that it answers
+	 *
+	 * @return <code>false</code> when the daemon could not be started or does not answer
+	 */
+	public boolean healthCheck() {
+		try (SocketChannel channel = connect()) {
+			ping(channel);
+			return true;
+		} catch (IOException | ErrorAwayException e) {
+			LOGGER.warn("The analysis daemon {} is not available", socketFile(), e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return A connection to the daemon, started if it is not running
+	 */
+	public SocketChannel connect() throws IOException {
+		try {
+			return open();
+		} catch (IOException e) {
+			// The daemon was never started, or it exited after its idle timeout
+			LOGGER.debug("The analysis daemon {} is not running", socketFile(), e);
+		}
+
+		start();
+
+		return open();
+	}
+
+	private SocketChannel open() throws IOException {
+		return SocketChannel.open(UnixDomainSocketAddress.of(socketFile()));
+	}
+
+	private void start() throws IOException {
+		createDirectory();
+
+		// The modules of a scan, or concurrent scans, may need the daemon at the same time
+		try (FileChannel lockChannel = FileChannel.open(lockFile(), StandardOpenOption.CREATE, StandardOpenOption.WRITE); FileLock lock = lockChannel.lock()) {
+			if (isAlive()) {
+				return;
+			}
+
+			// The socket of a daemon that was killed
+			Files.deleteIfExists(socketFile());
+
+			String token = UUID.randomUUID().toString();
+			Files.deleteIfExists(tokenFile());
+			createOwnerOnlyFile(tokenFile());
+			Files.writeString(tokenFile(), token, StandardCharsets.UTF_8);
+
+			List<String> command = ErrorAwayForkedCompiler.workerCommand(jvmOptions);
+			command.add("--daemon");
+			command.add(socketFile().toString());
+			command.add(Long.toString(idleTimeoutSeconds));
+
+			LOGGER.info("Starting the analysis daemon {} with the options {}", socketFile(), jvmOptions);
+
+			ProcessBuilder processBuilder = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(Redirect.appendTo(logFile().toFile()));
+			processBuilder.environment().put(ErrorAwayWorkerProtocol.TOKEN_ENV, token);
+			Process process = processBuilder.start();
+
+			// Unlike a worker, the daemon does not exit when its standard input is closed
+			process.getOutputStream().close();
+
+			waitUntilAlive(process);
+		}
+	}
+
+	private void waitUntilAlive(Process process) {
+		long deadline = System.nanoTime() + START_TIMEOUT.toNanos();
+
+		while (!isAlive()) {
+			if (!process.isAlive()) {
+				throw new ErrorAwayException("The analysis daemon exited with code " + process.exitValue() + ", see " + logFile());
+			}
+
+			if (System.nanoTime() > deadline) {
+				process.destroyForcibly();
+				throw new ErrorAwayException("The analysis daemon did not start in " + START_TIMEOUT + ", see " + logFile());
+			}
+
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ErrorAwayException("Interrupted while waiting for the analysis daemon", e);
+			}
+		}
+	}
+
+	private boolean isAlive() {
+		try (SocketChannel channel = open()) {
+			ping(channel);
+			return true;
+		} catch (IOException | ErrorAwayException e) {
+			return false;
+		}
+	}
+
+	private void ping(SocketChannel channel) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+		ErrorAwayWorkerProtocol.writePing(output, token());
+		output.flush();
+
+		ErrorAwayWorkerProtocol.readDiagnostics(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel))), new HashMap<>(), diagnostic -> {
+		});
+	}
+
+	private void createDirectory() throws IOException {
+		if (Files.isDirectory(directory)) {
+			return;
+		}
+
+		if (isPosix()) {
+			Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+		} else {
+			Files.createDirectories(directory);
+		}
+	}
+
+	private static void createOwnerOnlyFile(Path file) throws IOException {
+		if (isPosix()) {
+			Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} else {
+			Files.createFile(file);
+		}
+	}
+
+	private static boolean isPosix() {
+		return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+	}
+}
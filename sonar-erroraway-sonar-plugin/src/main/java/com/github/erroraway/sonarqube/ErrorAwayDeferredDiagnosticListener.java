@@ -0,0 +1,142 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Predicate;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileObject;
+
+/**
+ * Keeps the diagnostics of a javac task until it is known whether the task must be run again, e.g. when it was run with
+ * a pruned classpath that misses a class. The diagnostics are copied so that the javac context can be released when
+ * the task completes.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayDeferredDiagnosticListener implements DiagnosticListener<JavaFileObject> {
+	private final List<Diagnostic<JavaFileObject>> diagnostics = new ArrayList<>();
+	private Diagnostic<JavaFileObject> firstError;
+
+	@Override
+	public synchronized void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+		DeferredDiagnostic deferredDiagnostic = new DeferredDiagnostic(diagnostic.getKind(), diagnostic.getSource(), diagnostic.getPosition(),
+				diagnostic.getStartPosition(), diagnostic.getEndPosition(), diagnostic.getLineNumber(), diagnostic.getColumnNumber(), diagnostic.getCode(),
+				diagnostic.getMessage(Locale.ENGLISH), diagnostic.toString());
+
+		// The issues raised with the error severity and the Error Prone crashes are not caused by a missing class
+		if (firstError == null && diagnostic.getKind() == Diagnostic.Kind.ERROR && !isErrorProneDiagnostic(diagnostic)) {
+			firstError = deferredDiagnostic;
+		}
+
+		diagnostics.add(deferredDiagnostic);
+	}
+
+	private static boolean isErrorProneDiagnostic(Diagnostic<?> diagnostic) {
+		return ErrorAwayDiagnosticListener.ERROR_PRONE_COMPILER_CRASH_CODE.equals(diagnostic.getCode())
+				|| ErrorAwayDiagnosticListener.ERROR_PRONE_DIAGNOSTIC_CODES.contains(diagnostic.getCode());
+	}
+
+	/**
+	 * @return The first javac error reported, <code>null</code> if the task did not fail
+	 */
+	public synchronized Diagnostic<JavaFileObject> firstError() {
+		return firstError;
+	}
+
+	/**
+	 * @param predicate
+	 *            A predicate on the diagnostics
+	 * @return <code>true</code> if one of the diagnostics reported matches the predicate
+	 */
+	public synchronized boolean anyMatch(Predicate<Diagnostic<JavaFileObject>> predicate) {
+		return diagnostics.stream().anyMatch(predicate);
+	}
+
+	/**
+	 * @param listener
+	 *            The listener receiving the diagnostics in the order they were reported
+	 */
+	public synchronized void replay(DiagnosticListener<? super JavaFileObject> listener) {
+		diagnostics.forEach(listener::report);
+	}
+
+	/**
+	 * A copy of a diagnostic that does not reference the javac context, also used for the diagnostics received from an
+	 * analysis worker
+	 */
+	record DeferredDiagnostic(Kind kind, JavaFileObject source, long position, long startPosition, long endPosition, long lineNumber, long columnNumber,
+			String code, String message, String description) implements Diagnostic<JavaFileObject> {
+
+		@Override
+		public Kind getKind() {
+			return kind;
+		}
+
+		@Override
+		public JavaFileObject getSource() {
+			return source;
+		}
+
+		@Override
+		public long getPosition() {
+			return position;
+		}
+
+		@Override
+		public long getStartPosition() {
+			return startPosition;
+		}
+
+		@Override
+		public long getEndPosition() {
+			return endPosition;
+		}
+
+		@Override
+		public long getLineNumber() {
+			return lineNumber;
+		}
+
+		@Override
+		public long getColumnNumber() {
+			return columnNumber;
+		}
+
+		@Override
+		public String getCode() {
+			return code;
+		}
+
+		/**
+		 * The messages are always read in english
+		 */
+		@Override
+		public String getMessage(Locale locale) {
+			return message;
+		}
+
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+}
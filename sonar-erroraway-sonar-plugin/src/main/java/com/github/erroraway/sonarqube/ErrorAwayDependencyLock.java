@@ -0,0 +1,249 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.erroraway.ErrorAwayException;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Records the files resolved for each set of Maven coordinates so that the next analyses can use them without
+ * creating a repository session. The locked files are only used when they still have the size and the checksum they
+ * had when they were resolved, otherwise the coordinates are resolved again. Coordinates with a snapshot version or a
+ * version range are never locked.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayDependencyLock {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayDependencyLock.class);
+
+	private static final int FORMAT_VERSION = 1;
+
+	private final Path file;
+	private TreeMap<String, List<LockedFile>> dependencies;
+
+	private record LockedFile(File file, long size, long lastModified, String sha256) {
+	}
+
+	/**
+	 * @param file
+	 *            The lockfile, it is created on the first successful resolution
+	 */
+	public ErrorAwayDependencyLock(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * @param coordinates
+	 *            The Maven coordinates
+	 * @return true if the coordinates always resolve to the same files
+	 */
+	public static boolean isLockable(List<String> coordinates) {
+		for (String coordinate : coordinates) {
+			if (coordinate.endsWith("SNAPSHOT") || coordinate.endsWith(":LATEST") || coordinate.endsWith(":RELEASE") || coordinate.contains("[")
+					|| coordinate.contains("(")) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param coordinates
+	 *            The Maven coordinates
+	 * @return The files locked for these coordinates, empty if the coordinates are not locked or if a file changed
+	 */
+	public synchronized Optional<List<File>> lockedFiles(List<String> coordinates) {
+		List<LockedFile> lockedFiles = dependencies().get(key(coordinates));
+
+		if (lockedFiles == null) {
+			return Optional.empty();
+		}
+
+		List<File> files = new ArrayList<>(lockedFiles.size());
+		for (LockedFile lockedFile : lockedFiles) {
+			if (!matches(lockedFile)) {
+				LOGGER.info("{} changed since it was resolved, resolving {} again", lockedFile.file(), coordinates);
+
+				return Optional.empty();
+			}
+
+			files.add(lockedFile.file());
+		}
+
+		return Optional.of(files);
+	}
+
+	/**
+	 * Record the files of the coordinates and write the lockfile
+	 *
+	 * @param coordinates
+	 *            The Maven coordinates
+	 * @param files
+	 *            The resolved files
+	 */
+	public synchronized void lock(List<String> coordinates, List<File> files) {
+		List<LockedFile> lockedFiles = new ArrayList<>(files.size());
+		for (File f : files) {
+			lockedFiles.add(new LockedFile(f, f.length(), f.lastModified(), sha256(f)));
+		}
+
+		dependencies().put(key(coordinates), lockedFiles);
+
+		try {
+			write();
+		} catch (IOException e) {
+			// The dependencies are resolved again by the next analysis
+			LOGGER.warn("Could not write the dependency lockfile {}", file, e);
+		}
+	}
+
+	private static String key(List<String> coordinates) {
+		return String.join(",", coordinates);
+	}
+
+	private static boolean matches(LockedFile lockedFile) {
+		File f = lockedFile.file();
+
+		if (!f.isFile() || f.length() != lockedFile.size()) {
+			return false;
+		}
+
+		// Only compute the checksum of the files that were touched since they were locked
+		return f.lastModified() == lockedFile.lastModified() || sha256(f).equals(lockedFile.sha256());
+	}
+
+	private static String sha256(File f) {
+		try (InputStream input = Files.newInputStream(f.toPath())) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] buffer = new byte[8192];
+
+			for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+				digest.update(buffer, 0, read);
+			}
+
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (IOException | NoSuchAlgorithmException e) {
+			throw new ErrorAwayException("Error computing the checksum of " + f, e);
+		}
+	}
+
+	private TreeMap<String, List<LockedFile>> dependencies() {
+		if (dependencies == null) {
+			dependencies = read();
+		}
+
+		return dependencies;
+	}
+
+	private TreeMap<String, List<LockedFile>> read() {
+		TreeMap<String, List<LockedFile>> lockedDependencies = new TreeMap<>();
+
+		if (!Files.isRegularFile(file)) {
+			return lockedDependencies;
+		}
+
+		try (Reader reader = Files.newBufferedReader(file, UTF_8)) {
+			JsonObject lock = JsonParser.parseReader(reader).getAsJsonObject();
+
+			if (lock.get("version").getAsInt() != FORMAT_VERSION) {
+				return lockedDependencies;
+			}
+
+			for (var dependency : lock.getAsJsonObject("dependencies").entrySet()) {
+				List<LockedFile> lockedFiles = new ArrayList<>();
+
+				for (JsonElement element : dependency.getValue().getAsJsonArray()) {
+					JsonObject json = element.getAsJsonObject();
+
+					lockedFiles.add(new LockedFile(new File(json.get("path").getAsString()), json.get("size").getAsLong(), json.get("lastModified").getAsLong(),
+							json.get("sha256").getAsString()));
+				}
+
+				lockedDependencies.put(dependency.getKey(), lockedFiles);
+			}
+		} catch (IOException | RuntimeException e) {
+			// A lockfile that cannot be parsed is replaced on the next resolution
+			LOGGER.warn("Ignoring the invalid dependency lockfile {}", file, e);
+			lockedDependencies.clear();
+		}
+
+		return lockedDependencies;
+	}
+
+	private void write() throws IOException {
+		JsonObject jsonDependencies = new JsonObject();
+		dependencies.forEach((coordinates, lockedFiles) -> {
+			JsonArray jsonFiles = new JsonArray();
+
+			for (LockedFile lockedFile : lockedFiles) {
+				JsonObject json = new JsonObject();
+				json.addProperty("path", lockedFile.file().getAbsolutePath());
+				json.addProperty("size", lockedFile.size());
+				json.addProperty("lastModified", lockedFile.lastModified());
+				json.addProperty("sha256", lockedFile.sha256());
+				jsonFiles.add(json);
+			}
+
+			jsonDependencies.add(coordinates, jsonFiles);
+		});
+
+		JsonObject lock = new JsonObject();
+		lock.addProperty("version", FORMAT_VERSION);
+		lock.add("dependencies", jsonDependencies);
+
+		// Write a complete file and move it so that concurrent analyses never read a partial lockfile
+		Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+
+		try {
+			try (Writer writer = Files.newBufferedWriter(temp, UTF_8)) {
+				new GsonBuilder().setPrettyPrinting().create().toJson(lock, writer);
+			}
+
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
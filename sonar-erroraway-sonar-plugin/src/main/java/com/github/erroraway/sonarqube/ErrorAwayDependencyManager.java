@@ -16,10 +16,14 @@
 package com.github.erroraway.sonarqube;
 
 import java.io.File;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
@@ -29,6 +33,7 @@ import org.apache.maven.settings.building.DefaultSettingsBuildingRequest;
 import org.apache.maven.settings.building.SettingsBuilder;
 import org.apache.maven.settings.building.SettingsBuildingException;
 import org.apache.maven.settings.building.SettingsBuildingRequest;
+import org.eclipse.aether.DefaultRepositoryCache;
 import org.eclipse.aether.DefaultRepositorySystemSession;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.artifact.Artifact;
@@ -41,10 +46,12 @@ import org.eclipse.aether.repository.RepositoryPolicy;
 import org.eclipse.aether.resolution.ArtifactRequest;
 import org.eclipse.aether.resolution.ArtifactResolutionException;
 import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.resolution.ResolutionErrorPolicy;
 import org.eclipse.aether.spi.connector.RepositoryConnectorFactory;
 import org.eclipse.aether.spi.connector.transport.TransporterFactory;
 import org.eclipse.aether.transport.file.FileTransporterFactory;
 import org.eclipse.aether.transport.http.HttpTransporterFactory;
+import org.eclipse.aether.util.repository.SimpleResolutionErrorPolicy;
 import org.sonar.api.config.Configuration;
 import org.sonar.api.scanner.ScannerSide;
 import org.sonar.api.utils.TempFolder;
@@ -52,6 +59,10 @@ import org.sonar.api.utils.TempFolder;
 import com.github.erroraway.ErrorAwayException;
 
 /**
+ * Resolves the Maven dependencies, the instance is shared by all the modules of the project so each set of coordinates
+ * is resolved once per analysis. Nothing is initialized until dependencies are resolved, and the coordinates found in
+ * the lockfile are not resolved at all.
+ * 
  * @author Guillaume Toison
  *
  */
@@ -62,37 +73,63 @@ public class ErrorAwayDependencyManager {
 	private Configuration configuration;
 
 	private RepositorySystem repositorySystem;
-	private LocalRepository localRepository;
+	private DefaultRepositorySystemSession session;
 	private List<RemoteRepository> remoteRepositories;
-	private boolean workOffline;
+	private ErrorAwayDependencyLock dependencyLock;
+
+	private final Map<List<String>, FutureTask<List<File>>> resolvedDependencies = new ConcurrentHashMap<>();
 
 	public ErrorAwayDependencyManager(TempFolder tempFolder, Configuration configuration) {
 		this.tempFolder = tempFolder;
 		this.configuration = configuration;
+	}
 
-		workOffline = configuration.getBoolean(ErrorAwayPluginConstants.MAVEN_WORK_OFFLINE).orElse(false);
-
-		DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
-		locator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
-		locator.addService(TransporterFactory.class, FileTransporterFactory.class);
-		locator.addService(TransporterFactory.class, HttpTransporterFactory.class);
-		repositorySystem = locator.getService(RepositorySystem.class);
+	public List<File> downloadDependencies(String... coordinates) {
+		List<String> key = List.of(coordinates);
 
-		Settings settings = settings(configuration);
+		// The resolution runs outside of the map so that the modules resolving other coordinates are not blocked, the
+		// modules needing the same coordinates wait for the first one
+		FutureTask<List<File>> resolution = new FutureTask<>(() -> lockedOrResolve(key));
+		FutureTask<List<File>> previousResolution = resolvedDependencies.putIfAbsent(key, resolution);
+		if (previousResolution == null) {
+			resolution.run();
+		}
 
-		localRepository = localRepository(settings);
+		try {
+			return (previousResolution == null ? resolution : previousResolution).get();
+		} catch (ExecutionException e) {
+			if (!(e.getCause() instanceof ErrorAwayException failure)) {
+				throw new ErrorAwayException("Error resolving " + key, e.getCause());
+			}
 
-		remoteRepositories = remoteRepositories();
+			// Do not try again to resolve coordinates that could not be resolved for a previous module
+			throw previousResolution == null ? failure : new ErrorAwayException(failure.getMessage(), failure);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ErrorAwayException("Interrupted while resolving " + key, e);
+		}
 	}
 
-	public List<File> downloadDependencies(String... coordinates) {
-		DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
-		session.setOffline(workOffline);
-		if (!workOffline) {
-			session.setUpdatePolicy(RepositoryPolicy.UPDATE_POLICY_ALWAYS);
+	private List<File> lockedOrResolve(List<String> coordinates) {
+		ErrorAwayDependencyLock lock = dependencyLock();
+
+		if (lock == null || !ErrorAwayDependencyLock.isLockable(coordinates)) {
+			return resolve(coordinates);
+		}
+
+		Optional<List<File>> lockedFiles = lock.lockedFiles(coordinates);
+		if (lockedFiles.isPresent()) {
+			return lockedFiles.get();
 		}
-		session.setChecksumPolicy(RepositoryPolicy.CHECKSUM_POLICY_WARN);
-		session.setLocalRepositoryManager(repositorySystem.newLocalRepositoryManager(session, localRepository));
+
+		List<File> files = resolve(coordinates);
+		lock.lock(coordinates, files);
+
+		return files;
+	}
+
+	private List<File> resolve(List<String> coordinates) {
+		initialize();
 
 		List<ArtifactRequest> requests = new ArrayList<>();
 
@@ -111,8 +148,80 @@ public class ErrorAwayDependencyManager {
 					.map(Artifact::getFile)
 					.toList();
 		} catch (ArtifactResolutionException e) {
-			throw new ErrorAwayException("Error resolving " + Arrays.toString(coordinates) + " from " + remoteRepositories, e);
+			throw new ErrorAwayException("Error resolving " + coordinates + " from " + remoteRepositories, e);
+		}
+	}
+
+	private synchronized void initialize() {
+		if (session != null) {
+			return;
+		}
+
+		boolean workOffline = configuration.getBoolean(ErrorAwayPluginConstants.MAVEN_WORK_OFFLINE).orElse(false);
+
+		DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
+		locator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
+		locator.addService(TransporterFactory.class, FileTransporterFactory.class);
+		locator.addService(TransporterFactory.class, HttpTransporterFactory.class);
+		RepositorySystem system = locator.getService(RepositorySystem.class);
+
+		Settings settings = settings(configuration);
+
+		DefaultRepositorySystemSession newSession = MavenRepositorySystemUtils.newSession();
+		newSession.setOffline(workOffline);
+		newSession.setUpdatePolicy(updatePolicy());
+		// Remember the artifacts that were not found or could not be downloaded until the update policy expires
+		newSession.setResolutionErrorPolicy(new SimpleResolutionErrorPolicy(ResolutionErrorPolicy.CACHE_ALL));
+		newSession.setChecksumPolicy(RepositoryPolicy.CHECKSUM_POLICY_WARN);
+		newSession.setCache(new DefaultRepositoryCache());
+		// The artifacts of a resolution are downloaded concurrently, the HTTP connections are pooled in the session data
+		// and reused by the next resolutions since the session is shared by all the modules
+		newSession.setConfigProperty("aether.connector.basic.threads", downloadThreads());
+		newSession.setLocalRepositoryManager(system.newLocalRepositoryManager(newSession, localRepository(settings)));
+
+		remoteRepositories = remoteRepositories();
+		repositorySystem = system;
+		session = newSession;
+	}
+
+	private synchronized ErrorAwayDependencyLock dependencyLock() {
+		// The files of a temporary local repository are deleted at the end of the analysis
+		if (dependencyLock != null || configuration.getBoolean(ErrorAwayPluginConstants.MAVEN_USE_TEMP_LOCAL_REPOSITORY).orElse(false).booleanValue()) {
+			return dependencyLock;
 		}
+
+		Optional<String> lockFileValue = configuration.get(ErrorAwayPluginConstants.MAVEN_LOCK_FILE);
+		Path lockFile;
+		if (lockFileValue.isPresent()) {
+			lockFile = Path.of(lockFileValue.get());
+		} else {
+			lockFile = ErrorAwayPluginConstants.errorAwayHome(configuration).resolve("dependencies.lock");
+		}
+
+		dependencyLock = new ErrorAwayDependencyLock(lockFile);
+
+		return dependencyLock;
+	}
+
+	private int downloadThreads() {
+		int downloadThreads = configuration.getInt(ErrorAwayPluginConstants.MAVEN_DOWNLOAD_THREADS).orElse(8);
+
+		if (downloadThreads < 1) {
+			throw new ErrorAwayException("Invalid number of download threads " + downloadThreads + ", expected at least 1");
+		}
+
+		return downloadThreads;
+	}
+
+	private String updatePolicy() {
+		String updatePolicy = configuration.get(ErrorAwayPluginConstants.MAVEN_UPDATE_POLICY).orElse(RepositoryPolicy.UPDATE_POLICY_ALWAYS);
+
+		if (updatePolicy.equals(RepositoryPolicy.UPDATE_POLICY_ALWAYS) || updatePolicy.equals(RepositoryPolicy.UPDATE_POLICY_DAILY)
+				|| updatePolicy.equals(RepositoryPolicy.UPDATE_POLICY_NEVER) || updatePolicy.matches(RepositoryPolicy.UPDATE_POLICY_INTERVAL + ":\\d+")) {
+			return updatePolicy;
+		}
+
+		throw new ErrorAwayException("Invalid update policy " + updatePolicy + ", expected always, daily, never or interval:<minutes>");
 	}
 
 	private Settings settings(Configuration configuration) {
@@ -15,8 +15,16 @@
  */
 package com.github.erroraway.sonarqube;
 
+import java.net.URI;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 import javax.tools.Diagnostic;
 import javax.tools.Diagnostic.Kind;
@@ -28,16 +36,18 @@ import org.slf4j.LoggerFactory;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.TextPointer;
+import org.sonar.api.batch.rule.ActiveRule;
+import org.sonar.api.batch.rule.ActiveRules;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.sensor.error.NewAnalysisError;
-import org.sonar.api.batch.sensor.issue.NewIssue;
-import org.sonar.api.batch.sensor.issue.NewIssueLocation;
 import org.sonar.api.rule.RuleKey;
 
 import com.github.erroraway.ErrorAwayException;
 import com.github.erroraway.rules.ErrorAwayRulesMapping;
 
 /**
+ * Converts the diagnostics to issues, diagnostics may be reported concurrently by several javac tasks
+ * 
  * @author Guillaume
  *
  */
@@ -45,24 +55,86 @@ public class ErrorAwayDiagnosticListener implements DiagnosticListener<JavaFileO
 	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayDiagnosticListener.class);
 
 	public static final String ERROR_PRONE_COMPILER_CRASH_CODE = "compiler.err.error.prone.crash";
-	private static final Set<String> ERROR_PRONE_DIAGNOSTIC_CODES = Set.of("compiler.warn.error.prone",
+	public static final Set<String> ERROR_PRONE_DIAGNOSTIC_CODES = Set.of("compiler.warn.error.prone",
 			"compiler.err.error.prone",
 			"compiler.note.error.prone");
 	private SensorContext context;
+	private ErrorAwayAnalysisCache analysisCache;
+	private Map<URI, InputFile> inputFiles;
+	private Map<String, RuleKey> ruleKeys;
+	private ErrorAwayIssueWriter issueWriter;
+	private Map<String, LongAdder> issueCounts = new ConcurrentHashMap<>();
 
 	public ErrorAwayDiagnosticListener(SensorContext context) {
+		this(context, null, null, new ErrorAwayIssueWriter(context, 0));
+	}
+
+	/**
+	 * @param context
+	 *            The sensor context
+	 * @param analysisCache
+	 *            The cache recording the issues raised on each file, may be <code>null</code>
+	 * @param inputFiles
+	 *            The files that may be reported on, may be <code>null</code> in which case the files are looked up in
+	 *            the file system
+	 * @param issueWriter
+	 *            The writer saving the issues in the sensor context
+	 */
+	public ErrorAwayDiagnosticListener(SensorContext context, ErrorAwayAnalysisCache analysisCache, Collection<InputFile> inputFiles,
+			ErrorAwayIssueWriter issueWriter) {
 		this.context = context;
+		this.analysisCache = analysisCache;
+		this.issueWriter = issueWriter;
+		this.inputFiles = inputFiles != null ? inputFilesByUri(inputFiles) : null;
+		this.ruleKeys = ruleKeysByRule(context.activeRules());
+	}
+
+	private static Map<URI, InputFile> inputFilesByUri(Collection<InputFile> inputFiles) {
+		Map<URI, InputFile> inputFilesByUri = new HashMap<>();
+
+		for (InputFile inputFile : inputFiles) {
+			inputFilesByUri.put(inputFile.uri(), inputFile);
+		}
+
+		return inputFilesByUri;
+	}
+
+	/**
+	 * The rules active in several repositories are left out, their repository is found from the diagnostic message
+	 */
+	private static Map<String, RuleKey> ruleKeysByRule(ActiveRules activeRules) {
+		Map<String, RuleKey> ruleKeysByRule = new HashMap<>();
+
+		if (activeRules == null) {
+			return ruleKeysByRule;
+		}
+
+		Set<String> ambiguousRules = new HashSet<>();
+		for (String repository : ErrorAwayRulesMapping.REPOSITORIES) {
+			for (ActiveRule activeRule : activeRules.findByRepository(repository)) {
+				if (ruleKeysByRule.putIfAbsent(activeRule.ruleKey().rule(), activeRule.ruleKey()) != null) {
+					ambiguousRules.add(activeRule.ruleKey().rule());
+				}
+			}
+		}
+		ruleKeysByRule.keySet().removeAll(ambiguousRules);
+
+		return ruleKeysByRule;
 	}
 
 	@Override
-	public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+	public synchronized void report(Diagnostic<? extends JavaFileObject> diagnostic) {
 		if (!checkDiagnostic(diagnostic)) {
 			return;
 		}
 		String message = diagnostic.getMessage(Locale.ENGLISH);
 		String rule = parseRule(diagnostic, message);
 
-		RuleKey ruleKey = RuleKey.of(findRepository(rule, message), rule);
+		RuleKey ruleKey = ruleKeys.get(rule);
+		if (ruleKey == null) {
+			ruleKey = RuleKey.of(findRepository(rule, message), rule);
+		}
+		issueCounts.computeIfAbsent(rule, r -> new LongAdder()).increment();
 
 		int startLine = (int) diagnostic.getLineNumber();
 
@@ -70,23 +142,54 @@ public class ErrorAwayDiagnosticListener implements DiagnosticListener<JavaFileO
 		InputFile inputFile = getInputFile(diagnostic, fs);
 
 		if (inputFile != null) {
-			try {
-				NewIssue issue = context.newIssue();
-				issue.forRule(ruleKey);
+			ErrorAwayIssue issue = new ErrorAwayIssue(inputFile, ruleKey, startLine, message);
 
-				NewIssueLocation location = issue.newLocation();
+			saveIssue(issue);
 
-				location.on(inputFile);
-				location.at(inputFile.selectLine(startLine));
-				location.message(message);
+			if (analysisCache != null) {
+				analysisCache.record(issue);
+			}
+		}
+	}
 
-				issue.at(location);
+	/**
+	 * @return The number of diagnostics reported by each checker, the issues replayed from the cache are not counted
+	 */
+	public Map<String, Long> issueCounts() {
+		return issueCounts.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().sum()));
+	}
 
-				issue.save();
-			} catch (Exception e) {
-				LOGGER.error("Error creating issue for {}", message, e);
-			}
+	/**
+	 * @param issue
+	 *            The issue to save in the sensor context, it is saved asynchronously by the issue writer
+	 */
+	public void saveIssue(ErrorAwayIssue issue) {
+		issueWriter.write(issue);
+	}
+
+	/**
+	 * @return The time spent saving the issues in the sensor context, including the issues replayed from the cache
+	 */
+	public long saveIssuesNanos() {
+		return issueWriter.saveNanos();
+	}
+
+	/**
+	 * @param inputFiles
+	 *            The files analyzed by a javac task
+	 * @return A listener ignoring the diagnostics on other files, e.g. files read from the source path
+	 */
+	public DiagnosticListener<JavaFileObject> forInputFiles(Collection<InputFile> inputFiles) {
+		Set<URI> uris = new HashSet<>();
+		for (InputFile inputFile : inputFiles) {
+			uris.add(inputFile.uri());
 		}
+
+		return diagnostic -> {
+			if (diagnostic.getSource() == null || uris.contains(diagnostic.getSource().toUri())) {
+				report(diagnostic);
+			}
+		};
 	}
 
 	public InputFile getInputFile(Diagnostic<? extends JavaFileObject> diagnostic, FileSystem fs) {
@@ -94,7 +197,8 @@ public class ErrorAwayDiagnosticListener implements DiagnosticListener<JavaFileO
 			return null;
 		}
 
-		InputFile inputFile = fs.inputFile(fs.predicates().hasURI(diagnostic.getSource().toUri()));
+		URI uri = diagnostic.getSource().toUri();
+		InputFile inputFile = inputFiles != null ? inputFiles.get(uri) : fs.inputFile(fs.predicates().hasURI(uri));
 
 		if (inputFile == null) {
 			LOGGER.warn("Could not file input file for source {}", diagnostic.getSource().getName());
@@ -147,13 +251,19 @@ public class ErrorAwayDiagnosticListener implements DiagnosticListener<JavaFileO
 		}
 	}
 
+	/**
+	 * The message starts with the checker name between brackets, e.g. <code>[DeadException] Exception created but not
+	 * thrown</code>
+	 */
 	private String parseRule(Diagnostic<? extends JavaFileObject> diagnostic, String message) {
-		try {
-			String[] lines = message.split("\n");
-			return lines[0].substring(1, lines[0].indexOf(']'));
-		} catch (Exception e) {
+		int end = message.indexOf(']');
+		int firstLineEnd = message.indexOf('\n');
+
+		if (!message.startsWith("[") || end < 0 || (firstLineEnd >= 0 && firstLineEnd < end)) {
 			throw new ErrorAwayException("Error parsing diagnostic with code: " + diagnostic.getCode() + " and message : " + message);
 		}
+
+		return message.substring(1, end);
 	}
 
 	private String findRepository(String rule, String message) {
@@ -0,0 +1,534 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.utils.TempFolder;
+
+import com.github.erroraway.ErrorAwayException;
+import com.github.erroraway.sonarqube.ErrorAwayWorkerProtocol.Request;
+
+/**
+ * Runs the javac tasks in forked JVMs with their own heap and GC options so that the scanner heap does not need to be
+ * sized for the analysis. Each task is sent to the worker running the fewest tasks, the workers are started when a task
+ * needs them and stopped when the compiler is closed. The diagnostics streamed back by the workers are reported to the
+ * listeners of the tasks, their timings are added to the reports of the analysis. When a daemon is given the tasks are
+ * sent to it instead, the daemon is not stopped with the compiler. The workers start faster when they share a class
+ * data sharing archive.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayForkedCompiler implements ErrorAwayTaskCompiler, AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayForkedCompiler.class);
+
+	/**
+	 * A task interrupted by the exit of the daemon or of a worker is run once more by a new JVM
+	 */
+	private static final int TASK_ATTEMPTS = 2;
+
+	/**
+	 * The time given to a worker whose connection failed to exit before it is considered alive
+	 */
+	private static final long WORKER_EXIT_TIMEOUT_SECONDS = 5;
+
+	/**
+	 * Error Prone needs the javac internals, see the README
+	 */
+	private static final List<String> JDK_COMPILER_OPTIONS = List.of("--add-exports=jdk.compiler/com.sun.tools.javac.api=ALL-UNNAMED",
+			"--add-exports=jdk.compiler/com.sun.tools.javac.file=ALL-UNNAMED", "--add-exports=jdk.compiler/com.sun.tools.javac.main=ALL-UNNAMED",
+			"--add-exports=jdk.compiler/com.sun.tools.javac.model=ALL-UNNAMED", "--add-exports=jdk.compiler/com.sun.tools.javac.parser=ALL-UNNAMED",
+			"--add-exports=jdk.compiler/com.sun.tools.javac.processing=ALL-UNNAMED", "--add-exports=jdk.compiler/com.sun.tools.javac.tree=ALL-UNNAMED",
+			"--add-exports=jdk.compiler/com.sun.tools.javac.util=ALL-UNNAMED", "--add-opens=jdk.compiler/com.sun.tools.javac.code=ALL-UNNAMED",
+			"--add-opens=jdk.compiler/com.sun.tools.javac.comp=ALL-UNNAMED");
+
+	private final List<String> checkers;
+	private final List<String> errorProneArgs;
+	private final Charset encoding;
+	private final List<String> javacOptions;
+	private final Collection<File> classpath;
+	private final Collection<File> prunedClasspath;
+	private final Path classpathIndexFile;
+	private final Collection<File> annotationProcessorPath;
+	private final TempFolder tempFolder;
+	private final long outputMemoryBytes;
+	private final List<String> jvmOptions;
+	private final ErrorAwayDaemon daemon;
+	private final ErrorAwayClassDataSharing classDataSharing;
+	private final ErrorAwayCheckerReport checkerReport;
+	private final ErrorAwayPhaseReport phaseReport;
+	private final AtomicInteger prunedClasspathFallbacks = new AtomicInteger();
+	private final String token = UUID.randomUUID().toString();
+	private final List<Worker> workers = new ArrayList<>();
+
+	/**
+	 * @param checkers
+	 *            The class names of the checkers of the active rules
+	 * @param errorProneArgs
+	 *            The Error Prone options
+	 * @param classpathIndexFile
+	 *            The file of the classpath index, <code>null</code> to let javac search all the classpath elements
+	 * @param jvmOptions
+	 *            The options of the worker JVMs, e.g. their max heap
+	 * @param workerCount
+	 *            The maximum number of worker JVMs
+	 * @param daemon
+	 *            The daemon running the tasks, <code>null</code> to start worker JVMs
+	 * @param classDataSharing
+	 *            The class data sharing archive of the worker JVMs, <code>null</code> to load the classes from the jars
+	 * @param checkerReport
+	 *            The report collecting the checkers timings sent by the workers
+	 * @param phaseReport
+	 *            The report collecting the compilation phases timings sent by the workers
+	 */
+	public ErrorAwayForkedCompiler(List<String> checkers, List<String> errorProneArgs, Charset encoding, List<String> javacOptions, Collection<File> classpath,
+			Collection<File> prunedClasspath, Path classpathIndexFile, Collection<File> annotationProcessorPath, TempFolder tempFolder, long outputMemoryBytes,
+			List<String> jvmOptions, int workerCount, ErrorAwayDaemon daemon, ErrorAwayClassDataSharing classDataSharing, ErrorAwayCheckerReport checkerReport,
+			ErrorAwayPhaseReport phaseReport) {
+		this.checkers = checkers;
+		this.errorProneArgs = errorProneArgs;
+		this.encoding = encoding;
+		this.javacOptions = javacOptions;
+		this.classpath = classpath;
+		this.prunedClasspath = prunedClasspath;
+		this.classpathIndexFile = classpathIndexFile;
+		this.annotationProcessorPath = annotationProcessorPath;
+		this.tempFolder = tempFolder;
+		this.outputMemoryBytes = outputMemoryBytes;
+		this.jvmOptions = jvmOptions;
+		this.daemon = daemon;
+		this.classDataSharing = classDataSharing;
+		this.checkerReport = checkerReport;
+		this.phaseReport = phaseReport;
+
+		for (int i = 0; i < Math.max(1, workerCount); i++) {
+			workers.add(new Worker(i + 1));
+		}
+	}
+
+	/**
+	 * @return The maximum number of tasks run concurrently, by as many worker JVMs or by the daemon
+	 */
+	public int workerCount() {
+		return workers.size();
+	}
+
+	@Override
+	public void compile(Collection<? extends JavaFileObject> compilationUnits, Collection<File> sourcePath, DiagnosticListener<? super JavaFileObject> diagnosticListener) {
+		Map<URI, JavaFileObject> compilationUnitsByUri = new HashMap<>();
+		for (JavaFileObject compilationUnit : compilationUnits) {
+			compilationUnitsByUri.put(compilationUnit.toUri(), compilationUnit);
+		}
+
+		String tempDir = tempFolder.newDir("worker").getAbsolutePath();
+
+		if (daemon != null) {
+			compileWithDaemon(tempDir, compilationUnitsByUri, sourcePath, diagnosticListener);
+			return;
+		}
+
+		Worker worker = acquireWorker();
+		try {
+			compileWithWorker(worker, tempDir, compilationUnitsByUri, sourcePath, diagnosticListener);
+		} finally {
+			releaseWorker(worker);
+		}
+	}
+
+	/**
+	 * The worker JVM may exit during the analysis, e.g. when it is killed by the OS or when it crashes: it is started
+	 * again for the next tasks, and the task is sent again to the new JVM when the worker stopped before reporting
+	 * anything.
+	 */
+	private void compileWithWorker(Worker worker, String tempDir, Map<URI, JavaFileObject> compilationUnitsByUri, Collection<File> sourcePath,
+			DiagnosticListener<? super JavaFileObject> diagnosticListener) {
+		AtomicBoolean reported = new AtomicBoolean();
+		DiagnosticListener<JavaFileObject> reportingListener = diagnostic -> {
+			reported.set(true);
+			diagnosticListener.report(diagnostic);
+		};
+
+		for (int attempt = 1;; attempt++) {
+			Process process;
+			int port;
+			synchronized (worker) {
+				port = worker.port();
+				process = worker.process;
+			}
+
+			try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port))) {
+				send(channel, request(token, tempDir, compilationUnitsByUri, sourcePath), compilationUnitsByUri, reportingListener);
+				return;
+			} catch (IOException e) {
+				if (!worker.restartIfExited(process) || attempt == TASK_ATTEMPTS || reported.get()) {
+					throw new ErrorAwayException("Error communicating with the analysis worker", e);
+				}
+
+				LOGGER.warn("The analysis worker {} stopped before the end of the task, running the task again in a new worker", worker.id, e);
+			}
+		}
+	}
+
+	/**
+	 * The daemon may exit after the health check of the analysis, e.g. at the end of its idle timeout or when it is
+	 * killed: the task is then sent again to the daemon restarted by the connection. The diagnostics are reported while
+	 * the daemon sends them, a task is only sent again when the daemon stopped before reporting anything so that no
+	 * issue is raised twice.
+	 */
+	private void compileWithDaemon(String tempDir, Map<URI, JavaFileObject> compilationUnitsByUri, Collection<File> sourcePath,
+			DiagnosticListener<? super JavaFileObject> diagnosticListener) {
+		AtomicBoolean reported = new AtomicBoolean();
+		DiagnosticListener<JavaFileObject> reportingListener = diagnostic -> {
+			reported.set(true);
+			diagnosticListener.report(diagnostic);
+		};
+
+		for (int attempt = 1;; attempt++) {
+			try (SocketChannel channel = daemon.connect()) {
+				// The token is read once connected, the daemon may have been restarted by the connection
+				send(channel, request(daemon.token(), tempDir, compilationUnitsByUri, sourcePath), compilationUnitsByUri, reportingListener);
+				return;
+			} catch (IOException e) {
+				if (attempt == TASK_ATTEMPTS || reported.get()) {
+					throw new ErrorAwayException("Error communicating with the analysis daemon", e);
+				}
+
+				LOGGER.warn("The analysis daemon {} stopped before the end of the task, running the task again", daemon.socketFile(), e);
+			}
+		}
+	}
+
+	private Request request(String requestToken, String tempDir, Map<URI, JavaFileObject> compilationUnitsByUri, Collection<File> sourcePath) {
+		return new Request(requestToken, checkers, errorProneArgs, javacOptions, encoding.name(), paths(classpath), prunedClasspath != null ? paths(prunedClasspath) : null,
+				paths(annotationProcessorPath), classpathIndexFile != null ? classpathIndexFile.toString() : null, tempDir, outputMemoryBytes,
+				compilationUnitsByUri.keySet().stream().map(URI::toString).toList(), paths(sourcePath));
+	}
+
+	private void send(SocketChannel channel, Request request, Map<URI, JavaFileObject> compilationUnitsByUri, DiagnosticListener<? super JavaFileObject> diagnosticListener)
+			throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+		ErrorAwayWorkerProtocol.writeRequest(output, request);
+		output.flush();
+
+		prunedClasspathFallbacks.addAndGet(ErrorAwayWorkerProtocol.readDiagnostics(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel))),
+				compilationUnitsByUri, diagnosticListener, checkerReport, phaseReport));
+	}
+
+	@Override
+	public boolean hasAnnotationProcessors() {
+		return !annotationProcessorPath.isEmpty();
+	}
+
+	@Override
+	public int prunedClasspathFallbacks() {
+		return prunedClasspathFallbacks.get();
+	}
+
+	/**
+	 * @return The worker running the fewest tasks, the first workers are preferred so that the sequential tasks reuse a
+	 *         warm JVM
+	 */
+	private synchronized Worker acquireWorker() {
+		Worker worker = workers.stream().min(Comparator.comparingInt(w -> w.runningTasks)).orElseThrow();
+		worker.runningTasks++;
+
+		return worker;
+	}
+
+	private synchronized void releaseWorker(Worker worker) {
+		worker.runningTasks--;
+	}
+
+	/**
+	 * A worker JVM, started by its first task
+	 */
+	private final class Worker {
+		private final int id;
+		private Process process;
+		private List<String> classDataSharingOptions = List.of();
+		private int port;
+		private int runningTasks;
+
+		Worker(int id) {
+			this.id = id;
+		}
+
+		synchronized int port() {
+			if (process == null) {
+				try {
+					start();
+				} catch (IOException e) {
+					throw new ErrorAwayException("Error starting the analysis worker " + id, e);
+				}
+			}
+
+			return port;
+		}
+
+		/**
+		 * @param failedProcess
+		 *            The JVM whose connection failed
+		 * @return <code>true</code> if the JVM exited, the next task starts a new one
+		 */
+		synchronized boolean restartIfExited(Process failedProcess) {
+			if (process != failedProcess) {
+				// Another task of the worker already found that it exited
+				return true;
+			}
+
+			try {
+				if (!process.waitFor(WORKER_EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+					return false;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+
+			LOGGER.warn("The analysis worker {} exited with code {}", id, process.exitValue());
+			workerStopped(false);
+			process = null;
+
+			return true;
+		}
+
+		private void start() throws IOException {
+			List<String> options = new ArrayList<>(jvmOptions);
+			classDataSharingOptions = classDataSharing != null ? classDataSharing.jvmOptions() : List.of();
+			options.addAll(classDataSharingOptions);
+			List<String> command = workerCommand(options);
+
+			LOGGER.info("Starting the analysis worker {} with the options {}", id, jvmOptions);
+
+			ProcessBuilder processBuilder = new ProcessBuilder(command).redirectErrorStream(true);
+			processBuilder.environment().put(ErrorAwayWorkerProtocol.TOKEN_ENV, token);
+			Process worker = processBuilder.start();
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(worker.getInputStream(), StandardCharsets.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null && !line.startsWith(ErrorAwayWorkerProtocol.PORT_PREFIX)) {
+				LOGGER.info("Analysis worker {}: {}", id, line);
+			}
+
+			if (line == null) {
+				int exitCode = waitFor(worker);
+				workerStopped(false);
+				throw new ErrorAwayException("The analysis worker exited with code " + exitCode);
+			}
+
+			process = worker;
+			port = Integer.parseInt(line.substring(ErrorAwayWorkerProtocol.PORT_PREFIX.length()));
+
+			// The output of the worker is javac's, e.g. a compiler crash
+			Thread outputReader = new Thread(() -> logOutput(reader), "erroraway-worker-output-" + id);
+			outputReader.setDaemon(true);
+			outputReader.start();
+		}
+
+		private void logOutput(BufferedReader reader) {
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					LOGGER.info("Analysis worker {}: {}", id, line);
+				}
+			} catch (IOException e) {
+				LOGGER.debug("Error reading the output of the analysis worker {}", id, e);
+			}
+		}
+
+		synchronized void stop() {
+			if (process == null) {
+				return;
+			}
+
+			boolean exitedNormally = false;
+			try {
+				// The worker exits when its standard input is closed, after writing the class data sharing archive
+				process.getOutputStream().close();
+				long timeoutSeconds = classDataSharing != null && classDataSharing.isTraining(classDataSharingOptions) ? 60 : 10;
+
+				if (process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+					exitedNormally = process.exitValue() == 0;
+				} else {
+					process.destroyForcibly();
+				}
+			} catch (IOException e) {
+				LOGGER.debug("Error stopping the analysis worker {}", id, e);
+				process.destroyForcibly();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				process.destroyForcibly();
+			}
+
+			workerStopped(exitedNormally);
+			process = null;
+		}
+
+		private void workerStopped(boolean exitedNormally) {
+			if (classDataSharing != null) {
+				classDataSharing.workerStopped(classDataSharingOptions, exitedNormally);
+			}
+		}
+	}
+
+	/**
+	 * @param jvmOptions
+	 *            The options of the worker JVM
+	 * @return The command starting a worker JVM, without the arguments of the worker
+	 */
+	static List<String> workerCommand(List<String> jvmOptions) {
+		List<String> command = new ArrayList<>();
+		command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(JDK_COMPILER_OPTIONS);
+		command.addAll(jvmOptions);
+		command.add("-cp");
+		command.add(workerClasspath());
+		command.add(ErrorAwayWorker.class.getName());
+
+		return command;
+	}
+
+	/**
+	 * @param workerClasspath
+	 *            The classpath of the worker
+	 * @param parts
+	 *            What else the worker depends on
+	 * @return A short hash of the JDK, of the classpath with the modification time and size of its elements and of the
+	 *         parts, it changes when the plugin is updated
+	 */
+	static String workerKey(String workerClasspath, List<String> parts) {
+		// The workers run the JDK of the scanner
+		return workerKey(Runtime.version().toString(), System.getProperty("java.home"), workerClasspath, parts);
+	}
+
+	/**
+	 * @param javaVersion
+	 *            The version of the JDK running the worker, a JDK updated in place keeps its home
+	 * @param javaHome
+	 *            The home of the JDK running the worker
+	 * @param workerClasspath
+	 *            The classpath of the worker
+	 * @param parts
+	 *            What else the worker depends on
+	 * @return A short hash of the JDK, of the classpath with the modification time and size of its elements and of the
+	 *         parts
+	 */
+	static String workerKey(String javaVersion, String javaHome, String workerClasspath, List<String> parts) {
+		List<String> keyParts = new ArrayList<>();
+		keyParts.add(javaVersion);
+		keyParts.add(javaHome);
+
+		for (String element : workerClasspath.split(File.pathSeparator)) {
+			File file = new File(element);
+			keyParts.add(element + ":" + file.lastModified() + ":" + file.length());
+		}
+
+		keyParts.addAll(parts);
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			keyParts.forEach(part -> digest.update((part + "\n").getBytes(StandardCharsets.UTF_8)));
+
+			return HexFormat.of().formatHex(digest.digest(), 0, 8);
+		} catch (NoSuchAlgorithmException e) {
+			throw new ErrorAwayException("SHA-256 is not available", e);
+		}
+	}
+
+	/**
+	 * @return The classpath of the worker: the plugin jar, which bundles its dependencies, and the jars of the APIs
+	 *         provided by the scanner
+	 */
+	static String workerClasspath() {
+		Set<String> elements = new LinkedHashSet<>();
+
+		for (Class<?> type : List.of(ErrorAwayWorker.class, TempFolder.class, Logger.class)) {
+			CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+
+			if (codeSource != null) {
+				try {
+					elements.add(Path.of(codeSource.getLocation().toURI()).toString());
+				} catch (URISyntaxException e) {
+					throw new ErrorAwayException("Invalid location of " + type, e);
+				}
+			}
+		}
+
+		// When the plugin is not packaged, e.g. in the tests, the dependencies are on the classpath of this JVM
+		if (elements.stream().anyMatch(element -> Files.isDirectory(Path.of(element)))) {
+			elements.addAll(List.of(System.getProperty("java.class.path").split(File.pathSeparator)));
+		}
+
+		return String.join(File.pathSeparator, elements);
+	}
+
+	private static List<String> paths(Collection<File> files) {
+		return files.stream().map(File::getAbsolutePath).toList();
+	}
+
+	private static int waitFor(Process process) {
+		try {
+			return process.waitFor();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ErrorAwayException("Interrupted while waiting for the analysis worker", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		workers.forEach(Worker::stop);
+	}
+}
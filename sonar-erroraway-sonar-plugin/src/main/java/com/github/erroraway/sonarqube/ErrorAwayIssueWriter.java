@@ -0,0 +1,255 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.batch.sensor.issue.NewIssue;
+import org.sonar.api.batch.sensor.issue.NewIssueLocation;
+
+import com.github.erroraway.ErrorAwayException;
+
+/**
+ * Saves the issues in the sensor context on a dedicated thread so that javac does not wait for the issues to be
+ * persisted. The queue is bounded, when it is full the javac threads wait for the writer to catch up. Closing the
+ * writer waits until all the queued issues are saved, the writes of the javac threads still running once the writer is
+ * closed, e.g. the shards interrupted after the failure of another shard, are rejected. When the writer thread fails,
+ * e.g. with an error of the Sonar API, the failure is rethrown by the next write and by the close instead of blocking
+ * on the full queue.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayIssueWriter implements AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayIssueWriter.class);
+
+	private static final QueuedIssue END = new QueuedIssue(null, 0);
+
+	/**
+	 * How long a producer waits for a free slot before checking that the writer thread is still alive
+	 */
+	private static final long OFFER_TIMEOUT_MS = 100;
+
+	private final SensorContext context;
+	private final BlockingQueue<QueuedIssue> queue;
+	private final Thread thread;
+
+	private final LongAdder savedIssues = new LongAdder();
+	private final LongAdder saveNanos = new LongAdder();
+	private final LongAdder drainLatencyNanos = new LongAdder();
+	private final AtomicLong maxDrainLatencyNanos = new AtomicLong();
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+	private volatile boolean closed;
+	private volatile Throwable failure;
+
+	private record QueuedIssue(ErrorAwayIssue issue, long queuedNanos) {
+	}
+
+	/**
+	 * @param context
+	 *            The sensor context
+	 * @param capacity
+	 *            The maximum number of issues waiting to be saved, 0 to save the issues on the calling thread
+	 */
+	public ErrorAwayIssueWriter(SensorContext context, int capacity) {
+		this.context = context;
+
+		if (capacity > 0) {
+			queue = new ArrayBlockingQueue<>(capacity);
+			thread = new Thread(this::drain, "erroraway-issue-writer");
+			thread.setDaemon(true);
+			thread.start();
+		} else {
+			queue = null;
+			thread = null;
+		}
+	}
+
+	/**
+	 * @param issue
+	 *            The issue to save, this call blocks while the queue is full
+	 * @throws ErrorAwayException
+	 *             If the writer is closed or if the writer thread failed
+	 */
+	public void write(ErrorAwayIssue issue) {
+		if (closed) {
+			// The sensor context must no longer be used
+			throw new ErrorAwayException("The issue writer is closed, the issue " + issue.message() + " is not saved");
+		}
+
+		if (queue == null) {
+			save(issue, System.nanoTime());
+			return;
+		}
+
+		checkWriter();
+
+		try {
+			QueuedIssue queuedIssue = new QueuedIssue(issue, System.nanoTime());
+			while (!queue.offer(queuedIssue, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				checkWriter();
+			}
+			maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ErrorAwayException("Interrupted while waiting to save the issue " + issue.message(), e);
+		}
+	}
+
+	/**
+	 * Wait until all the issues are saved and stop the writer thread
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+
+		if (queue == null) {
+			return;
+		}
+
+		try {
+			while (!queue.offer(END, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				checkWriter();
+			}
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ErrorAwayException("Interrupted while waiting for the issues to be saved", e);
+		}
+
+		checkFailure();
+	}
+
+	/**
+	 * Rethrow the failure of the writer thread, the queued issues will never be saved
+	 */
+	private void checkWriter() {
+		checkFailure();
+
+		// A write racing with the close would otherwise wait forever for a slot in the queue
+		if (!thread.isAlive()) {
+			throw new ErrorAwayException(closed ? "The issue writer is closed" : "The issue writer thread stopped before the end of the analysis");
+		}
+	}
+
+	private void checkFailure() {
+		if (failure != null) {
+			throw new ErrorAwayException("Error saving the issues", failure);
+		}
+	}
+
+	/**
+	 * @return The number of issues saved
+	 */
+	public long savedIssues() {
+		return savedIssues.sum();
+	}
+
+	/**
+	 * @return The time spent saving the issues in the sensor context
+	 */
+	public long saveNanos() {
+		return saveNanos.sum();
+	}
+
+	/**
+	 * @return The maximum number of issues that were waiting to be saved
+	 */
+	public int maxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	/**
+	 * @return The average time between the moment an issue is reported and the moment it is saved
+	 */
+	public Duration averageDrainLatency() {
+		long saved = savedIssues.sum();
+
+		return saved == 0 ? Duration.ZERO : Duration.ofNanos(drainLatencyNanos.sum() / saved);
+	}
+
+	/**
+	 * @return The maximum time between the moment an issue is reported and the moment it is saved
+	 */
+	public Duration maxDrainLatency() {
+		return Duration.ofNanos(maxDrainLatencyNanos.get());
+	}
+
+	/**
+	 * Log the metrics of the writer
+	 */
+	public void log() {
+		LOGGER.info("Saved {} issues in {} ms, issue queue depth peaked at {}, drain latency average {} ms, max {} ms", savedIssues(), saveNanos() / 1_000_000,
+				maxQueueDepth(), averageDrainLatency().toMillis(), maxDrainLatency().toMillis());
+	}
+
+	private void drain() {
+		try {
+			for (QueuedIssue queuedIssue = queue.take(); queuedIssue != END; queuedIssue = queue.take()) {
+				save(queuedIssue.issue(), queuedIssue.queuedNanos());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure = e;
+			LOGGER.error("Interrupted while saving the issues, {} issues are not saved", queue.size());
+		} catch (Throwable e) {
+			// Errors, e.g. a LinkageError of the Sonar API, would otherwise leave the producers waiting on the full queue
+			failure = e;
+			LOGGER.error("Error saving the issues, {} issues are not saved", queue.size(), e);
+		}
+	}
+
+	private void save(ErrorAwayIssue issue, long queuedNanos) {
+		long start = System.nanoTime();
+
+		try {
+			NewIssue newIssue = context.newIssue();
+			newIssue.forRule(issue.ruleKey());
+
+			NewIssueLocation location = newIssue.newLocation();
+
+			location.on(issue.inputFile());
+			location.at(issue.inputFile().selectLine(issue.line()));
+			location.message(issue.message());
+
+			newIssue.at(location);
+
+			newIssue.save();
+		} catch (Exception e) {
+			LOGGER.error("Error creating issue for {}", issue.message(), e);
+		} finally {
+			long end = System.nanoTime();
+
+			savedIssues.increment();
+			saveNanos.add(end - start);
+			drainLatencyNanos.add(end - queuedNanos);
+			maxDrainLatencyNanos.accumulateAndGet(end - queuedNanos, Math::max);
+		}
+	}
+}
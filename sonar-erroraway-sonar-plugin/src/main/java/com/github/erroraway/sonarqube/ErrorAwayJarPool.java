@@ -0,0 +1,346 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.Startable;
+import org.sonar.api.scanner.ScannerSide;
+
+/**
+ * The jars opened by the javac tasks of all the modules of the project, each jar is opened and listed once per
+ * analysis instead of once per task. A jar is closed when the analysis ends, or as soon as it is no longer used when
+ * it was modified since it was opened.
+ *
+ * @author Guillaume Toison
+ *
+ */
+@ScannerSide
+public class ErrorAwayJarPool implements Startable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayJarPool.class);
+
+	private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+	private final Map<JarKey, Jar> jars = new HashMap<>();
+	private final Set<JarKey> unpooledJars = new HashSet<>();
+
+	private record JarKey(String path, long size, long lastModified) {
+		static JarKey of(File jar) {
+			return new JarKey(jar.getAbsolutePath(), jar.length(), jar.lastModified());
+		}
+	}
+
+	/**
+	 * An open jar and the names of the files of each of its packages, the file objects are only created for the files
+	 * javac reads
+	 */
+	public static final class Jar {
+		private final JarKey key;
+		private final ZipFile zipFile;
+		private final Map<String, Set<String>> fileNamesByPackage;
+		private final Map<String, JarFileObject> files = new ConcurrentHashMap<>();
+		private int references;
+
+		private Jar(JarKey key, ZipFile zipFile, Map<String, Set<String>> fileNamesByPackage) {
+			this.key = key;
+			this.zipFile = zipFile;
+			this.fileNamesByPackage = fileNamesByPackage;
+		}
+
+		/**
+		 * @param packageName
+		 *            A package name, an empty string for the unnamed package
+		 * @param kinds
+		 *            The kinds of files to return
+		 * @return The files of the package, excluding the sub-packages
+		 */
+		public List<JavaFileObject> list(String packageName, Set<Kind> kinds) {
+			List<JavaFileObject> packageFiles = new ArrayList<>();
+
+			for (String relativeName : fileNamesByPackage.getOrDefault(packageName, Set.of())) {
+				if (kinds.contains(kind(relativeName))) {
+					packageFiles.add(file(packageName, relativeName));
+				}
+			}
+
+			return packageFiles;
+		}
+
+		/**
+		 * @param packageName
+		 *            A package name, an empty string for the unnamed package
+		 * @param relativeName
+		 *            The name of the file relative to the package
+		 * @return The file or <code>null</code> if the jar does not contain it
+		 */
+		public JavaFileObject file(String packageName, String relativeName) {
+			if (!fileNamesByPackage.getOrDefault(packageName, Set.of()).contains(relativeName)) {
+				return null;
+			}
+
+			String entryName = packageName.isEmpty() ? relativeName : packageName.replace('.', '/') + '/' + relativeName;
+
+			return files.computeIfAbsent(entryName, name -> new JarFileObject(zipFile, zipFile.getEntry(name), kind(name)));
+		}
+
+		private void close() {
+			try {
+				zipFile.close();
+			} catch (IOException e) {
+				LOGGER.debug("Error closing {}", key.path(), e);
+			}
+		}
+	}
+
+	/**
+	 * A file of a pooled jar, read concurrently by the tasks sharing the jar
+	 */
+	public static final class JarFileObject implements JavaFileObject {
+		private final ZipFile zipFile;
+		private final ZipEntry entry;
+		private final Kind kind;
+		private final String entryName;
+		private final String binaryName;
+
+		private JarFileObject(ZipFile zipFile, ZipEntry entry, Kind kind) {
+			this.zipFile = zipFile;
+			this.entry = entry;
+			this.kind = kind;
+			this.entryName = entry.getName();
+			this.binaryName = entryName.substring(0, entryName.length() - kind.extension.length()).replace('/', '.');
+		}
+
+		/**
+		 * @return The name of the class, the name of the file without extension for the other resources
+		 */
+		public String binaryName() {
+			return binaryName;
+		}
+
+		@Override
+		public Kind getKind() {
+			return kind;
+		}
+
+		@Override
+		public URI toUri() {
+			return URI.create("jar:" + new File(zipFile.getName()).toURI() + "!/" + entryName);
+		}
+
+		@Override
+		public String getName() {
+			return zipFile.getName() + "(" + entryName + ")";
+		}
+
+		@Override
+		public InputStream openInputStream() throws IOException {
+			return zipFile.getInputStream(entry);
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+			try (InputStream input = openInputStream()) {
+				return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+			}
+		}
+
+		@Override
+		public Reader openReader(boolean ignoreEncodingErrors) throws IOException {
+			return new StringReader(getCharContent(ignoreEncodingErrors).toString());
+		}
+
+		@Override
+		public OutputStream openOutputStream() {
+			throw new UnsupportedOperationException("The jars of the classpath are read-only");
+		}
+
+		@Override
+		public Writer openWriter() {
+			throw new UnsupportedOperationException("The jars of the classpath are read-only");
+		}
+
+		@Override
+		public boolean delete() {
+			return false;
+		}
+
+		@Override
+		public String toString() {
+			return getName();
+		}
+
+		@Override
+		public long getLastModified() {
+			return entry.getTime();
+		}
+
+		@Override
+		public boolean isNameCompatible(String simpleName, Kind kind) {
+			String fileName = simpleName + kind.extension;
+
+			return kind == this.kind && (entryName.equals(fileName) || entryName.endsWith("/" + fileName));
+		}
+
+		@Override
+		public NestingKind getNestingKind() {
+			return null;
+		}
+
+		@Override
+		public Modifier getAccessLevel() {
+			return null;
+		}
+	}
+
+	@Override
+	public void start() {
+		// The jars are opened by the tasks
+	}
+
+	/**
+	 * @param file
+	 *            A jar of the classpath
+	 * @return The open jar or <code>null</code> if javac must open the jar itself, e.g. for a multi-release jar, the
+	 *         jar must be released once the task completed
+	 */
+	public synchronized Jar acquire(File file) {
+		JarKey key = JarKey.of(file);
+
+		if (unpooledJars.contains(key)) {
+			return null;
+		}
+
+		Jar jar = jars.get(key);
+		if (jar == null) {
+			jar = open(key, file);
+
+			if (jar == null) {
+				unpooledJars.add(key);
+				return null;
+			}
+
+			jars.put(key, jar);
+		}
+
+		jar.references++;
+		return jar;
+	}
+
+	/**
+	 * @param jar
+	 *            A jar returned by {@link #acquire(File)}
+	 */
+	public synchronized void release(Jar jar) {
+		jar.references--;
+
+		// A new instance of the jar is opened when it was modified, the previous one is closed once no task uses it
+		if (jar.references == 0 && !jar.key.equals(JarKey.of(new File(jar.key.path())))) {
+			jars.remove(jar.key);
+			jar.close();
+		}
+	}
+
+	/**
+	 * @return The number of jars currently open
+	 */
+	public synchronized int openJars() {
+		return jars.size();
+	}
+
+	@Override
+	public synchronized void stop() {
+		jars.values().forEach(Jar::close);
+		jars.clear();
+		unpooledJars.clear();
+	}
+
+	private static Jar open(JarKey key, File file) {
+		ZipFile zipFile = null;
+
+		try {
+			zipFile = new ZipFile(file);
+			Map<String, Set<String>> fileNamesByPackage = new HashMap<>();
+
+			for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = entries.nextElement();
+				String name = entry.getName();
+
+				if (name.startsWith(VERSIONS_PREFIX)) {
+					// javac selects the classes of a multi-release jar according to the target release
+					zipFile.close();
+					return null;
+				}
+
+				if (!entry.isDirectory() && !name.endsWith("module-info.class")) {
+					int lastSlash = name.lastIndexOf('/');
+					String packageName = lastSlash < 0 ? "" : name.substring(0, lastSlash).replace('/', '.');
+
+					fileNamesByPackage.computeIfAbsent(packageName, p -> new HashSet<>()).add(name.substring(lastSlash + 1));
+				}
+			}
+
+			return new Jar(key, zipFile, fileNamesByPackage);
+		} catch (IOException e) {
+			// Let javac decide what to do with this file
+			LOGGER.debug("Error opening {}", file, e);
+
+			if (zipFile != null) {
+				try {
+					zipFile.close();
+				} catch (IOException closeException) {
+					e.addSuppressed(closeException);
+				}
+			}
+
+			return null;
+		}
+	}
+
+	private static Kind kind(String name) {
+		for (Kind kind : List.of(Kind.CLASS, Kind.SOURCE, Kind.HTML)) {
+			if (name.endsWith(kind.extension)) {
+				return kind;
+			}
+		}
+
+		return Kind.OTHER;
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.tools.Diagnostic;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.helpers.MessageFormatter;
+
+import com.github.erroraway.ErrorAwayException;
+
+/**
+ * Adapts the size of the analysis batches to the heap: the old generation pools are watched with usage thresholds and
+ * the files that remain are analyzed in smaller batches once a threshold was crossed, a batch running out of memory is
+ * analyzed again in two halves. The adjustments are logged and kept for the summary of the analysis. The batches of
+ * the concurrent tasks, e.g. the shards, can be processed by concurrent threads.
+ * <p>
+ * A disabled controller keeps the batches as they are and fails the analysis when a batch runs out of memory.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayMemoryController implements NotificationListener, AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayMemoryController.class);
+
+	private final int thresholdPercent;
+	private final Map<MemoryPoolMXBean, Long> previousThresholds = new HashMap<>();
+	private final AtomicBoolean pressure = new AtomicBoolean();
+	private final List<String> adjustments = new ArrayList<>();
+	private final NotificationEmitter emitter;
+
+	/**
+	 * @param thresholdPercent
+	 *            The percentage of the maximum size of the old generation above which the batches are shrunk, 0 to
+	 *            disable the controller
+	 */
+	public ErrorAwayMemoryController(int thresholdPercent) {
+		this.thresholdPercent = thresholdPercent;
+
+		if (thresholdPercent <= 0 || !(ManagementFactory.getMemoryMXBean() instanceof NotificationEmitter memoryEmitter)) {
+			emitter = null;
+			return;
+		}
+
+		emitter = memoryEmitter;
+		emitter.addNotificationListener(this, null, null);
+
+		// Only the pools that survive collections support a usage threshold, i.e. the old generation
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			long max = pool.getUsage().getMax();
+
+			if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported() && max > 0) {
+				previousThresholds.put(pool, pool.getUsageThreshold());
+				pool.setUsageThreshold(max / 100 * thresholdPercent);
+			}
+		}
+	}
+
+	@Override
+	public void handleNotification(Notification notification, Object handback) {
+		if (MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+			pressure.set(true);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the batches are adjusted to the heap
+	 */
+	public boolean isEnabled() {
+		return thresholdPercent > 0;
+	}
+
+	/**
+	 * @param batch
+	 *            A batch given to the batch processor
+	 * @return <code>true</code> if the batch is processed again with fewer items when it runs out of memory, its
+	 *         results must then be kept until it completes
+	 */
+	public boolean canRetry(List<?> batch) {
+		return isEnabled() && batch.size() > 1;
+	}
+
+	/**
+	 * @return <code>true</code> if a threshold was crossed since the last call
+	 */
+	public boolean pressureDetected() {
+		return pressure.getAndSet(false);
+	}
+
+	/**
+	 * @param <T>
+	 *            The type of the items
+	 * @param items
+	 *            The items to process, e.g. the files to analyze
+	 * @param batchSize
+	 *            The initial number of items of each batch
+	 * @param batchProcessor
+	 *            Processes a batch, returns <code>false</code> when the batch ran out of memory and must be processed
+	 *            again with fewer items
+	 */
+	public <T> void forEachBatch(List<T> items, int batchSize, Predicate<List<T>> batchProcessor) {
+		int size = batchSize;
+		int start = 0;
+
+		while (start < items.size()) {
+			if (isEnabled() && pressureDetected() && size > 1) {
+				size = Math.max(1, size / 2);
+				adjust("The old generation went above {}% of its maximum, analyzing the {} remaining files in batches of {} files", thresholdPercent,
+						items.size() - start, size);
+			}
+
+			List<T> batch = items.subList(start, Math.min(start + size, items.size()));
+
+			if (batchProcessor.test(batch)) {
+				start += batch.size();
+			} else if (batch.size() == 1) {
+				throw new ErrorAwayException("Out of memory analyzing " + batch.get(0) + ", the analyzer max heap must be increased");
+			} else if (!isEnabled()) {
+				throw new ErrorAwayException("Out of memory analyzing " + batch.size() + " files, the analyzer max heap must be increased");
+			} else {
+				size = Math.max(1, batch.size() / 2);
+				adjust("Out of memory analyzing a batch of {} files, analyzing it again in batches of {} files", batch.size(), size);
+			}
+		}
+	}
+
+	/**
+	 * @return The adjustments made to the batches
+	 */
+	public synchronized List<String> adjustments() {
+		return List.copyOf(adjustments);
+	}
+
+	/**
+	 * @param throwable
+	 *            An exception thrown by a javac task
+	 * @return <code>true</code> if the exception or one of its causes is an {@link OutOfMemoryError}
+	 */
+	public static boolean isOutOfMemory(Throwable throwable) {
+		for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+			if (cause instanceof OutOfMemoryError) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @param diagnostic
+	 *            A diagnostic reported by javac
+	 * @return <code>true</code> if the diagnostic is the crash of an Error Prone checker that ran out of memory
+	 */
+	public static boolean isOutOfMemory(Diagnostic<?> diagnostic) {
+		return ErrorAwayDiagnosticListener.ERROR_PRONE_COMPILER_CRASH_CODE.equals(diagnostic.getCode())
+				&& diagnostic.toString().contains(OutOfMemoryError.class.getName());
+	}
+
+	private synchronized void adjust(String format, Object... arguments) {
+		String adjustment = MessageFormatter.arrayFormat(format, arguments).getMessage();
+
+		LOGGER.info(adjustment);
+		adjustments.add(adjustment);
+	}
+
+	/**
+	 * Logs the adjustments made during the analysis
+	 */
+	public synchronized void log() {
+		if (!adjustments.isEmpty()) {
+			LOGGER.info("The batches were adjusted {} times to fit in the heap:\n  {}", adjustments.size(), String.join("\n  ", adjustments));
+		}
+	}
+
+	@Override
+	public void close() {
+		// The thresholds are global to the JVM, the next modules get them back as they were
+		previousThresholds.forEach(MemoryPoolMXBean::setUsageThreshold);
+		previousThresholds.clear();
+
+		if (emitter != null) {
+			try {
+				emitter.removeNotificationListener(this);
+			} catch (ListenerNotFoundException e) {
+				LOGGER.debug("The memory listener was already removed", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Keeps the sources and classes generated by javac in memory instead of writing them in the output folders. The memory
+ * budget is shared by all the file managers created with the same counter, files that do not fit in the budget are
+ * written to the output folders of the standard file manager.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayMemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+	private final Charset encoding;
+	private final AtomicLong availableBytes;
+	private final AtomicLong reservedBytes = new AtomicLong();
+	private final Map<String, MemoryFileObject> files = new ConcurrentHashMap<>();
+
+	/**
+	 * @param fileManager
+	 *            The file manager with the output folders used when the memory budget is exhausted
+	 * @param encoding
+	 *            The encoding of the generated sources
+	 * @param availableBytes
+	 *            The remaining memory budget, shared with the other file managers and given back when this file manager
+	 *            is closed
+	 */
+	public ErrorAwayMemoryFileManager(StandardJavaFileManager fileManager, Charset encoding, AtomicLong availableBytes) {
+		super(fileManager);
+		this.encoding = encoding;
+		this.availableBytes = availableBytes;
+	}
+
+	@Override
+	public JavaFileObject getJavaFileForOutput(Location location, String className, Kind kind, FileObject sibling) throws IOException {
+		if (!isOutputLocation(location)) {
+			return super.getJavaFileForOutput(location, className, kind, sibling);
+		}
+
+		String relativeName = className.replace('.', '/') + kind.extension;
+		MemoryFileObject file = new MemoryFileObject(location, relativeName, kind, className,
+				() -> super.getJavaFileForOutput(location, className, kind, sibling));
+		register(key(location, relativeName), file);
+
+		return file;
+	}
+
+	@Override
+	public FileObject getFileForOutput(Location location, String packageName, String relativeName, FileObject sibling) throws IOException {
+		if (!isOutputLocation(location)) {
+			return super.getFileForOutput(location, packageName, relativeName, sibling);
+		}
+
+		String path = resourcePath(packageName, relativeName);
+		MemoryFileObject file = new MemoryFileObject(location, path, Kind.OTHER, null,
+				() -> super.getFileForOutput(location, packageName, relativeName, sibling));
+		register(key(location, path), file);
+
+		return file;
+	}
+
+	@Override
+	public JavaFileObject getJavaFileForInput(Location location, String className, Kind kind) throws IOException {
+		MemoryFileObject file = files.get(key(location, className.replace('.', '/') + kind.extension));
+
+		return file != null ? file : super.getJavaFileForInput(location, className, kind);
+	}
+
+	@Override
+	public FileObject getFileForInput(Location location, String packageName, String relativeName) throws IOException {
+		MemoryFileObject file = files.get(key(location, resourcePath(packageName, relativeName)));
+
+		return file != null ? file : super.getFileForInput(location, packageName, relativeName);
+	}
+
+	@Override
+	public Iterable<JavaFileObject> list(Location location, String packageName, Set<Kind> kinds, boolean recurse) throws IOException {
+		Iterable<JavaFileObject> listed = super.list(location, packageName, kinds, recurse);
+
+		if (!isOutputLocation(location)) {
+			return listed;
+		}
+
+		String prefix = location.getName() + '/' + (packageName.isEmpty() ? "" : packageName.replace('.', '/') + '/');
+		List<JavaFileObject> result = new ArrayList<>();
+		listed.forEach(result::add);
+
+		files.forEach((key, file) -> {
+			String remaining = key.substring(Math.min(key.length(), prefix.length()));
+
+			if (key.startsWith(prefix) && kinds.contains(file.getKind()) && file.isWritten() && (recurse || remaining.indexOf('/') == -1)) {
+				result.add(file);
+			}
+		});
+
+		return result;
+	}
+
+	@Override
+	public String inferBinaryName(Location location, JavaFileObject file) {
+		if (file instanceof MemoryFileObject memoryFile) {
+			return memoryFile.binaryName;
+		}
+
+		return super.inferBinaryName(location, file);
+	}
+
+	@Override
+	public boolean isSameFile(FileObject a, FileObject b) {
+		if (a instanceof MemoryFileObject || b instanceof MemoryFileObject) {
+			return a.toUri().equals(b.toUri());
+		}
+
+		return super.isSameFile(a, b);
+	}
+
+	@Override
+	public void close() throws IOException {
+		files.clear();
+		availableBytes.addAndGet(reservedBytes.getAndSet(0));
+
+		super.close();
+	}
+
+	/**
+	 * @return The number of bytes currently kept in memory by this file manager
+	 */
+	public long memoryBytes() {
+		return reservedBytes.get();
+	}
+
+	private void register(String key, MemoryFileObject file) {
+		MemoryFileObject previous = files.put(key, file);
+
+		if (previous != null) {
+			previous.discard();
+		}
+	}
+
+	private boolean reserve(long bytes) {
+		long available = availableBytes.get();
+
+		while (available >= bytes) {
+			if (availableBytes.compareAndSet(available, available - bytes)) {
+				reservedBytes.addAndGet(bytes);
+				return true;
+			}
+
+			available = availableBytes.get();
+		}
+
+		return false;
+	}
+
+	private void release(long bytes) {
+		reservedBytes.addAndGet(-bytes);
+		availableBytes.addAndGet(bytes);
+	}
+
+	private static boolean isOutputLocation(Location location) {
+		return location == StandardLocation.CLASS_OUTPUT || location == StandardLocation.SOURCE_OUTPUT;
+	}
+
+	private static String resourcePath(String packageName, String relativeName) {
+		return packageName.isEmpty() ? relativeName : packageName.replace('.', '/') + '/' + relativeName;
+	}
+
+	private static String key(Location location, String relativeName) {
+		return location.getName() + '/' + relativeName;
+	}
+
+	@FunctionalInterface
+	private interface OutputFileSupplier {
+		FileObject get() throws IOException;
+	}
+
+	/**
+	 * A generated file, its content is kept in memory unless it did not fit in the budget, in which case it is written to
+	 * the output folder and all the operations are forwarded to the file on disk
+	 */
+	private class MemoryFileObject extends SimpleJavaFileObject {
+		private final String binaryName;
+		private final OutputFileSupplier diskFileSupplier;
+		private byte[] content;
+		private FileObject diskFile;
+
+		MemoryFileObject(Location location, String relativeName, Kind kind, String binaryName, OutputFileSupplier diskFileSupplier) {
+			super(URI.create("memory:///" + location.getName() + '/' + relativeName), kind);
+			this.binaryName = binaryName;
+			this.diskFileSupplier = diskFileSupplier;
+		}
+
+		synchronized boolean isWritten() {
+			return content != null || diskFile != null;
+		}
+
+		@Override
+		public synchronized InputStream openInputStream() throws IOException {
+			if (diskFile != null) {
+				return diskFile.openInputStream();
+			}
+
+			if (content == null) {
+				throw new IOException(toUri() + " has not been written");
+			}
+
+			return new ByteArrayInputStream(content);
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+			synchronized (this) {
+				if (diskFile != null) {
+					return diskFile.getCharContent(ignoreEncodingErrors);
+				}
+			}
+
+			try (InputStream input = openInputStream()) {
+				return new String(input.readAllBytes(), encoding);
+			}
+		}
+
+		@Override
+		public OutputStream openOutputStream() throws IOException {
+			return new FilterOutputStream(new ByteArrayOutputStream()) {
+				private boolean closed;
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+				}
+
+				@Override
+				public void close() throws IOException {
+					if (!closed) {
+						closed = true;
+						store(((ByteArrayOutputStream) out).toByteArray());
+					}
+				}
+			};
+		}
+
+		@Override
+		public Writer openWriter() throws IOException {
+			return new OutputStreamWriter(openOutputStream(), encoding);
+		}
+
+		@Override
+		public synchronized boolean delete() {
+			if (content != null) {
+				discard();
+				return true;
+			}
+
+			return diskFile != null && diskFile.delete();
+		}
+
+		synchronized void discard() {
+			if (content != null) {
+				release(content.length);
+				content = null;
+			}
+		}
+
+		private synchronized void store(byte[] bytes) throws IOException {
+			discard();
+
+			if (diskFile == null && reserve(bytes.length)) {
+				content = bytes;
+				return;
+			}
+
+			if (diskFile == null) {
+				diskFile = diskFileSupplier.get();
+			}
+
+			try (OutputStream output = diskFile.openOutputStream()) {
+				output.write(bytes);
+			}
+		}
+	}
+}
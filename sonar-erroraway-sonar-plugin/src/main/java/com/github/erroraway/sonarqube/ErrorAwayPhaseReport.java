@@ -0,0 +1,198 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Collects the time spent in each compilation phase by all the javac tasks of an analysis, in total and for each file.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayPhaseReport {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayPhaseReport.class);
+
+	public static final String REPORT_FILE_NAME = "erroraway-phases.json";
+
+	/**
+	 * The compilation phases, the issues are saved by the issue writer thread while javac runs so saving the issues
+	 * overlaps the other phases. When the issue queue is disabled the issues are saved while the checkers run and the
+	 * time is also part of the Error Prone phase.
+	 */
+	public enum Phase {
+		PARSE,
+		ENTER,
+		ANNOTATION_PROCESSING,
+		ATTRIBUTE_AND_FLOW,
+		ERROR_PRONE,
+		GENERATE,
+		SAVE_ISSUES
+	}
+
+	/**
+	 * The time spent on a file in each phase
+	 */
+	public record FileTimings(URI file, Map<Phase, Duration> phases) {
+		public Duration total() {
+			return phases.values().stream().reduce(Duration.ZERO, Duration::plus);
+		}
+	}
+
+	private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+	private final Map<URI, AtomicLongArray> fileNanos = new ConcurrentHashMap<>();
+
+	/**
+	 * @param phase
+	 *            A phase that is not specific to a file
+	 * @param nanos
+	 *            The time spent in the phase
+	 */
+	public void addPhase(Phase phase, long nanos) {
+		phaseNanos.addAndGet(phase.ordinal(), nanos);
+	}
+
+	/**
+	 * @param file
+	 *            The file being compiled
+	 * @param phase
+	 *            The phase
+	 * @param nanos
+	 *            The time spent on the file in the phase, it is added to the total of the phase
+	 */
+	public void addFile(URI file, Phase phase, long nanos) {
+		addPhase(phase, nanos);
+		fileNanos.computeIfAbsent(file, f -> new AtomicLongArray(Phase.values().length)).addAndGet(phase.ordinal(), nanos);
+	}
+
+	/**
+	 * @return The time spent in each phase
+	 */
+	public Map<Phase, Duration> phases() {
+		return toDurations(phaseNanos);
+	}
+
+	/**
+	 * @param count
+	 *            The maximum number of files to return
+	 * @return The files on which the javac tasks spent the most time, the slowest first
+	 */
+	public List<FileTimings> slowestFiles(int count) {
+		List<FileTimings> files = new ArrayList<>(fileNanos.size());
+		fileNanos.forEach((file, nanos) -> files.add(new FileTimings(file, toDurations(nanos))));
+
+		files.sort(Comparator.comparing(FileTimings::total).reversed().thenComparing(FileTimings::file));
+
+		return files.subList(0, Math.min(count, files.size()));
+	}
+
+	/**
+	 * Log the time spent in each phase and the slowest files
+	 *
+	 * @param baseDir
+	 *            The project base dir, the files are logged relative to it
+	 * @param top
+	 *            The number of files to log
+	 */
+	public void log(Path baseDir, int top) {
+		StringBuilder phases = new StringBuilder();
+		phases().forEach((phase, duration) -> phases.append(phases.length() == 0 ? "" : ", ").append(phase).append(' ').append(duration.toMillis()).append(" ms"));
+		LOGGER.info("Compilation phases: {}", phases);
+
+		LOGGER.info("Slowest files:");
+		for (FileTimings file : slowestFiles(top)) {
+			LOGGER.info(String.format("  %-80s %8d ms", relativize(baseDir, file.file()), file.total().toMillis()));
+		}
+	}
+
+	/**
+	 * Write the time spent in each phase and on each file in a JSON file
+	 *
+	 * @param baseDir
+	 *            The project base dir, the files are written relative to it
+	 * @param file
+	 *            The report file
+	 */
+	public void write(Path baseDir, Path file) {
+		JsonObject report = new JsonObject();
+
+		JsonObject phases = new JsonObject();
+		phases().forEach((phase, duration) -> phases.addProperty(phase.name(), duration.toNanos() / 1_000_000.0));
+		report.add("phasesMs", phases);
+
+		JsonArray files = new JsonArray();
+		for (FileTimings fileTimings : slowestFiles(Integer.MAX_VALUE)) {
+			JsonObject fileReport = new JsonObject();
+			fileReport.addProperty("file", relativize(baseDir, fileTimings.file()));
+			fileReport.addProperty("totalMs", fileTimings.total().toNanos() / 1_000_000.0);
+
+			JsonObject filePhases = new JsonObject();
+			fileTimings.phases().forEach((phase, duration) -> filePhases.addProperty(phase.name(), duration.toNanos() / 1_000_000.0));
+			fileReport.add("phasesMs", filePhases);
+
+			files.add(fileReport);
+		}
+		report.add("files", files);
+
+		try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			new GsonBuilder().setPrettyPrinting().create().toJson(report, writer);
+		} catch (IOException e) {
+			LOGGER.warn("Could not write the phases report {}", file, e);
+		}
+	}
+
+	private static Map<Phase, Duration> toDurations(AtomicLongArray nanos) {
+		Map<Phase, Duration> durations = new EnumMap<>(Phase.class);
+
+		for (Phase phase : Phase.values()) {
+			durations.put(phase, Duration.ofNanos(nanos.get(phase.ordinal())));
+		}
+
+		return durations;
+	}
+
+	private static String relativize(Path baseDir, URI file) {
+		if (baseDir != null && "file".equals(file.getScheme())) {
+			Path path = Path.of(file);
+
+			if (path.startsWith(baseDir)) {
+				return baseDir.relativize(path).toString();
+			}
+		}
+
+		return file.toString();
+	}
+}
@@ -15,13 +15,33 @@
  */
 package com.github.erroraway.sonarqube;
 
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.ANALYSIS_BATCH_SIZE;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.ANALYSIS_DAEMON;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.ANALYSIS_DAEMON_IDLE_TIMEOUT;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.ANALYSIS_FORK;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.ANALYSIS_FORK_CLASS_DATA_SHARING;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.ANALYSIS_FORK_JVM_OPTIONS;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.ANALYSIS_FORK_WORKERS;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.ANALYSIS_MEMORY_THRESHOLD;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.ANALYSIS_ONLY;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.ANALYSIS_SHARDS;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.ANALYSIS_SHARD_HEAP_MB;
 import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.ANNOTATION_PROCESSORS_MAVEN_COORDINATES;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.CLASSPATH_INDEX;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.CLASSPATH_PRUNING;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.CLASSPATH_STUBS;
 import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.CLASS_PATH_MAVEN_COORDINATES;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.ISSUE_QUEUE_SIZE;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.MAVEN_DOWNLOAD_THREADS;
 import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.MAVEN_LOCAL_REPOSITORY;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.MAVEN_LOCK_FILE;
 import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.MAVEN_REPOSITORIES;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.MAVEN_UPDATE_POLICY;
 import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.MAVEN_USER_SETTINGS_FILE;
 import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.MAVEN_USE_TEMP_LOCAL_REPOSITORY;
 import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.MAVEN_WORK_OFFLINE;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.OUTPUT_MEMORY_MB;
+import static com.github.erroraway.sonarqube.ErrorAwayPluginConstants.PREFILTER;
 
 import org.sonar.api.Plugin;
 import org.sonar.api.PropertyType;
@@ -36,6 +56,7 @@ public class ErrorAwayPlugin implements Plugin {
 	private static final String PROPERTY_NULLAWAY_CATEGORY = "NullAway";
 	private static final String PROPERTY_ERRORAWAY_CATEGORY = "ErrorAway";
 	private static final String PROPERTY_MAVEN_SUBCATEGORY = "Maven";
+	private static final String PROPERTY_PERFORMANCE_SUBCATEGORY = "Performance";
 
 	@Override
 	public void define(Context context) {
@@ -87,6 +108,36 @@ public class ErrorAwayPlugin implements Plugin {
 				.multiValues(true)
 				.build());
 
+		context.addExtension(PropertyDefinition
+				.builder(MAVEN_UPDATE_POLICY)
+				.name("Maven update policy")
+				.description("How often the remote repositories are checked for updates and for the artifacts that were not found: always, daily, never or interval:<minutes>")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_MAVEN_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.defaultValue("always")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(MAVEN_DOWNLOAD_THREADS)
+				.name("Maven download threads")
+				.description("The number of artifacts downloaded concurrently")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_MAVEN_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.INTEGER)
+				.defaultValue("8")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(MAVEN_LOCK_FILE)
+				.name("Maven lockfile")
+				.description("The file where the resolved dependencies are recorded so that the next analyses do not resolve them again, defaults to <sonar user home>/erroraway/dependencies.lock")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_MAVEN_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.build());
+
 		context.addExtension(PropertyDefinition
 				.builder(CLASS_PATH_MAVEN_COORDINATES)
 				.name("Classpath Maven coordinates")
@@ -107,6 +158,192 @@ public class ErrorAwayPlugin implements Plugin {
 				.multiValues(true)
 				.build());
 
+		context.addExtension(PropertyDefinition
+				.builder(ANALYSIS_ONLY)
+				.name("Analysis only")
+				.description("Stop the compilation once the code is analyzed instead of generating class files")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.BOOLEAN)
+				.defaultValue("true")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(CLASSPATH_INDEX)
+				.name("Classpath index")
+				.description("Look for the classes of a package only in the jars containing this package, the packages of the jars are saved in the Sonar user home")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.BOOLEAN)
+				.defaultValue("true")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(PREFILTER)
+				.name("Pre-filter")
+				.description("Only scan the NullAway annotated code when NullAway is the only active rule: the files of the annotated packages and the @NullMarked files, packages and modules. It has no effect when other rules are active")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.BOOLEAN)
+				.defaultValue("false")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(CLASSPATH_STUBS)
+				.name("Classpath stubs")
+				.description("Replace the jars of the classpath with stubs without the method bodies, the stubs are saved in the Sonar user home")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.BOOLEAN)
+				.defaultValue("false")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(CLASSPATH_PRUNING)
+				.name("Classpath pruning")
+				.description("Remove from the classpath the jars whose packages are not referenced by the sources, the files are analyzed again with the full classpath if a class is missing")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.BOOLEAN)
+				.defaultValue("false")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(ANALYSIS_SHARDS)
+				.name("Analysis shards")
+				.description("The number of javac tasks the source files are split into, the tasks run in parallel. 0 uses the number of available processors")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.INTEGER)
+				.defaultValue("1")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(ANALYSIS_BATCH_SIZE)
+				.name("Analysis batch size")
+				.description("The number of files analyzed by each javac task, the tasks run one after the other and read the other files from the binaries of the module. 0 analyzes all the files at once, auto computes the size from the maximum heap")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.STRING)
+				.defaultValue("0")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(ANALYSIS_MEMORY_THRESHOLD)
+				.name("Analysis memory threshold")
+				.description("The percentage of the old generation above which the remaining files are analyzed in batches half as large, a batch running out of memory is analyzed again in two halves. 0 disables these adjustments")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.INTEGER)
+				.defaultValue("80")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(ANALYSIS_FORK)
+				.name("Forked analysis")
+				.description("Run javac and Error Prone in a separate JVM so that the scanner heap does not need to be sized for the analysis")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.BOOLEAN)
+				.defaultValue("false")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(ANALYSIS_FORK_JVM_OPTIONS)
+				.name("Forked analysis JVM options")
+				.description("The options of the JVM running the forked analysis separated by spaces, e.g. -Xmx4g -XX:+UseParallelGC")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.STRING)
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(ANALYSIS_FORK_WORKERS)
+				.name("Forked analysis workers")
+				.description("The number of JVMs running the forked analysis, with more than one JVM the files are split in clusters of packages depending on each other and each cluster is analyzed by one of the JVMs")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.INTEGER)
+				.defaultValue("1")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(ANALYSIS_FORK_CLASS_DATA_SHARING)
+				.name("Forked analysis class data sharing")
+				.description("Create a class data sharing archive of the classes loaded by the first forked analysis JVM and use it to start the next ones faster")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.BOOLEAN)
+				.defaultValue("false")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(ANALYSIS_DAEMON)
+				.name("Analysis daemon")
+				.description("Run the analysis in a JVM kept alive between the scans of the machine, the analysis runs without it when the daemon cannot be started")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.BOOLEAN)
+				.defaultValue("false")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(ANALYSIS_DAEMON_IDLE_TIMEOUT)
+				.name("Analysis daemon idle timeout")
+				.description("The number of seconds after which the analysis daemon exits when it does not receive any request")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.INTEGER)
+				.defaultValue("1800")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(ANALYSIS_SHARD_HEAP_MB)
+				.name("Heap per analysis shard")
+				.description("The heap in MB needed by each analysis shard, the number of shards running in parallel is limited so that they fit in the analyzer max heap")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.INTEGER)
+				.defaultValue("512")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(OUTPUT_MEMORY_MB)
+				.name("Memory for generated files")
+				.description("The memory in MB used to keep the sources and classes generated by javac, the files that do not fit are written to the temp folder")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.INTEGER)
+				.defaultValue("64")
+				.build());
+
+		context.addExtension(PropertyDefinition
+				.builder(ISSUE_QUEUE_SIZE)
+				.name("Issue queue size")
+				.description("The number of issues waiting to be saved by the issue writer thread before javac is blocked, 0 to save the issues on the javac thread")
+				.category(PROPERTY_ERRORAWAY_CATEGORY)
+				.subCategory(PROPERTY_PERFORMANCE_SUBCATEGORY)
+				.onQualifiers(Qualifiers.PROJECT)
+				.type(PropertyType.INTEGER)
+				.defaultValue("10000")
+				.build());
+
 		for (NullAwayOption option : NullAwayOption.values()) {
 			context.addExtension(PropertyDefinition
 					.builder(option.getKey())
@@ -122,5 +359,6 @@ public class ErrorAwayPlugin implements Plugin {
 		context.addExtension(ErrorAwayQualityProfile.class);
 		context.addExtension(ErrorAwaySensor.class);
 		context.addExtension(ErrorAwayDependencyManager.class);
+		context.addExtension(ErrorAwayJarPool.class);
 	}
 }
@@ -3,6 +3,10 @@
  */
 package com.github.erroraway.sonarqube;
 
+import java.nio.file.Path;
+
+import org.sonar.api.config.Configuration;
+
 /**
  * @author gtoison
  */
@@ -13,9 +17,40 @@ public final class ErrorAwayPluginConstants {
 	public static final String MAVEN_LOCAL_REPOSITORY = "erroraway.maven.local.repository";
 	public static final String MAVEN_USE_TEMP_LOCAL_REPOSITORY = "erroraway.maven.use.temp.local.repository";
 	public static final String MAVEN_REPOSITORIES = "erroraway.maven.repositories";
+	public static final String MAVEN_UPDATE_POLICY = "erroraway.maven.update.policy";
+	public static final String MAVEN_LOCK_FILE = "erroraway.maven.lock.file";
+	public static final String MAVEN_DOWNLOAD_THREADS = "erroraway.maven.download.threads";
 	public static final String CLASS_PATH_MAVEN_COORDINATES = "erroraway.classpath.maven.coordinates";
 	public static final String ANNOTATION_PROCESSORS_MAVEN_COORDINATES = "erroraway.annotation.processors.maven.coordinates";
+	public static final String CLASSPATH_PRUNING = "erroraway.classpath.pruning";
+	public static final String CLASSPATH_INDEX = "erroraway.classpath.index";
+	public static final String CLASSPATH_STUBS = "erroraway.classpath.stubs";
+	public static final String PREFILTER = "erroraway.prefilter";
+	public static final String ANALYSIS_ONLY = "erroraway.analysis.only";
+	public static final String ANALYSIS_SHARDS = "erroraway.analysis.shards";
+	public static final String ANALYSIS_SHARD_HEAP_MB = "erroraway.analysis.shard.heap.mb";
+	public static final String ANALYSIS_BATCH_SIZE = "erroraway.analysis.batch.size";
+	public static final String ANALYSIS_MEMORY_THRESHOLD = "erroraway.analysis.memory.threshold";
+	public static final String ANALYSIS_FORK = "erroraway.analysis.fork";
+	public static final String ANALYSIS_FORK_JVM_OPTIONS = "erroraway.analysis.fork.jvm.options";
+	public static final String ANALYSIS_FORK_WORKERS = "erroraway.analysis.fork.workers";
+	public static final String ANALYSIS_FORK_CLASS_DATA_SHARING = "erroraway.analysis.fork.class.data.sharing";
+	public static final String ANALYSIS_DAEMON = "erroraway.analysis.daemon";
+	public static final String ANALYSIS_DAEMON_IDLE_TIMEOUT = "erroraway.analysis.daemon.idle.timeout";
+	public static final String OUTPUT_MEMORY_MB = "erroraway.output.memory.mb";
+	public static final String ISSUE_QUEUE_SIZE = "erroraway.issue.queue.size";
 
 	private ErrorAwayPluginConstants() {
 	}
+
+	/**
+	 * @param configuration
+	 *            The configuration of the analysis
+	 * @return The folder of the Sonar user home where the files kept between the analyses are saved
+	 */
+	public static Path errorAwayHome(Configuration configuration) {
+		Path sonarUserHome = configuration.get("sonar.userHome").map(Path::of).orElseGet(() -> Path.of(System.getProperty("user.home"), ".sonar"));
+
+		return sonarUserHome.resolve("erroraway");
+	}
 }
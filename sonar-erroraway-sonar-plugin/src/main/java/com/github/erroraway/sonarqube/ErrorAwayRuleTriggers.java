@@ -0,0 +1,171 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.rule.ActiveRule;
+import org.sonar.api.batch.rule.ActiveRules;
+import org.sonar.api.config.Configuration;
+
+import com.github.erroraway.rules.ErrorAwayRulesMapping;
+
+/**
+ * Lexical hints telling which files may raise an issue when NullAway is the only active rule, the other files do not
+ * need to be scanned by Error Prone. NullAway only reports issues in the annotated code: a file is scanned when it
+ * belongs to one of the annotated packages, when it mentions <code>NullMarked</code>, or when the
+ * <code>package-info.java</code> of its package or the <code>module-info.java</code> of the module mentions
+ * <code>NullMarked</code>. The other rules may raise issues in any file, e.g. the SLF4J checks also apply to an
+ * inherited logger or to a logger returned by a helper method without any SLF4J type name in the file, so no file is
+ * filtered when one of them is active.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public final class ErrorAwayRuleTriggers {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwayRuleTriggers.class);
+
+	private static final Pattern PACKAGE_NAME_PATTERN = Pattern.compile("[\\w$]+(\\.[\\w$]+)*");
+
+	private static final String PACKAGE_INFO = "package-info.java";
+	private static final String MODULE_INFO = "module-info.java";
+
+	/**
+	 * The annotation marking the code checked by NullAway, on a class, a package or a module
+	 */
+	private static final String NULL_MARKED = "NullMarked";
+
+	/**
+	 * The packages whose files and sub-packages files are checked by NullAway
+	 */
+	private final Set<String> annotatedPackages;
+
+	private ErrorAwayRuleTriggers(Set<String> annotatedPackages) {
+		this.annotatedPackages = annotatedPackages;
+	}
+
+	/**
+	 * @param activeRules
+	 *            The active rules
+	 * @param configuration
+	 *            The project configuration with the NullAway options
+	 * @return The hints of the active rules, <code>null</code> when the files cannot be filtered: a rule other than
+	 *         NullAway is active, or the annotated packages are not plain package names
+	 */
+	public static ErrorAwayRuleTriggers of(ActiveRules activeRules, Configuration configuration) {
+		for (String repository : ErrorAwayRulesMapping.REPOSITORIES) {
+			Collection<ActiveRule> repositoryRules = activeRules.findByRepository(repository);
+
+			if (!repository.equals(ErrorAwayRulesMapping.NULLAWAY_REPOSITORY) && !repositoryRules.isEmpty()) {
+				LOGGER.debug("The rule {} may raise issues in any file", repositoryRules.iterator().next().ruleKey());
+				return null;
+			}
+		}
+
+		if (activeRules.findByRepository(ErrorAwayRulesMapping.NULLAWAY_REPOSITORY).isEmpty()
+				|| !configuration.hasKey(NullAwayOption.ANNOTATED_PACKAGES.getKey())) {
+			return null;
+		}
+
+		String[] annotatedPackages = configuration.getStringArray(NullAwayOption.ANNOTATED_PACKAGES.getKey());
+
+		for (String annotatedPackage : annotatedPackages) {
+			if (!PACKAGE_NAME_PATTERN.matcher(annotatedPackage).matches()) {
+				LOGGER.debug("The NullAway annotated package {} is a regular expression", annotatedPackage);
+				return null;
+			}
+		}
+
+		return new ErrorAwayRuleTriggers(Set.copyOf(List.of(annotatedPackages)));
+	}
+
+	/**
+	 * @param inputFiles
+	 *            The files to analyze
+	 * @param moduleFiles
+	 *            All the files of the module, their package-info.java and module-info.java files are searched for
+	 *            <code>NullMarked</code>
+	 * @return The files that may raise an issue
+	 */
+	public List<InputFile> filter(Collection<InputFile> inputFiles, Collection<InputFile> moduleFiles) {
+		Set<String> markedPackages = new HashSet<>();
+
+		for (InputFile moduleFile : moduleFiles) {
+			String fileName = moduleFile.filename();
+
+			if ((fileName.equals(PACKAGE_INFO) || fileName.equals(MODULE_INFO)) && isNullMarked(moduleFile)) {
+				if (fileName.equals(MODULE_INFO)) {
+					return new ArrayList<>(inputFiles);
+				}
+
+				markedPackages.add(ErrorAwaySourcePath.packageName(moduleFile));
+			}
+		}
+
+		List<InputFile> matchingFiles = new ArrayList<>();
+
+		for (InputFile inputFile : inputFiles) {
+			if (matches(inputFile, markedPackages)) {
+				matchingFiles.add(inputFile);
+			}
+		}
+
+		return matchingFiles;
+	}
+
+	private static boolean isNullMarked(InputFile inputFile) {
+		String content = contents(inputFile);
+
+		return content == null || content.contains(NULL_MARKED);
+	}
+
+	private boolean matches(InputFile inputFile, Set<String> markedPackages) {
+		String packageName = ErrorAwaySourcePath.packageName(inputFile);
+
+		if (markedPackages.contains(packageName)) {
+			return true;
+		}
+
+		for (String annotatedPackage : annotatedPackages) {
+			if (packageName.equals(annotatedPackage) || packageName.startsWith(annotatedPackage + ".")) {
+				return true;
+			}
+		}
+
+		String content = contents(inputFile);
+
+		// Let javac report the error when the file cannot be read
+		return content == null || content.contains(NULL_MARKED);
+	}
+
+	private static String contents(InputFile inputFile) {
+		try {
+			return inputFile.contents();
+		} catch (IOException e) {
+			LOGGER.debug("Error reading {}", inputFile, e);
+			return null;
+		}
+	}
+}
@@ -16,23 +16,25 @@
 package com.github.erroraway.sonarqube;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.tools.DiagnosticListener;
 import javax.tools.JavaCompiler;
-import javax.tools.JavaCompiler.CompilationTask;
 import javax.tools.JavaFileObject;
-import javax.tools.StandardJavaFileManager;
-import javax.tools.StandardLocation;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,11 +52,10 @@ import org.sonar.java.classpath.ClasspathForMain;
 
 import com.github.erroraway.ErrorAwayException;
 import com.github.erroraway.rules.ErrorAwayRulesMapping;
-import com.google.errorprone.BugCheckerInfo;
+import com.github.erroraway.sonarqube.ErrorAwayPhaseReport.Phase;
 import com.google.errorprone.ErrorProneJavaCompiler;
 import com.google.errorprone.ErrorProneOptions;
 import com.google.errorprone.bugpatterns.BugChecker;
-import com.google.errorprone.scanner.BuiltInCheckerSuppliers;
 import com.google.errorprone.scanner.ScannerSupplier;
 
 /**
@@ -63,65 +64,216 @@ import com.google.errorprone.scanner.ScannerSupplier;
  */
 public class ErrorAwaySensor implements Sensor {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwaySensor.class);
+	private static final int REPORTED_CHECKERS = 20;
+	private static final int REPORTED_FILES = 10;
+	private static final long AUTO_BATCH_BYTES_PER_FILE = 1024L * 1024L;
 
 	private ErrorAwayDependencyManager dependencyManager;
+	private ErrorAwayJarPool jarPool;
 	private TempFolder tempFolder;
 
-	public ErrorAwaySensor(ErrorAwayDependencyManager dependencyManager, TempFolder tempFolder) {
+	public ErrorAwaySensor(ErrorAwayDependencyManager dependencyManager, ErrorAwayJarPool jarPool, TempFolder tempFolder) {
 		this.dependencyManager = dependencyManager;
+		this.jarPool = jarPool;
 		this.tempFolder = tempFolder;
 	}
 
 	@Override
 	public void execute(SensorContext context) {
-		List<Class<? extends BugChecker>> checkers = new ArrayList<>();
+		// Built-in and plugin checkers of the active rules
+		List<Class<? extends BugChecker>> checkers = ErrorAwayCheckerIndex.load().activeCheckers(context.activeRules());
 
-		// Built-in checkers
-		addErrorProneCheckers(context, checkers, BuiltInCheckerSuppliers.ENABLED_WARNINGS);
-		addErrorProneCheckers(context, checkers, BuiltInCheckerSuppliers.ENABLED_ERRORS);
+		// Compiler options
+		List<String> errorProneArgs = buildErrorProneArgs(context);
+		ErrorProneOptions errorProneOptions = ErrorProneOptions.processArgs(errorProneArgs);
+		List<String> javacOptions = buildJavacOptions(context.config());
+
+		// Setup the compiler and analyze the code
+		ScannerSupplier scannerSupplier = ScannerSupplier.fromBugCheckerClasses(checkers).applyOverrides(errorProneOptions);
+		JavaCompiler javaCompiler = new ErrorProneJavaCompiler(scannerSupplier);
 
-		// Plugin checkers
-		Iterator<BugChecker> checkersIterator = ErrorAwayRulesMapping.pluginCheckers();
+		FileSystem fs = context.fileSystem();
+		Configuration configuration = context.config();
 
-		while (checkersIterator.hasNext()) {
-			BugChecker bugChecker = checkersIterator.next();
+		LOGGER.info("Starting project analysis with encoding {} and base dir {}, plugin version is: {}, java version is {}", fs.encoding(), fs.baseDir(), getVersion(), Runtime.version());
 
-			if (isCheckerActive(context, bugChecker)) {
-				checkers.add(bugChecker.getClass());
+		List<InputFile> inputFiles = buildInputFiles(context);
+		ErrorAwayCheckerReport checkerReport = new ErrorAwayCheckerReport();
+		ErrorAwayPhaseReport phaseReport = new ErrorAwayPhaseReport();
+		Collection<File> annotationProcessorPath = buildAnnotationProcessorPath(configuration);
+		ClasspathForMain classpathForMain = new ClasspathForMain(configuration, fs);
+		Collection<File> classpath = buildClasspath(configuration, classpathForMain);
+		ErrorAwayClasspathIndex classpathIndex = buildClasspathIndex(configuration, classpath);
+
+		if (configuration.getBoolean(ErrorAwayPluginConstants.CLASSPATH_STUBS).orElse(false).booleanValue()) {
+			// The annotation processors read the parameter names of the dependencies, and javac loads them from the classpath
+			// when there is no processor path
+			if (!annotationProcessorPath.isEmpty() || classpath.stream().anyMatch(classpathIndex::isAnnotationProcessor)) {
+				LOGGER.info("The classpath is not stubbed because the analysis runs annotation processors");
+			} else if (javacOptions.contains("-parameters")) {
+				LOGGER.info("The classpath is not stubbed because javac reads the parameter names of the dependencies");
+			} else {
+				classpath = ErrorAwayClasspathStubs.stub(classpath, ErrorAwayPluginConstants.errorAwayHome(configuration).resolve("stubs"));
+				classpathIndex = buildClasspathIndex(configuration, classpath);
 			}
 		}
 
-		// Compiler options
-		ErrorProneOptions errorProneOptions = buildErrorProneOptions(context);
-		List<String> javacOptions = buildJavacOptions();
+		Collection<File> prunedClasspath = configuration.getBoolean(ErrorAwayPluginConstants.CLASSPATH_PRUNING).orElse(false).booleanValue()
+				? ErrorAwayClasspathPruner.prune(classpath, classpathIndex, inputFiles, annotationProcessorPath.isEmpty())
+				: null;
+		boolean useClasspathIndex = configuration.getBoolean(ErrorAwayPluginConstants.CLASSPATH_INDEX).orElse(true).booleanValue();
+		long outputMemoryBytes = configuration.getInt(ErrorAwayPluginConstants.OUTPUT_MEMORY_MB).orElse(64) * 1024L * 1024L;
+
+		ErrorAwayClassDataSharing classDataSharing = configuration.getBoolean(ErrorAwayPluginConstants.ANALYSIS_FORK_CLASS_DATA_SHARING).orElse(false).booleanValue()
+				? new ErrorAwayClassDataSharing(ErrorAwayPluginConstants.errorAwayHome(configuration).resolve("cds"), ErrorAwayForkedCompiler.workerClasspath(), forkJvmOptions(configuration))
+				: null;
+		ErrorAwayDaemon daemon = configuration.getBoolean(ErrorAwayPluginConstants.ANALYSIS_DAEMON).orElse(false).booleanValue()
+				? daemon(configuration, checkers, classDataSharing)
+				: null;
+		if (daemon != null && !daemon.healthCheck()) {
+			LOGGER.warn("The analysis daemon is not available, the analysis runs without it");
+			daemon = null;
+		}
 
-		// Setup the compiler and analyze the code
-		ScannerSupplier scannerSupplier = ScannerSupplier.fromBugCheckerClasses(checkers).applyOverrides(errorProneOptions);
-		JavaCompiler compiler = new ErrorProneJavaCompiler(scannerSupplier);
+		// The worker JVM is only started by the first javac task
+		ErrorAwayForkedCompiler forkedCompiler = daemon != null || configuration.getBoolean(ErrorAwayPluginConstants.ANALYSIS_FORK).orElse(false).booleanValue()
+				? new ErrorAwayForkedCompiler(checkers.stream().map(Class::getName).toList(), errorProneArgs, fs.encoding(), javacOptions, classpath, prunedClasspath,
+						useClasspathIndex ? classpathIndexFile(configuration) : null, annotationProcessorPath, tempFolder, outputMemoryBytes, forkJvmOptions(configuration),
+						configuration.getInt(ErrorAwayPluginConstants.ANALYSIS_FORK_WORKERS).orElse(1), daemon, classDataSharing, checkerReport, phaseReport)
+				: null;
+		ErrorAwayTaskCompiler compiler = forkedCompiler != null ? forkedCompiler
+				: new ErrorAwayCompiler(javaCompiler, fs.encoding(), javacOptions, classpath, prunedClasspath, useClasspathIndex ? classpathIndex : null, jarPool,
+						annotationProcessorPath, tempFolder, outputMemoryBytes, checkerReport, phaseReport);
+
+		List<String> fingerprintParts = new ArrayList<>();
+		fingerprintParts.add(getVersion());
+		checkers.stream().map(Class::getName).sorted().forEach(fingerprintParts::add);
+		fingerprintParts.addAll(errorProneArgs);
+		fingerprintParts.addAll(javacOptions);
+		ErrorAwayAnalysisCache analysisCache = new ErrorAwayAnalysisCache(context, ErrorAwayAnalysisCache.fingerprint(fingerprintParts, classpath));
+
+		ErrorAwayIssueWriter issueWriter = new ErrorAwayIssueWriter(context, configuration.getInt(ErrorAwayPluginConstants.ISSUE_QUEUE_SIZE).orElse(10_000));
+		ErrorAwayDiagnosticListener diagnosticListener = new ErrorAwayDiagnosticListener(context, analysisCache, inputFiles, issueWriter);
+		List<InputFile> changedFiles = new ArrayList<>();
+		List<InputFile> filesToScan = new ArrayList<>();
+		ErrorAwayMemoryController memoryController = new ErrorAwayMemoryController(configuration.getInt(ErrorAwayPluginConstants.ANALYSIS_MEMORY_THRESHOLD).orElse(80));
+
+		// The issues are saved by the writer thread, closing the writer waits until they are all saved
+		try (issueWriter; memoryController; forkedCompiler) {
+			// Replay the issues of the unchanged files and only analyze the others
+			for (InputFile inputFile : inputFiles) {
+				List<ErrorAwayIssue> cachedIssues = analysisCache.cachedIssues(inputFile);
+
+				if (cachedIssues == null) {
+					changedFiles.add(inputFile);
+				} else {
+					cachedIssues.forEach(diagnosticListener::saveIssue);
+				}
+			}
+
+			if (changedFiles.size() < inputFiles.size()) {
+				LOGGER.info("Reused the cached issues of {} unchanged files, analyzing {} files", inputFiles.size() - changedFiles.size(), changedFiles.size());
+			}
+
+			// The cache and the reports are written even when all the issues were replayed
+			if (!changedFiles.isEmpty()) {
+				filesToScan.addAll(filesToScan(context, changedFiles, inputFiles));
+			}
+			if (!filesToScan.isEmpty()) {
+				analyze(compiler, configuration, filesToScan, inputFiles, classpathForMain.getBinaryDirs(), memoryController, diagnosticListener);
+			}
+		}
 
-		DiagnosticListener<? super JavaFileObject> diagnosticListener = new ErrorAwayDiagnosticListener(context);
+		// The files skipped by the prefilter are not cached, they are filtered again with the next settings
+		analysisCache.write(filesToScan);
 
-		Iterable<String> classes = Collections.emptyList();
+		if (prunedClasspath != null) {
+			LOGGER.info("{} tasks were run again with the full classpath because the pruned classpath missed a class", compiler.prunedClasspathFallbacks());
+		}
 
-		FileSystem fs = context.fileSystem();
+		phaseReport.addPhase(Phase.SAVE_ISSUES, diagnosticListener.saveIssuesNanos());
+		issueWriter.log();
+		memoryController.log();
+		writeReports(checkerReport, phaseReport, diagnosticListener.issueCounts(), fs);
+	}
 
-		LOGGER.info("Starting project analysis with encoding {} and base dir {}, plugin version is: {}, java version is {}", fs.encoding(), fs.baseDir(), getVersion(), Runtime.version());
+	/**
+	 * @param compiler
+	 *            The compiler
+	 * @param configuration
+	 *            The project configuration
+	 * @param filesToAnalyze
+	 *            The files to analyze
+	 * @param inputFiles
+	 *            All the main files, the files that are not analyzed are resolved from the source path
+	 * @param binaryDirs
+	 *            The folders of the compiled main files, used instead of the source path by the batches
+	 * @param memoryController
+	 *            Adapts the size of the batches to the heap, the tasks running out of memory are run again with fewer files
+	 * @param diagnosticListener
+	 *            The listener
+	 */
+	private void analyze(ErrorAwayTaskCompiler compiler, Configuration configuration, List<InputFile> filesToAnalyze, List<InputFile> inputFiles,
+			List<File> binaryDirs, ErrorAwayMemoryController memoryController, ErrorAwayDiagnosticListener diagnosticListener) {
+		int batchSize = batchSize(configuration);
+
+		if (batchSize > 0 && filesToAnalyze.size() > batchSize) {
+			compileBatches(compiler, filesToAnalyze, inputFiles, binaryDirs, batchSize, memoryController, diagnosticListener);
+			return;
+		}
 
-		try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnosticListener, Locale.getDefault(), fs.encoding())) {
-			Iterable<? extends JavaFileObject> compilationUnits = buildCompilationUnits(context);
+		// Like the shards, the sources generated in one cluster would not be visible from the other clusters
+		if (compiler instanceof ErrorAwayForkedCompiler forkedCompiler && forkedCompiler.workerCount() > 1 && !compiler.hasAnnotationProcessors()) {
+			compileClusters(forkedCompiler, filesToAnalyze, inputFiles, binaryDirs, memoryController, diagnosticListener);
+			return;
+		}
+
+		int shards = shardCount(configuration, compiler, filesToAnalyze.size());
 
-			configureClasspath(fileManager, context.config(), fs);
-			configureAnnotationProcessors(fileManager, context.config());
-			configureOutputFolders(fileManager);
+		if (shards > 1) {
+			compileShards(compiler, filesToAnalyze, inputFiles, shards, shardThreads(configuration, shards), memoryController, diagnosticListener);
+		} else {
+			// One task, split in batches only if it runs out of memory
+			Collection<File> sourcePath = ErrorAwaySourcePath.sourceRoots(inputFiles);
 
-			CompilationTask task = compiler.getTask(null, fileManager, diagnosticListener, javacOptions, classes, compilationUnits);
-			task.call();
-		} catch (IOException e) {
-			throw new ErrorAwayException("Error analyzing project", e);
+			memoryController.forEachBatch(filesToAnalyze, filesToAnalyze.size(), batchFiles -> compileBatch(compiler, batchFiles,
+					batchFiles.size() < inputFiles.size() ? sourcePath : Collections.emptyList(), memoryController, diagnosticListener.forInputFiles(batchFiles)));
 		}
 	}
 
-	private ErrorProneOptions buildErrorProneOptions(SensorContext context) {
+	/**
+	 * The files that cannot raise an issue for the active rules are not compilation units, javac reads them from the
+	 * source path when the other files reference them
+	 */
+	private static List<InputFile> filesToScan(SensorContext context, List<InputFile> changedFiles, List<InputFile> inputFiles) {
+		if (!context.config().getBoolean(ErrorAwayPluginConstants.PREFILTER).orElse(false).booleanValue()) {
+			return changedFiles;
+		}
+
+		ErrorAwayRuleTriggers ruleTriggers = ErrorAwayRuleTriggers.of(context.activeRules(), context.config());
+		if (ruleTriggers == null) {
+			return changedFiles;
+		}
+
+		List<InputFile> filesToScan = ruleTriggers.filter(changedFiles, inputFiles);
+		LOGGER.info("Scanning {} of {} files, the other files cannot raise an issue for the active rules", filesToScan.size(), changedFiles.size());
+
+		return filesToScan;
+	}
+
+	private void writeReports(ErrorAwayCheckerReport checkerReport, ErrorAwayPhaseReport phaseReport, Map<String, Long> issueCounts, FileSystem fs) {
+		Path baseDir = fs.baseDir() != null ? fs.baseDir().toPath() : null;
+
+		checkerReport.log(issueCounts, REPORTED_CHECKERS);
+		phaseReport.log(baseDir, REPORTED_FILES);
+
+		if (fs.workDir() != null) {
+			checkerReport.write(issueCounts, fs.workDir().toPath().resolve(ErrorAwayCheckerReport.REPORT_FILE_NAME));
+			phaseReport.write(baseDir, fs.workDir().toPath().resolve(ErrorAwayPhaseReport.REPORT_FILE_NAME));
+		}
+	}
+
+	private List<String> buildErrorProneArgs(SensorContext context) {
 		Configuration configuration = context.config();
 		List<String> options = new ArrayList<>();
 
@@ -148,12 +300,18 @@ public class ErrorAwaySensor implements Sensor {
 			}
 		}
 
-		return ErrorProneOptions.processArgs(options);
+		return options;
 	}
 
-	private List<String> buildJavacOptions() {
+	private List<String> buildJavacOptions(Configuration configuration) {
 		List<String> options = new ArrayList<>();
 
+		// Error Prone scans the compilation units once javac's flow analysis is done, the desugaring and bytecode
+		// generation that would follow are wasted work as we never read the class files
+		if (configuration.getBoolean(ErrorAwayPluginConstants.ANALYSIS_ONLY).orElse(true).booleanValue()) {
+			options.add("-XDshould-stop.ifNoError=FLOW");
+		}
+
 		// By default javac gives up after 100 errors
 		// Surely in the future we'll have programs with more bugs, but we are limited
 		// by the technology of our time
@@ -166,55 +324,289 @@ public class ErrorAwaySensor implements Sensor {
 		return options;
 	}
 
-	private boolean isCheckerActive(SensorContext context, BugChecker bugChecker) {
-		RuleKey ruleKey = ErrorAwayRulesDefinition.ruleKey(bugChecker.getClass());
-
-		return context.activeRules().find(ruleKey) != null;
-	}
-
-	private Iterable<? extends JavaFileObject> buildCompilationUnits(SensorContext context) {
+	private List<InputFile> buildInputFiles(SensorContext context) {
 		FileSystem fs = context.fileSystem();
 		FilePredicates p = fs.predicates();
 
-		List<JavaFileObject> paths = new ArrayList<>();
+		List<InputFile> inputFiles = new ArrayList<>();
 		// javaResourceLocator.classpath() does not give test dependencies so we only analyze the main files
 		for (InputFile inputFile : fs.inputFiles(p.and(p.hasType(Type.MAIN), p.hasLanguage("java")))) {
+			inputFiles.add(inputFile);
+		}
+
+		return inputFiles;
+	}
+
+	private List<JavaFileObject> buildCompilationUnits(Collection<InputFile> inputFiles) {
+		List<JavaFileObject> paths = new ArrayList<>();
+
+		for (InputFile inputFile : inputFiles) {
 			paths.add(new InputFileJavaFileObject(inputFile));
 		}
 
 		return paths;
 	}
 
-	private void configureClasspath(StandardJavaFileManager fileManager, Configuration configuration, FileSystem fs) throws IOException {
-		ClasspathForMain classpathForMain = new ClasspathForMain(configuration, fs);
+	private Collection<File> buildClasspath(Configuration configuration, ClasspathForMain classpathForMain) {
 		Collection<File> classpath = new ArrayList<>(classpathForMain.getElements());
 		if (configuration.hasKey(ErrorAwayPluginConstants.CLASS_PATH_MAVEN_COORDINATES)) {
 			String[] coordinates = configuration.getStringArray(ErrorAwayPluginConstants.CLASS_PATH_MAVEN_COORDINATES);
 			classpath.addAll(dependencyManager.downloadDependencies(coordinates));
 		}
 
-		fileManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+		return classpath;
+	}
+
+	/**
+	 * The packages of the jars are saved in the Sonar user home for the next analyses
+	 */
+	private ErrorAwayClasspathIndex buildClasspathIndex(Configuration configuration, Collection<File> classpath) {
+		return ErrorAwayClasspathIndex.load(classpath, classpathIndexFile(configuration));
+	}
+
+	private static Path classpathIndexFile(Configuration configuration) {
+		return ErrorAwayPluginConstants.errorAwayHome(configuration).resolve("classpath.index");
+	}
+
+	private static ErrorAwayDaemon daemon(Configuration configuration, List<Class<? extends BugChecker>> checkers, ErrorAwayClassDataSharing classDataSharing) {
+		long idleTimeoutSeconds = configuration.getInt(ErrorAwayPluginConstants.ANALYSIS_DAEMON_IDLE_TIMEOUT).orElse(1800);
+
+		// The daemon uses the archive created by a forked analysis, it is not created by the daemon which exits on its own
+		List<String> jvmOptions = new ArrayList<>(forkJvmOptions(configuration));
+		if (classDataSharing != null) {
+			jvmOptions.addAll(classDataSharing.archiveOptions());
+		}
+
+		return new ErrorAwayDaemon(ErrorAwayPluginConstants.errorAwayHome(configuration).resolve("daemons"), checkers.stream().map(Class::getName).toList(), jvmOptions, idleTimeoutSeconds);
+	}
+
+	private static List<String> forkJvmOptions(Configuration configuration) {
+		String options = configuration.get(ErrorAwayPluginConstants.ANALYSIS_FORK_JVM_OPTIONS).orElse("").trim();
+
+		return options.isEmpty() ? List.of() : List.of(options.split("\\s+"));
 	}
 
-	private void configureAnnotationProcessors(StandardJavaFileManager fileManager, Configuration configuration) throws IOException {
+	private Collection<File> buildAnnotationProcessorPath(Configuration configuration) {
 		if (configuration.hasKey(ErrorAwayPluginConstants.ANNOTATION_PROCESSORS_MAVEN_COORDINATES)) {
 			String[] coordinates = configuration.getStringArray(ErrorAwayPluginConstants.ANNOTATION_PROCESSORS_MAVEN_COORDINATES);
-			Collection<File> annotationProcessors = dependencyManager.downloadDependencies(coordinates);
 
-			fileManager.setLocation(StandardLocation.ANNOTATION_PROCESSOR_PATH, annotationProcessors);
+			return dependencyManager.downloadDependencies(coordinates);
+		}
+
+		return Collections.emptyList();
+	}
+
+	private int shardCount(Configuration configuration, ErrorAwayTaskCompiler compiler, int filesCount) {
+		int shards = configuration.getInt(ErrorAwayPluginConstants.ANALYSIS_SHARDS).orElse(1);
+
+		if (shards <= 0) {
+			shards = Runtime.getRuntime().availableProcessors();
+		}
+
+		if (shards > 1 && compiler.hasAnnotationProcessors()) {
+			// Sources generated in one shard would not be visible from the other shards
+			LOGGER.info("Annotation processors are configured, analyzing all the files in a single shard");
+			return 1;
+		}
+
+		return Math.min(shards, filesCount);
+	}
+
+	private int shardThreads(Configuration configuration, int shards) {
+		long heapPerShard = configuration.getInt(ErrorAwayPluginConstants.ANALYSIS_SHARD_HEAP_MB).orElse(512) * 1024L * 1024L;
+		long maxShards = Math.max(1, Runtime.getRuntime().maxMemory() / Math.max(1, heapPerShard));
+
+		return (int) Math.min(shards, maxShards);
+	}
+
+	/**
+	 * Split the files in shards of neighbour files and analyze each shard with its own javac task, the files that are
+	 * not in a shard are available from the source path for symbols resolution. A shard running out of memory is
+	 * analyzed again in smaller batches
+	 */
+	private void compileShards(ErrorAwayTaskCompiler compiler, List<InputFile> filesToAnalyze, List<InputFile> inputFiles, int shards, int threads,
+			ErrorAwayMemoryController memoryController, ErrorAwayDiagnosticListener diagnosticListener) {
+		List<InputFile> sortedFiles = new ArrayList<>(filesToAnalyze);
+		sortedFiles.sort(Comparator.comparing(InputFile::uri));
+
+		Collection<File> sourcePath = ErrorAwaySourcePath.sourceRoots(inputFiles);
+
+		LOGGER.info("Analyzing {} files in {} shards with {} threads", sortedFiles.size(), shards, threads);
+
+		List<Runnable> tasks = new ArrayList<>();
+		for (int shard = 0; shard < shards; shard++) {
+			List<InputFile> shardFiles = sortedFiles.subList(shard * sortedFiles.size() / shards, (shard + 1) * sortedFiles.size() / shards);
+
+			tasks.add(() -> memoryController.forEachBatch(shardFiles, shardFiles.size(),
+					batchFiles -> compileBatch(compiler, batchFiles, sourcePath, memoryController, diagnosticListener.forInputFiles(batchFiles))));
 		}
+
+		runInParallel(tasks, threads);
 	}
 
-	private void configureOutputFolders(StandardJavaFileManager fileManager) throws IOException {
-		fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singletonList(tempFolder.newDir("sourceOutput")));
-		fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(tempFolder.newDir("classOutput")));
+	/**
+	 * Analyze each cluster of packages depending on each other in one of the worker JVMs, the issues are reported once
+	 * all the clusters are analyzed in the order of the clusters so that they do not depend on the scheduling. A cluster
+	 * running out of memory is analyzed again in smaller batches
+	 */
+	private void compileClusters(ErrorAwayForkedCompiler compiler, List<InputFile> filesToAnalyze, List<InputFile> inputFiles, List<File> binaryDirs,
+			ErrorAwayMemoryController memoryController, ErrorAwayDiagnosticListener diagnosticListener) {
+		List<List<InputFile>> clusters = ErrorAwaySourceClusters.cluster(filesToAnalyze, compiler.workerCount());
+		Collection<File> sourcePath = otherFilesSourcePath(inputFiles, binaryDirs);
+
+		LOGGER.info("Analyzing {} files in {} clusters with {} worker JVMs", filesToAnalyze.size(), clusters.size(), compiler.workerCount());
+
+		List<ErrorAwayDeferredDiagnosticListener> clusterListeners = new ArrayList<>();
+		List<Runnable> tasks = new ArrayList<>();
+		for (List<InputFile> clusterFiles : clusters) {
+			ErrorAwayDeferredDiagnosticListener clusterListener = new ErrorAwayDeferredDiagnosticListener();
+
+			clusterListeners.add(clusterListener);
+			tasks.add(() -> memoryController.forEachBatch(clusterFiles, clusterFiles.size(), batchFiles -> compileBatch(compiler, batchFiles, sourcePath, memoryController,
+					clusterListener)));
+		}
+
+		runInParallel(tasks, compiler.workerCount());
+
+		for (int i = 0; i < clusters.size(); i++) {
+			clusterListeners.get(i).replay(diagnosticListener.forInputFiles(clusters.get(i)));
+		}
 	}
 
-	private void addErrorProneCheckers(SensorContext context, List<Class<? extends BugChecker>> checkers, Set<BugCheckerInfo> checkersInfos) {
-		for (BugCheckerInfo bugCheckerInfo : checkersInfos) {
-			if (context.activeRules().find(ErrorAwayRulesDefinition.errorProneRuleKey(bugCheckerInfo)) != null) {
-				checkers.add(bugCheckerInfo.checkerClass());
+	private static void runInParallel(List<Runnable> tasks, int threads) {
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ShardThreadFactory());
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+
+			for (Runnable task : tasks) {
+				futures.add(executor.submit(task));
+			}
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			} else if (e.getCause() instanceof Error error) {
+				throw error;
 			}
+			throw new ErrorAwayException("Error analyzing project", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ErrorAwayException("Interrupted while analyzing project", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return The number of files of each batch, 0 to analyze all the files at once
+	 */
+	private static int batchSize(Configuration configuration) {
+		String batchSize = configuration.get(ErrorAwayPluginConstants.ANALYSIS_BATCH_SIZE).orElse("0").trim();
+
+		if (batchSize.equalsIgnoreCase("auto")) {
+			// A quarter of the heap for the trees and symbols of the batch
+			return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 4 / AUTO_BATCH_BYTES_PER_FILE));
+		}
+
+		try {
+			int size = Integer.parseInt(batchSize);
+
+			if (size >= 0) {
+				return size;
+			}
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+
+		throw new ErrorAwayException("Invalid batch size " + batchSize + ", expected a number of files or auto");
+	}
+
+	/**
+	 * Analyze the files with one javac task per batch of neighbour files so that the memory used does not depend on the
+	 * size of the module. The other files are read from the binaries of the module, which javac loads much faster and
+	 * with less memory than the sources. The batches are shrunk by the memory controller when the heap runs low
+	 */
+	private void compileBatches(ErrorAwayTaskCompiler compiler, List<InputFile> filesToAnalyze, List<InputFile> inputFiles, List<File> binaryDirs, int batchSize,
+			ErrorAwayMemoryController memoryController, ErrorAwayDiagnosticListener diagnosticListener) {
+		List<InputFile> sortedFiles = new ArrayList<>(filesToAnalyze);
+		sortedFiles.sort(Comparator.comparing(InputFile::uri));
+
+		Collection<File> sourcePath = otherFilesSourcePath(inputFiles, binaryDirs);
+
+		LOGGER.info("Analyzing {} files in batches of {} files", sortedFiles.size(), batchSize);
+
+		memoryController.forEachBatch(sortedFiles, batchSize,
+				batchFiles -> compileBatch(compiler, batchFiles, sourcePath, memoryController, diagnosticListener.forInputFiles(batchFiles)));
+	}
+
+	/**
+	 * @return The source path of the tasks analyzing a part of the module, empty when the other files are read from the
+	 *         binaries of the module which are on the classpath
+	 */
+	private static Collection<File> otherFilesSourcePath(List<InputFile> inputFiles, List<File> binaryDirs) {
+		if (binaryDirs.stream().anyMatch(File::isDirectory)) {
+			return Collections.emptyList();
+		}
+
+		LOGGER.warn("The binaries of the module were not found, the files analyzed by the other tasks are read from the source path");
+		return ErrorAwaySourcePath.sourceRoots(inputFiles);
+	}
+
+	/**
+	 * @param listener
+	 *            The listener receiving the diagnostics, once the batch was analyzed when it can be analyzed again
+	 * @return <code>false</code> if the batch ran out of memory, its issues are not reported so that it can be analyzed
+	 *         again
+	 */
+	private boolean compileBatch(ErrorAwayTaskCompiler compiler, List<InputFile> batchFiles, Collection<File> sourcePath, ErrorAwayMemoryController memoryController,
+			DiagnosticListener<? super JavaFileObject> listener) {
+		if (!memoryController.canRetry(batchFiles)) {
+			// The issues are saved while javac runs
+			try {
+				compiler.compile(buildCompilationUnits(batchFiles), sourcePath, listener);
+			} catch (RuntimeException | OutOfMemoryError e) {
+				if (ErrorAwayMemoryController.isOutOfMemory(e)) {
+					LOGGER.debug("Out of memory analyzing a batch of {} files", batchFiles.size(), e);
+					return false;
+				}
+				throw e;
+			}
+
+			return true;
+		}
+
+		ErrorAwayDeferredDiagnosticListener deferredListener = new ErrorAwayDeferredDiagnosticListener();
+
+		try {
+			compiler.compile(buildCompilationUnits(batchFiles), sourcePath, deferredListener);
+		} catch (RuntimeException | OutOfMemoryError e) {
+			if (ErrorAwayMemoryController.isOutOfMemory(e)) {
+				LOGGER.debug("Out of memory analyzing a batch of {} files", batchFiles.size(), e);
+				return false;
+			}
+			throw e;
+		}
+
+		if (deferredListener.anyMatch(ErrorAwayMemoryController::isOutOfMemory)) {
+			return false;
+		}
+
+		deferredListener.replay(listener);
+		return true;
+	}
+
+	private static final class ShardThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "erroraway-shard-" + count.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
 		}
 	}
 
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+
+/**
+ * Splits the files of a module in clusters of closely coupled files: the packages referencing each other, directly or
+ * not, are the strongly connected components of the package dependency graph and always end up in the same cluster. The
+ * components are then spread over the clusters so that they have about the same number of files. The clusters only
+ * depend on the files, not on the order they are given in.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public final class ErrorAwaySourceClusters {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwaySourceClusters.class);
+
+	private ErrorAwaySourceClusters() {
+	}
+
+	/**
+	 * @param inputFiles
+	 *            The files to split
+	 * @param count
+	 *            The maximum number of clusters
+	 * @return The non empty clusters, the files of each cluster are sorted by URI and the clusters by the URI of their
+	 *         first file
+	 */
+	public static List<List<InputFile>> cluster(Collection<InputFile> inputFiles, int count) {
+		Map<String, List<InputFile>> filesByPackage = new TreeMap<>();
+		for (InputFile inputFile : inputFiles) {
+			filesByPackage.computeIfAbsent(ErrorAwaySourcePath.packageName(inputFile), p -> new ArrayList<>()).add(inputFile);
+		}
+
+		Map<String, Set<String>> dependencies = dependencies(filesByPackage);
+		List<List<InputFile>> components = new ArrayList<>();
+		for (List<String> component : stronglyConnectedComponents(dependencies)) {
+			List<InputFile> componentFiles = new ArrayList<>();
+			component.forEach(packageName -> componentFiles.addAll(filesByPackage.get(packageName)));
+			componentFiles.sort(Comparator.comparing(InputFile::uri));
+
+			components.add(componentFiles);
+		}
+
+		// The largest components first, each one goes to the smallest cluster
+		components.sort(Comparator.<List<InputFile>> comparingInt(List::size).reversed().thenComparing(component -> component.get(0).uri()));
+
+		List<List<InputFile>> clusters = new ArrayList<>();
+		for (int i = 0; i < Math.max(1, count); i++) {
+			clusters.add(new ArrayList<>());
+		}
+
+		for (List<InputFile> component : components) {
+			clusters.stream().min(Comparator.comparingInt(List::size)).orElseThrow().addAll(component);
+		}
+
+		clusters.removeIf(List::isEmpty);
+		clusters.forEach(cluster -> cluster.sort(Comparator.comparing(InputFile::uri)));
+		clusters.sort(Comparator.comparing(cluster -> cluster.get(0).uri()));
+
+		LOGGER.debug("Split {} packages in {} components and {} clusters of {} files", filesByPackage.size(), components.size(), clusters.size(),
+				clusters.stream().map(List::size).toList());
+
+		return clusters;
+	}
+
+	/**
+	 * @return The packages of the module referenced by the files of each package, from the imports and the qualified
+	 *         names
+	 */
+	private static Map<String, Set<String>> dependencies(Map<String, List<InputFile>> filesByPackage) {
+		Map<String, Set<String>> dependencies = new TreeMap<>();
+
+		for (Map.Entry<String, List<InputFile>> entry : filesByPackage.entrySet()) {
+			Set<String> referencedNames = new HashSet<>();
+			entry.getValue().forEach(inputFile -> ErrorAwayClasspathPruner.addReferencedPackages(inputFile, referencedNames));
+
+			Set<String> packageDependencies = new HashSet<>();
+			for (String referencedName : referencedNames) {
+				if (!referencedName.equals(entry.getKey()) && filesByPackage.containsKey(referencedName)) {
+					packageDependencies.add(referencedName);
+				}
+			}
+
+			dependencies.put(entry.getKey(), packageDependencies);
+		}
+
+		return dependencies;
+	}
+
+	/**
+	 * Kosaraju's algorithm, iterative so that long dependency chains do not overflow the stack
+	 */
+	private static List<List<String>> stronglyConnectedComponents(Map<String, Set<String>> dependencies) {
+		// Packages by decreasing finish time of a depth first search
+		Deque<String> finished = new ArrayDeque<>();
+		Set<String> visited = new HashSet<>();
+		for (String root : dependencies.keySet()) {
+			depthFirst(root, dependencies, visited, finished::push);
+		}
+
+		Map<String, Set<String>> reversed = new HashMap<>();
+		dependencies.keySet().forEach(packageName -> reversed.put(packageName, new HashSet<>()));
+		dependencies.forEach((packageName, packageDependencies) -> packageDependencies.forEach(dependency -> reversed.get(dependency).add(packageName)));
+
+		List<List<String>> components = new ArrayList<>();
+		visited.clear();
+		for (String root : finished) {
+			if (!visited.contains(root)) {
+				List<String> component = new ArrayList<>();
+				depthFirst(root, reversed, visited, component::add);
+				components.add(component);
+			}
+		}
+
+		return components;
+	}
+
+	private static void depthFirst(String root, Map<String, Set<String>> graph, Set<String> visited, Consumer<String> onFinish) {
+		if (!visited.add(root)) {
+			return;
+		}
+
+		// Each frame is a package and the dependencies left to visit
+		Deque<Map.Entry<String, Deque<String>>> stack = new ArrayDeque<>();
+		stack.push(Map.entry(root, new ArrayDeque<>(graph.get(root))));
+
+		while (!stack.isEmpty()) {
+			Deque<String> next = stack.peek().getValue();
+
+			if (next.isEmpty()) {
+				onFinish.accept(stack.pop().getKey());
+			} else {
+				String dependency = next.pop();
+
+				if (visited.add(dependency)) {
+					stack.push(Map.entry(dependency, new ArrayDeque<>(graph.get(dependency))));
+				}
+			}
+		}
+	}
+}
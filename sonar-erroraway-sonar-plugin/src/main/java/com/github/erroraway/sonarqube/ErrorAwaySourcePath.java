@@ -0,0 +1,114 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+
+/**
+ * Finds the source roots of input files so that javac can resolve the files that are not compilation units from its
+ * source path.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public final class ErrorAwaySourcePath {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ErrorAwaySourcePath.class);
+
+	private static final Pattern PACKAGE_PATTERN = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;");
+	private static final Pattern TYPE_DECLARATION_PATTERN = Pattern.compile("^\\s*(import|(public\\s+|abstract\\s+|final\\s+)*(class|interface|enum|record|@interface))\\b");
+
+	private ErrorAwaySourcePath() {
+	}
+
+	/**
+	 * @param inputFiles
+	 *            The Java input files
+	 * @return The distinct source roots of the files, files whose folder does not match their package are ignored
+	 */
+	public static Set<File> sourceRoots(Collection<InputFile> inputFiles) {
+		Set<File> roots = new LinkedHashSet<>();
+
+		for (InputFile inputFile : inputFiles) {
+			File root = sourceRoot(inputFile);
+
+			if (root != null) {
+				roots.add(root);
+			}
+		}
+
+		return roots;
+	}
+
+	static File sourceRoot(InputFile inputFile) {
+		String packageName = packageName(inputFile);
+		Path folder = inputFile.path().toAbsolutePath().getParent();
+
+		if (!packageName.isEmpty()) {
+			Path packagePath = Path.of("", packageName.split("\\."));
+
+			if (!folder.endsWith(packagePath)) {
+				LOGGER.debug("The folder of {} does not match its package {}", inputFile, packageName);
+				return null;
+			}
+
+			for (int i = 0; i < packagePath.getNameCount(); i++) {
+				folder = folder.getParent();
+			}
+		}
+
+		return folder.toFile();
+	}
+
+	/**
+	 * Read the package declaration without parsing the whole file: reading stops at the first import or type declaration
+	 *
+	 * @param inputFile
+	 *            The Java file
+	 * @return The package of the file or an empty string for the default package
+	 */
+	public static String packageName(InputFile inputFile) {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputFile.inputStream(), inputFile.charset()))) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				Matcher matcher = PACKAGE_PATTERN.matcher(line);
+
+				if (matcher.find()) {
+					return matcher.group(1);
+				}
+
+				if (TYPE_DECLARATION_PATTERN.matcher(line).find()) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.debug("Error reading the package of {}", inputFile, e);
+		}
+
+		return "";
+	}
+}
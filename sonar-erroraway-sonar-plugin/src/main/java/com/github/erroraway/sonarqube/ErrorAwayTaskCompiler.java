@@ -0,0 +1,53 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.File;
+import java.util.Collection;
+
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileObject;
+
+/**
+ * Runs javac tasks with Error Prone, in the scanner JVM or in worker JVMs. The tasks can run concurrently as long as
+ * they each get their own compilation units.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public interface ErrorAwayTaskCompiler {
+
+	/**
+	 * @param compilationUnits
+	 *            The files to analyze
+	 * @param sourcePath
+	 *            The source roots of the files that are not part of the compilation units but that javac may need to
+	 *            resolve symbols, empty when all the files are compilation units
+	 * @param diagnosticListener
+	 *            The listener receiving javac and Error Prone diagnostics
+	 */
+	void compile(Collection<? extends JavaFileObject> compilationUnits, Collection<File> sourcePath, DiagnosticListener<? super JavaFileObject> diagnosticListener);
+
+	/**
+	 * @return <code>true</code> if the tasks run annotation processors from a processor path
+	 */
+	boolean hasAnnotationProcessors();
+
+	/**
+	 * @return The number of tasks that were run again with the full classpath
+	 */
+	int prunedClasspathFallbacks();
+}
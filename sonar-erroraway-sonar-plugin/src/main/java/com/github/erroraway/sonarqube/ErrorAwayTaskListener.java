@@ -0,0 +1,156 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.erroraway.sonarqube.ErrorAwayPhaseReport.Phase;
+import com.google.errorprone.ErrorProneTimings;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+/**
+ * Measures the time spent in each compilation phase of a javac task. Error Prone scans a compilation unit when the
+ * analyze event of its last class is finished, this listener is registered after Error Prone so the time spent by the
+ * checkers is measured from the Error Prone timings and removed from the attribute and flow phase.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public class ErrorAwayTaskListener implements TaskListener {
+	private final ErrorAwayPhaseReport report;
+	private final ErrorProneTimings timings;
+	private final Map<Object, Long> fileStarts = new HashMap<>();
+	private final Map<Object, Long> checkerStarts = new HashMap<>();
+	private final Map<TaskEvent.Kind, Integer> activePhases = new EnumMap<>(TaskEvent.Kind.class);
+	private final Map<TaskEvent.Kind, Long> phaseStarts = new EnumMap<>(TaskEvent.Kind.class);
+
+	/**
+	 * @param report
+	 *            The report collecting the timings of all the tasks
+	 * @param timings
+	 *            The Error Prone timings of the task, may be <code>null</code> in which case the checkers time is part of
+	 *            the attribute and flow phase
+	 */
+	public ErrorAwayTaskListener(ErrorAwayPhaseReport report, ErrorProneTimings timings) {
+		this.report = report;
+		this.timings = timings;
+	}
+
+	@Override
+	public void started(TaskEvent e) {
+		switch (e.getKind()) {
+		case PARSE, GENERATE:
+			fileStarts.put(key(e), System.nanoTime());
+			break;
+		case ANALYZE:
+			checkerStarts.put(key(e), checkersNanos());
+			fileStarts.put(key(e), System.nanoTime());
+			break;
+		case ENTER, ANNOTATION_PROCESSING:
+			// These events are nested or overlap for all the files, only the whole phase is measured
+			if (activePhases.merge(e.getKind(), 1, Integer::sum) == 1) {
+				phaseStarts.put(e.getKind(), System.nanoTime());
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	@Override
+	public void finished(TaskEvent e) {
+		switch (e.getKind()) {
+		case PARSE:
+			fileFinished(e, Phase.PARSE);
+			break;
+		case GENERATE:
+			fileFinished(e, Phase.GENERATE);
+			break;
+		case ANALYZE:
+			analyzeFinished(e);
+			break;
+		case ENTER:
+			phaseFinished(e.getKind(), Phase.ENTER);
+			break;
+		case ANNOTATION_PROCESSING:
+			phaseFinished(e.getKind(), Phase.ANNOTATION_PROCESSING);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void fileFinished(TaskEvent e, Phase phase) {
+		Long start = fileStarts.remove(key(e));
+
+		if (start != null && e.getSourceFile() != null) {
+			report.addFile(e.getSourceFile().toUri(), phase, System.nanoTime() - start);
+		}
+	}
+
+	private void analyzeFinished(TaskEvent e) {
+		Object key = key(e);
+		Long start = fileStarts.remove(key);
+		Long checkersStart = checkerStarts.remove(key);
+
+		if (start == null || e.getSourceFile() == null) {
+			return;
+		}
+
+		long elapsed = System.nanoTime() - start;
+		long checkers = Math.min(elapsed, Math.max(0, checkersNanos() - checkersStart));
+
+		report.addFile(e.getSourceFile().toUri(), Phase.ATTRIBUTE_AND_FLOW, elapsed - checkers);
+		report.addFile(e.getSourceFile().toUri(), Phase.ERROR_PRONE, checkers);
+	}
+
+	private void phaseFinished(TaskEvent.Kind kind, Phase phase) {
+		Integer active = activePhases.get(kind);
+
+		if (active == null) {
+			return;
+		}
+
+		if (active == 1) {
+			activePhases.remove(kind);
+			report.addPhase(phase, System.nanoTime() - phaseStarts.remove(kind));
+		} else {
+			activePhases.put(kind, active - 1);
+		}
+	}
+
+	private long checkersNanos() {
+		if (timings == null) {
+			return 0;
+		}
+
+		long nanos = 0;
+		for (Duration duration : timings.timings().values()) {
+			nanos += duration.toNanos();
+		}
+
+		return nanos;
+	}
+
+	private static Object key(TaskEvent e) {
+		// Classes are analyzed and generated one by one, files are parsed one by one
+		return e.getTypeElement() != null ? e.getTypeElement() : e.getSourceFile().toUri();
+	}
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.URI;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+import org.sonar.api.utils.TempFolder;
+
+import com.github.erroraway.ErrorAwayException;
+import com.github.erroraway.sonarqube.ErrorAwayPhaseReport.Phase;
+import com.github.erroraway.sonarqube.ErrorAwayWorkerProtocol.Message;
+import com.github.erroraway.sonarqube.ErrorAwayWorkerProtocol.Request;
+import com.google.errorprone.ErrorProneJavaCompiler;
+import com.google.errorprone.ErrorProneOptions;
+import com.google.errorprone.bugpatterns.BugChecker;
+import com.google.errorprone.scanner.ScannerSupplier;
+
+/**
+ * The main class of the JVM forked to run the javac tasks out of the scanner process. The worker accepts requests on a
+ * loopback port until the parent closes its standard input, each request is a javac task whose diagnostics and timings
+ * are streamed back to the parent.
+ * <p>
+ * Started with <code>--daemon &lt;socket file&gt; &lt;idle timeout in seconds&gt;</code> the worker is a daemon
+ * shared by the scans of the machine: it accepts requests on a Unix domain socket, outlives the scanner which started
+ * it and exits once it did not receive any request for the idle timeout.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public final class ErrorAwayWorker {
+	/**
+	 * The jars are shared by the tasks of all the requests
+	 */
+	private static final ErrorAwayJarPool JAR_POOL = new ErrorAwayJarPool();
+
+	private static final String BYTE_ORDER_MARK = "\uFEFF";
+
+	private final String token;
+	private final boolean daemon;
+	private int runningTasks;
+	private long lastActivity = System.nanoTime();
+	private boolean exiting;
+
+	private ErrorAwayWorker(String token, boolean daemon) {
+		this.token = token;
+		this.daemon = daemon;
+	}
+
+	public static void main(String[] args) throws IOException {
+		String token = System.getenv(ErrorAwayWorkerProtocol.TOKEN_ENV);
+		if (token == null) {
+			throw new ErrorAwayException("The " + ErrorAwayWorkerProtocol.TOKEN_ENV + " environment variable must be set");
+		}
+
+		if (args.length == 3 && args[0].equals("--daemon")) {
+			new ErrorAwayWorker(token, true).runDaemon(Path.of(args[1]), Duration.ofSeconds(Long.parseLong(args[2])));
+		} else if (args.length == 0) {
+			new ErrorAwayWorker(token, false).run();
+		} else {
+			throw new ErrorAwayException("Usage: ErrorAwayWorker [--daemon <socket file> <idle timeout in seconds>]");
+		}
+	}
+
+	private void run() throws IOException {
+		try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+			serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			startDaemonThread(ErrorAwayWorker::exitWithParent, "erroraway-worker-parent");
+
+			System.out.println(ErrorAwayWorkerProtocol.PORT_PREFIX + ((InetSocketAddress) serverChannel.getLocalAddress()).getPort());
+			System.out.flush();
+
+			accept(serverChannel);
+		}
+	}
+
+	private void runDaemon(Path socketFile, Duration idleTimeout) throws IOException {
+		try (ServerSocketChannel serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			serverChannel.bind(UnixDomainSocketAddress.of(socketFile));
+			startDaemonThread(() -> exitWhenIdle(socketFile, idleTimeout), "erroraway-worker-idle");
+
+			System.out.println("Analysis daemon listening on " + socketFile + ", idle timeout " + idleTimeout);
+			System.out.flush();
+
+			accept(serverChannel);
+		}
+	}
+
+	private void accept(ServerSocketChannel serverChannel) throws IOException {
+		while (true) {
+			SocketChannel channel = serverChannel.accept();
+			taskStarted();
+
+			// The shards of a module send their requests concurrently
+			startDaemonThread(() -> {
+				try {
+					serve(channel);
+				} finally {
+					taskFinished();
+				}
+			}, "erroraway-worker-task");
+		}
+	}
+
+	private static void startDaemonThread(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * The parent closes the standard input of the worker when it no longer needs it, or when it exits
+	 */
+	private static void exitWithParent() {
+		try {
+			System.in.transferTo(OutputStream.nullOutputStream());
+		} catch (IOException e) {
+			// The parent is gone
+		}
+
+		JAR_POOL.stop();
+		System.exit(0);
+	}
+
+	private synchronized void taskStarted() {
+		runningTasks++;
+	}
+
+	private synchronized void taskFinished() {
+		runningTasks--;
+		lastActivity = System.nanoTime();
+
+		// The jars of the projects analyzed by a daemon are not kept open between the scans, they may be updated
+		if (daemon && runningTasks == 0) {
+			JAR_POOL.stop();
+		}
+	}
+
+	private void exitWhenIdle(Path socketFile, Duration idleTimeout) {
+		while (true) {
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			synchronized (this) {
+				if (exiting && runningTasks == 0) {
+					// The connections made before the socket file was deleted were accepted and served
+					JAR_POOL.stop();
+					System.exit(0);
+				}
+
+				if (!exiting && runningTasks == 0 && System.nanoTime() - lastActivity > idleTimeout.toNanos()) {
+					System.out.println("Analysis daemon idle for " + idleTimeout + ", exiting");
+
+					try {
+						// The next scan starts a new daemon once the socket file is gone, the server channel is closed
+						// by the exit since closing it would end the main thread first
+						Files.deleteIfExists(socketFile);
+					} catch (IOException e) {
+						System.err.println("Error deleting " + socketFile + ": " + e);
+					}
+
+					// A client may have connected just before the socket file was deleted, the daemon exits at the next
+					// check once its request is served
+					exiting = true;
+				}
+			}
+		}
+	}
+
+	private void serve(SocketChannel channel) {
+		try (channel) {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			Message message = ErrorAwayWorkerProtocol.readMessage(input);
+
+			if (!token.equals(message.token())) {
+				ErrorAwayWorkerProtocol.writeFailure(output, "Invalid token", false);
+				output.flush();
+				return;
+			}
+
+			try {
+				int prunedClasspathFallbacks = message instanceof Request request ? compile(request, output) : 0;
+				ErrorAwayWorkerProtocol.writeEnd(output, prunedClasspathFallbacks);
+			} catch (RuntimeException | Error e) {
+				StringWriter stackTrace = new StringWriter();
+				e.printStackTrace(new PrintWriter(stackTrace));
+
+				ErrorAwayWorkerProtocol.writeFailure(output, stackTrace.toString(), ErrorAwayMemoryController.isOutOfMemory(e));
+			}
+
+			output.flush();
+		} catch (IOException e) {
+			// The parent stopped reading, e.g. after a compilation error
+			System.err.println("Error serving request: " + e);
+		}
+	}
+
+	/**
+	 * @return The number of times the task was run again with the full classpath
+	 */
+	private static int compile(Request request, DataOutputStream output) {
+		Charset encoding = Charset.forName(request.encoding());
+		Collection<File> classpath = files(request.classpath());
+		ErrorAwayClasspathIndex classpathIndex = request.classpathIndexFile() != null ? ErrorAwayClasspathIndex.load(classpath, Path.of(request.classpathIndexFile())) : null;
+
+		ErrorProneOptions errorProneOptions = ErrorProneOptions.processArgs(request.errorProneArgs());
+		ScannerSupplier scannerSupplier = ScannerSupplier.fromBugCheckerClasses(checkers(request.checkers())).applyOverrides(errorProneOptions);
+
+		ErrorAwayCompiler compiler = new ErrorAwayCompiler(new ErrorProneJavaCompiler(scannerSupplier), encoding, request.javacOptions(), classpath,
+				request.prunedClasspath() != null ? files(request.prunedClasspath()) : null, classpathIndex, JAR_POOL, files(request.annotationProcessorPath()),
+				new WorkerTempFolder(Path.of(request.tempDir())), request.outputMemoryBytes(), new WorkerCheckerReport(output), new WorkerPhaseReport(output));
+
+		List<JavaFileObject> compilationUnits = new ArrayList<>();
+		for (String uri : request.compilationUnits()) {
+			compilationUnits.add(new SourceFileObject(URI.create(uri), encoding));
+		}
+
+		compiler.compile(compilationUnits, files(request.sourcePath()), diagnostic -> send(output, () -> ErrorAwayWorkerProtocol.writeDiagnostic(output, diagnostic)));
+
+		return compiler.prunedClasspathFallbacks();
+	}
+
+	/**
+	 * A record written to the parent
+	 */
+	private interface Record {
+		void write() throws IOException;
+	}
+
+	private static void send(DataOutputStream output, Record record) {
+		try {
+			synchronized (output) {
+				record.write();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static List<Class<? extends BugChecker>> checkers(List<String> names) {
+		List<Class<? extends BugChecker>> checkers = new ArrayList<>();
+
+		for (String name : names) {
+			try {
+				checkers.add(Class.forName(name).asSubclass(BugChecker.class));
+			} catch (ClassNotFoundException e) {
+				throw new ErrorAwayException("Checker not found " + name, e);
+			}
+		}
+
+		return checkers;
+	}
+
+	private static List<File> files(List<String> paths) {
+		return paths.stream().map(File::new).toList();
+	}
+
+	/**
+	 * A source file read by the worker, its URI is the one of the input file of the parent
+	 */
+	private static final class SourceFileObject extends SimpleJavaFileObject {
+		private final Charset encoding;
+
+		SourceFileObject(URI uri, Charset encoding) {
+			super(uri, Kind.SOURCE);
+			this.encoding = encoding;
+		}
+
+		@Override
+		public InputStream openInputStream() throws IOException {
+			return Files.newInputStream(Path.of(uri));
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+			// Like InputFile.contents(), the malformed bytes are replaced and the byte order mark is removed
+			String content = new String(Files.readAllBytes(Path.of(uri)), encoding);
+
+			return content.startsWith(BYTE_ORDER_MARK) ? content.substring(1) : content;
+		}
+	}
+
+	/**
+	 * Sends the checkers timings of the tasks to the parent
+	 */
+	private static final class WorkerCheckerReport extends ErrorAwayCheckerReport {
+		private final DataOutputStream output;
+
+		WorkerCheckerReport(DataOutputStream output) {
+			this.output = output;
+		}
+
+		@Override
+		public void addTask(Map<String, Duration> checkerTimings, Duration initializationTime, Duration taskWallTime, Duration taskCpuTime) {
+			send(output, () -> ErrorAwayWorkerProtocol.writeTaskTimings(output, checkerTimings, initializationTime, taskWallTime, taskCpuTime));
+		}
+	}
+
+	/**
+	 * Sends the compilation phases timings of the tasks to the parent
+	 */
+	private static final class WorkerPhaseReport extends ErrorAwayPhaseReport {
+		private final DataOutputStream output;
+
+		WorkerPhaseReport(DataOutputStream output) {
+			this.output = output;
+		}
+
+		@Override
+		public void addPhase(Phase phase, long nanos) {
+			send(output, () -> ErrorAwayWorkerProtocol.writePhase(output, null, phase, nanos));
+		}
+
+		@Override
+		public void addFile(URI file, Phase phase, long nanos) {
+			send(output, () -> ErrorAwayWorkerProtocol.writePhase(output, file, phase, nanos));
+		}
+	}
+
+	/**
+	 * The folder given by the parent, deleted by the parent at the end of the analysis
+	 */
+	private static final class WorkerTempFolder implements TempFolder {
+		private final Path root;
+
+		WorkerTempFolder(Path root) {
+			this.root = root;
+		}
+
+		@Override
+		public File newDir() {
+			try {
+				return Files.createTempDirectory(Files.createDirectories(root), "dir").toFile();
+			} catch (IOException e) {
+				throw new ErrorAwayException("Error creating a folder in " + root, e);
+			}
+		}
+
+		@Override
+		public File newDir(String name) {
+			try {
+				return Files.createDirectories(root.resolve(name)).toFile();
+			} catch (IOException e) {
+				throw new ErrorAwayException("Error creating the folder " + name + " in " + root, e);
+			}
+		}
+
+		@Override
+		public File newFile() {
+			return newFile(null, null);
+		}
+
+		@Override
+		public File newFile(String prefix, String suffix) {
+			try {
+				return Files.createTempFile(Files.createDirectories(root), prefix, suffix).toFile();
+			} catch (IOException e) {
+				throw new ErrorAwayException("Error creating a file in " + root, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileObject;
+
+import com.github.erroraway.ErrorAwayException;
+import com.github.erroraway.sonarqube.ErrorAwayDeferredDiagnosticListener.DeferredDiagnostic;
+import com.github.erroraway.sonarqube.ErrorAwayPhaseReport.Phase;
+
+/**
+ * The messages exchanged with an analysis worker over a local socket: the parent sends one request per javac task and
+ * the worker streams back the diagnostics and the timings of the task as compact records, followed by an end or a
+ * failure record. A ping is answered by an end record, it checks that a daemon is alive and accepts the token.
+ *
+ * @author Guillaume Toison
+ *
+ */
+public final class ErrorAwayWorkerProtocol {
+	/**
+	 * The environment variable holding the secret the requests must start with
+	 */
+	public static final String TOKEN_ENV = "ERRORAWAY_WORKER_TOKEN";
+
+	/**
+	 * The prefix of the line printed by the worker once it accepts requests, followed by its port
+	 */
+	public static final String PORT_PREFIX = "erroraway.worker.port=";
+
+	private static final int VERSION = 4;
+
+	private static final byte TASK = 1;
+	private static final byte PING = 2;
+
+	private static final byte DIAGNOSTIC = 1;
+	private static final byte END = 2;
+	private static final byte FAILURE = 3;
+	private static final byte TASK_TIMINGS = 4;
+	private static final byte PHASE = 5;
+
+	private ErrorAwayWorkerProtocol() {
+	}
+
+	/**
+	 * A message sent to the worker
+	 */
+	public sealed interface Message permits Request, Ping {
+		String token();
+	}
+
+	/**
+	 * A javac task to run in the worker, the files are absolute paths and the compilation units are URIs
+	 *
+	 * @param prunedClasspath
+	 *            <code>null</code> to always use the full classpath
+	 * @param classpathIndexFile
+	 *            The file of the classpath index, <code>null</code> to let javac search all the classpath elements
+	 */
+	public record Request(String token, List<String> checkers, List<String> errorProneArgs, List<String> javacOptions, String encoding, List<String> classpath,
+			List<String> prunedClasspath, List<String> annotationProcessorPath, String classpathIndexFile, String tempDir, long outputMemoryBytes,
+			List<String> compilationUnits, List<String> sourcePath) implements Message {
+	}
+
+	/**
+	 * A health check
+	 */
+	public record Ping(String token) implements Message {
+	}
+
+	public static void writeRequest(DataOutputStream output, Request request) throws IOException {
+		output.writeInt(VERSION);
+		output.writeByte(TASK);
+		writeString(output, request.token());
+		writeStrings(output, request.checkers());
+		writeStrings(output, request.errorProneArgs());
+		writeStrings(output, request.javacOptions());
+		writeString(output, request.encoding());
+		writeStrings(output, request.classpath());
+		writeStrings(output, request.prunedClasspath());
+		writeStrings(output, request.annotationProcessorPath());
+		writeString(output, request.classpathIndexFile());
+		writeString(output, request.tempDir());
+		output.writeLong(request.outputMemoryBytes());
+		writeStrings(output, request.compilationUnits());
+		writeStrings(output, request.sourcePath());
+	}
+
+	public static void writePing(DataOutputStream output, String token) throws IOException {
+		output.writeInt(VERSION);
+		output.writeByte(PING);
+		writeString(output, token);
+	}
+
+	public static Message readMessage(DataInputStream input) throws IOException {
+		int version = input.readInt();
+		if (version != VERSION) {
+			throw new ErrorAwayException("Unsupported worker protocol version " + version);
+		}
+
+		byte kind = input.readByte();
+		return switch (kind) {
+		case TASK -> new Request(readString(input), readStrings(input), readStrings(input), readStrings(input), readString(input), readStrings(input),
+				readStrings(input), readStrings(input), readString(input), readString(input), input.readLong(), readStrings(input), readStrings(input));
+		case PING -> new Ping(readString(input));
+		default -> throw new ErrorAwayException("Unexpected worker message " + kind);
+		};
+	}
+
+	/**
+	 * @param output
+	 *            The stream to the parent
+	 * @param diagnostic
+	 *            A diagnostic reported by the task, the message is sent in english
+	 */
+	public static void writeDiagnostic(DataOutputStream output, Diagnostic<? extends JavaFileObject> diagnostic) throws IOException {
+		output.writeByte(DIAGNOSTIC);
+		writeString(output, diagnostic.getKind().name());
+		writeString(output, diagnostic.getSource() != null ? diagnostic.getSource().toUri().toString() : null);
+		output.writeLong(diagnostic.getPosition());
+		output.writeLong(diagnostic.getStartPosition());
+		output.writeLong(diagnostic.getEndPosition());
+		output.writeLong(diagnostic.getLineNumber());
+		output.writeLong(diagnostic.getColumnNumber());
+		writeString(output, diagnostic.getCode());
+		writeString(output, diagnostic.getMessage(Locale.ENGLISH));
+		writeString(output, diagnostic.toString());
+	}
+
+	/**
+	 * @param output
+	 *            The stream to the parent
+	 * @param checkerTimings
+	 *            The wall time of each checker in the task
+	 * @param initializationTime
+	 *            The time spent by Error Prone to instantiate the checkers
+	 * @param taskWallTime
+	 *            The wall time of the task
+	 * @param taskCpuTime
+	 *            The CPU time of the task, negative when it could not be measured
+	 */
+	public static void writeTaskTimings(DataOutputStream output, Map<String, Duration> checkerTimings, Duration initializationTime, Duration taskWallTime,
+			Duration taskCpuTime) throws IOException {
+		output.writeByte(TASK_TIMINGS);
+		output.writeInt(checkerTimings.size());
+		for (Map.Entry<String, Duration> checkerTiming : checkerTimings.entrySet()) {
+			writeString(output, checkerTiming.getKey());
+			output.writeLong(checkerTiming.getValue().toNanos());
+		}
+		output.writeLong(initializationTime.toNanos());
+		output.writeLong(taskWallTime.toNanos());
+		output.writeLong(taskCpuTime.toNanos());
+	}
+
+	/**
+	 * @param output
+	 *            The stream to the parent
+	 * @param file
+	 *            The file being compiled, <code>null</code> for a phase that is not specific to a file
+	 * @param phase
+	 *            The phase
+	 * @param nanos
+	 *            The time spent in the phase
+	 */
+	public static void writePhase(DataOutputStream output, URI file, Phase phase, long nanos) throws IOException {
+		output.writeByte(PHASE);
+		writeString(output, file != null ? file.toString() : null);
+		output.writeByte(phase.ordinal());
+		output.writeLong(nanos);
+	}
+
+	/**
+	 * @param output
+	 *            The stream to the parent
+	 * @param prunedClasspathFallbacks
+	 *            The number of times the task was run again with the full classpath
+	 */
+	public static void writeEnd(DataOutputStream output, int prunedClasspathFallbacks) throws IOException {
+		output.writeByte(END);
+		output.writeInt(prunedClasspathFallbacks);
+	}
+
+	/**
+	 * @param output
+	 *            The stream to the parent
+	 * @param message
+	 *            The description of the failure, e.g. a stack trace
+	 * @param outOfMemory
+	 *            <code>true</code> if the task ran out of memory, the parent can run it again with fewer files
+	 */
+	public static void writeFailure(DataOutputStream output, String message, boolean outOfMemory) throws IOException {
+		output.writeByte(FAILURE);
+		writeString(output, message);
+		output.writeBoolean(outOfMemory);
+	}
+
+	/**
+	 * Reads the diagnostics of a task until its end
+	 *
+	 * @param input
+	 *            The stream from the worker
+	 * @param compilationUnits
+	 *            The compilation units of the task by URI, the diagnostics on other files get a source only giving its
+	 *            URI and name
+	 * @param diagnosticListener
+	 *            The listener receiving the diagnostics as they arrive
+	 * @return The number of times the task was run again with the full classpath
+	 */
+	public static int readDiagnostics(DataInputStream input, Map<URI, JavaFileObject> compilationUnits, DiagnosticListener<? super JavaFileObject> diagnosticListener)
+			throws IOException {
+		return readDiagnostics(input, compilationUnits, diagnosticListener, null, null);
+	}
+
+	/**
+	 * Reads the diagnostics and the timings of a task until its end
+	 *
+	 * @param input
+	 *            The stream from the worker
+	 * @param compilationUnits
+	 *            The compilation units of the task by URI, the diagnostics on other files get a source only giving its
+	 *            URI and name
+	 * @param diagnosticListener
+	 *            The listener receiving the diagnostics as they arrive
+	 * @param checkerReport
+	 *            The report receiving the checkers timings, <code>null</code> to ignore them
+	 * @param phaseReport
+	 *            The report receiving the compilation phases timings, <code>null</code> to ignore them
+	 * @return The number of times the task was run again with the full classpath
+	 */
+	public static int readDiagnostics(DataInputStream input, Map<URI, JavaFileObject> compilationUnits, DiagnosticListener<? super JavaFileObject> diagnosticListener,
+			ErrorAwayCheckerReport checkerReport, ErrorAwayPhaseReport phaseReport) throws IOException {
+		while (true) {
+			byte type = input.readByte();
+
+			switch (type) {
+			case DIAGNOSTIC -> {
+				Diagnostic.Kind kind = Diagnostic.Kind.valueOf(readString(input));
+				String uri = readString(input);
+				JavaFileObject source = uri != null ? compilationUnits.computeIfAbsent(URI.create(uri), RemoteFileObject::new) : null;
+
+				diagnosticListener.report(new DeferredDiagnostic(kind, source, input.readLong(), input.readLong(), input.readLong(), input.readLong(), input.readLong(),
+						readString(input), readString(input), readString(input)));
+			}
+			case TASK_TIMINGS -> {
+				Map<String, Duration> checkerTimings = new HashMap<>();
+				int checkerCount = input.readInt();
+				for (int i = 0; i < checkerCount; i++) {
+					checkerTimings.put(readString(input), Duration.ofNanos(input.readLong()));
+				}
+				Duration initializationTime = Duration.ofNanos(input.readLong());
+				Duration taskWallTime = Duration.ofNanos(input.readLong());
+				Duration taskCpuTime = Duration.ofNanos(input.readLong());
+
+				if (checkerReport != null) {
+					checkerReport.addTask(checkerTimings, initializationTime, taskWallTime, taskCpuTime);
+				}
+			}
+			case PHASE -> {
+				String file = readString(input);
+				Phase phase = Phase.values()[input.readByte()];
+				long nanos = input.readLong();
+
+				if (phaseReport != null && file != null) {
+					phaseReport.addFile(URI.create(file), phase, nanos);
+				} else if (phaseReport != null) {
+					phaseReport.addPhase(phase, nanos);
+				}
+			}
+			case END -> {
+				return input.readInt();
+			}
+			case FAILURE -> {
+				String message = readString(input);
+
+				// The memory controller recognizes the out of memory error in the causes
+				throw new ErrorAwayException("The analysis worker failed: " + message, input.readBoolean() ? new OutOfMemoryError("The analysis worker ran out of memory") : null);
+			}
+			default -> throw new ErrorAwayException("Unexpected worker record " + type);
+			}
+		}
+	}
+
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		if (value == null) {
+			output.writeInt(-1);
+			return;
+		}
+
+		// writeUTF is limited to 64 KB, e.g. for the description of a crash
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static String readString(DataInputStream input) throws IOException {
+		int length = input.readInt();
+
+		return length < 0 ? null : new String(input.readNBytes(length), StandardCharsets.UTF_8);
+	}
+
+	private static void writeStrings(DataOutputStream output, List<String> values) throws IOException {
+		if (values == null) {
+			output.writeInt(-1);
+			return;
+		}
+
+		output.writeInt(values.size());
+		for (String value : values) {
+			writeString(output, value);
+		}
+	}
+
+	private static List<String> readStrings(DataInputStream input) throws IOException {
+		int size = input.readInt();
+		if (size < 0) {
+			return null;
+		}
+
+		List<String> values = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			values.add(readString(input));
+		}
+
+		return values;
+	}
+
+	/**
+	 * The source of a diagnostic on a file that is not a compilation unit, e.g. a file of the source path, only its URI
+	 * and name are known
+	 */
+	private record RemoteFileObject(URI uri) implements JavaFileObject {
+		@Override
+		public URI toUri() {
+			return uri;
+		}
+
+		@Override
+		public String getName() {
+			return uri.toString();
+		}
+
+		@Override
+		public InputStream openInputStream() {
+			throw new UnsupportedOperationException("The file was read by the analysis worker");
+		}
+
+		@Override
+		public OutputStream openOutputStream() {
+			throw new UnsupportedOperationException("The file was read by the analysis worker");
+		}
+
+		@Override
+		public Reader openReader(boolean ignoreEncodingErrors) {
+			throw new UnsupportedOperationException("The file was read by the analysis worker");
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			throw new UnsupportedOperationException("The file was read by the analysis worker");
+		}
+
+		@Override
+		public Writer openWriter() {
+			throw new UnsupportedOperationException("The file was read by the analysis worker");
+		}
+
+		@Override
+		public long getLastModified() {
+			return 0L;
+		}
+
+		@Override
+		public boolean delete() {
+			return false;
+		}
+
+		@Override
+		public Kind getKind() {
+			return uri.getPath() != null && uri.getPath().endsWith(Kind.SOURCE.extension) ? Kind.SOURCE : Kind.OTHER;
+		}
+
+		@Override
+		public boolean isNameCompatible(String simpleName, Kind kind) {
+			return false;
+		}
+
+		@Override
+		public NestingKind getNestingKind() {
+			return null;
+		}
+
+		@Override
+		public Modifier getAccessLevel() {
+			return null;
+		}
+	}
+}
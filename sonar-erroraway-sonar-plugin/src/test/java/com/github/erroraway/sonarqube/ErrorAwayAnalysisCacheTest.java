@@ -0,0 +1,65 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwayAnalysisCacheTest {
+
+	@TempDir
+	private Path tempDir;
+
+	@Test
+	void fingerprint() throws IOException {
+		Path jar = Files.write(tempDir.resolve("lib-1.0-SNAPSHOT.jar"), new byte[] { 1, 2, 3 });
+		Path classes = Files.createDirectories(tempDir.resolve("module/target/classes/com/module"));
+		Path moduleClass = Files.write(classes.resolve("A.class"), new byte[] { 1 });
+		List<File> classpath = List.of(jar.toFile(), tempDir.resolve("module/target/classes").toFile());
+
+		String fingerprint = ErrorAwayAnalysisCache.fingerprint(List.of("1.0"), classpath);
+		assertThat(ErrorAwayAnalysisCache.fingerprint(List.of("1.0"), classpath)).isEqualTo(fingerprint);
+		assertThat(ErrorAwayAnalysisCache.fingerprint(List.of("1.1"), classpath)).isNotEqualTo(fingerprint);
+
+		// A SNAPSHOT jar rebuilt with the same size
+		Files.write(jar, new byte[] { 4, 5, 6 });
+		Files.setLastModifiedTime(jar, FileTime.fromMillis(Files.getLastModifiedTime(jar).toMillis() + 10_000));
+		String rebuiltJarFingerprint = ErrorAwayAnalysisCache.fingerprint(List.of("1.0"), classpath);
+		assertThat(rebuiltJarFingerprint).isNotEqualTo(fingerprint);
+
+		// The classes of another module of the build compiled again
+		Files.setLastModifiedTime(moduleClass, FileTime.fromMillis(Files.getLastModifiedTime(moduleClass).toMillis() + 10_000));
+		String recompiledFingerprint = ErrorAwayAnalysisCache.fingerprint(List.of("1.0"), classpath);
+		assertThat(recompiledFingerprint).isNotEqualTo(rebuiltJarFingerprint);
+
+		Files.write(classes.resolve("B.class"), new byte[] { 1 });
+		Files.setLastModifiedTime(classes.resolve("B.class"), Files.getLastModifiedTime(moduleClass));
+		assertThat(ErrorAwayAnalysisCache.fingerprint(List.of("1.0"), classpath)).isNotEqualTo(recompiledFingerprint);
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.sonar.api.batch.rule.ActiveRule;
+import org.sonar.api.batch.rule.ActiveRules;
+import org.sonar.api.rule.RuleKey;
+
+import com.github.erroraway.rules.ErrorAwayRulesMapping;
+import com.google.errorprone.bugpatterns.time.DurationTemporalUnit;
+import com.uber.nullaway.NullAway;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwayCheckerIndexTest {
+
+	@Test
+	void allRulesIndexed() {
+		assertThat(ErrorAwayCheckerIndex.load().size()).isEqualTo(ErrorAwayRulesMapping.RULES_COUNT);
+	}
+
+	@Test
+	void activeCheckers() {
+		List<ActiveRule> errorProneRules = List.of(activeRule("errorprone", "DurationTemporalUnit"), activeRule("errorprone", "Removed"));
+		List<ActiveRule> nullAwayRules = List.of(activeRule("nullaway", "NullAway"));
+
+		ActiveRules activeRules = mock(ActiveRules.class);
+		when(activeRules.findByRepository(anyString())).thenReturn(List.of());
+		when(activeRules.findByRepository("errorprone")).thenReturn(errorProneRules);
+		when(activeRules.findByRepository("nullaway")).thenReturn(nullAwayRules);
+
+		assertThat(ErrorAwayCheckerIndex.load().activeCheckers(activeRules)).containsExactly(DurationTemporalUnit.class, NullAway.class);
+	}
+
+	private static ActiveRule activeRule(String repository, String rule) {
+		ActiveRule activeRule = mock(ActiveRule.class);
+		when(activeRule.ruleKey()).thenReturn(RuleKey.of(repository, rule));
+
+		return activeRule;
+	}
+}
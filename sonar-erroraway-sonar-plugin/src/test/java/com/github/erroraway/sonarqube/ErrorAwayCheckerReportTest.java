@@ -0,0 +1,45 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.erroraway.sonarqube.ErrorAwayCheckerReport.CheckerStatistics;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwayCheckerReportTest {
+
+	@Test
+	void mergeTasks() {
+		ErrorAwayCheckerReport report = new ErrorAwayCheckerReport();
+
+		report.addTask(Map.of("EqualsNaN", Duration.ofMillis(5), "NullTernary", Duration.ofMillis(2)), Duration.ZERO, Duration.ofMillis(10), Duration.ofMillis(8));
+		report.addTask(Map.of("NullTernary", Duration.ofMillis(7)), Duration.ZERO, Duration.ofMillis(10), Duration.ofNanos(-1));
+
+		assertThat(report.statistics(Map.of("EqualsNaN", 3L, "BadShiftAmount", 1L))).containsExactly(
+				new CheckerStatistics("NullTernary", Duration.ofMillis(9), 0),
+				new CheckerStatistics("EqualsNaN", Duration.ofMillis(5), 3),
+				new CheckerStatistics("BadShiftAmount", Duration.ZERO, 1));
+	}
+}
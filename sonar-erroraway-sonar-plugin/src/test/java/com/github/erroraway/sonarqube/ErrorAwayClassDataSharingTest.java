@@ -0,0 +1,148 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwayClassDataSharingTest {
+
+	@TempDir
+	private Path tempDir;
+
+	@Test
+	void createAndUseArchive() throws IOException, InterruptedException {
+		String jar = mainJar();
+		ErrorAwayClassDataSharing classDataSharing = new ErrorAwayClassDataSharing(tempDir.resolve("cds"), jar, List.of("-Xmx64m"));
+
+		List<String> trainingOptions = classDataSharing.jvmOptions();
+		assertThat(classDataSharing.isTraining(trainingOptions)).isTrue();
+		// A single worker creates the archive
+		assertThat(classDataSharing.jvmOptions()).isEmpty();
+
+		assertThat(launch(jar, trainingOptions)).doesNotContain("cds");
+		classDataSharing.workerStopped(trainingOptions, true);
+
+		assertThat(classDataSharing.archive()).isRegularFile();
+		List<String> archiveOptions = classDataSharing.jvmOptions();
+		assertThat(archiveOptions).containsExactly("-XX:SharedArchiveFile=" + classDataSharing.archive()).isEqualTo(classDataSharing.archiveOptions());
+		assertThat(classDataSharing.isTraining(archiveOptions)).isFalse();
+
+		// The JVM logs a warning when it cannot map the archive
+		assertThat(launch(jar, archiveOptions)).isEqualTo("javax.tools.JavaCompiler");
+	}
+
+	@Test
+	void workerFailed() throws IOException {
+		String jar = mainJar();
+		ErrorAwayClassDataSharing classDataSharing = new ErrorAwayClassDataSharing(tempDir.resolve("cds"), jar, List.of());
+
+		List<String> trainingOptions = classDataSharing.jvmOptions();
+		Path trainingArchive = Path.of(trainingOptions.get(0).substring(trainingOptions.get(0).indexOf('=') + 1));
+		Files.writeString(trainingArchive, "incomplete");
+		classDataSharing.workerStopped(trainingOptions, false);
+
+		assertThat(trainingArchive).doesNotExist();
+		assertThat(classDataSharing.archive()).doesNotExist();
+		assertThat(classDataSharing.archiveOptions()).isEmpty();
+		// Another worker tries again
+		assertThat(classDataSharing.isTraining(classDataSharing.jvmOptions())).isTrue();
+	}
+
+	@Test
+	void directoryClasspath() {
+		ErrorAwayClassDataSharing classDataSharing = new ErrorAwayClassDataSharing(tempDir.resolve("cds"), tempDir.toString(), List.of());
+
+		assertThat(classDataSharing.jvmOptions()).isEmpty();
+	}
+
+	@Test
+	void archivePerClasspathAndOptions() throws IOException {
+		String jar = mainJar();
+
+		assertThat(new ErrorAwayClassDataSharing(tempDir, jar, List.of()).archive()).isEqualTo(new ErrorAwayClassDataSharing(tempDir, jar, List.of()).archive())
+				.isNotEqualTo(new ErrorAwayClassDataSharing(tempDir, jar, List.of("-Xmx64m")).archive());
+	}
+
+	@Test
+	void archivePerJdk() throws IOException {
+		String jar = mainJar();
+		String javaHome = System.getProperty("java.home");
+		String key = ErrorAwayForkedCompiler.workerKey(Runtime.version().toString(), javaHome, jar, List.of());
+
+		assertThat(new ErrorAwayClassDataSharing(tempDir, jar, List.of()).archive()).isEqualTo(tempDir.resolve(key + ".jsa"));
+		// An archive dumped by another JDK, or by the same JDK home before an update, is rejected by the JVM
+		assertThat(ErrorAwayForkedCompiler.workerKey("17.0.1+12", javaHome, jar, List.of())).isNotEqualTo(key)
+				.isNotEqualTo(ErrorAwayForkedCompiler.workerKey("17.0.2+8", javaHome, jar, List.of()));
+		assertThat(ErrorAwayForkedCompiler.workerKey(Runtime.version().toString(), "/opt/other-jdk", jar, List.of())).isNotEqualTo(key);
+	}
+
+	private String mainJar() throws IOException {
+		Path source = Files.createDirectories(tempDir.resolve("src/app")).resolve("Main.java");
+		Files.writeString(source, "package app;\n\npublic class Main {\n	public static void main(String[] args) {\n		System.out.print(javax.tools.JavaCompiler.class.getName());\n	}\n}\n");
+		Path classDir = Files.createDirectories(tempDir.resolve("classes"));
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+			fileManager.setLocation(StandardLocation.CLASS_OUTPUT, List.of(classDir.toFile()));
+
+			assertThat(compiler.getTask(null, fileManager, null, null, null, fileManager.getJavaFileObjects(source)).call()).isTrue();
+		}
+
+		Path jar = tempDir.resolve("app.jar");
+		try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(jar))) {
+			output.putNextEntry(new JarEntry("app/Main.class"));
+			output.write(Files.readAllBytes(classDir.resolve("app/Main.class")));
+		}
+
+		return jar.toString();
+	}
+
+	private static String launch(String jar, List<String> options) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(options);
+		command.add("-cp");
+		command.add(jar);
+		command.add("app.Main");
+
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+		assertThat(process.waitFor()).as(output).isZero();
+
+		return output;
+	}
+}
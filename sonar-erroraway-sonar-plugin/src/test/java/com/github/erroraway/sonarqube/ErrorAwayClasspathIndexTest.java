@@ -0,0 +1,170 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static com.github.erroraway.sonarqube.ErrorAwayTestUtil.library;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.InputFile.Type;
+import org.sonar.api.utils.TempFolder;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwayClasspathIndexTest {
+
+	@TempDir
+	private Path tempDir;
+
+	private File baseJar;
+	private File childJar;
+	private File unusedJar;
+	private File classesDir;
+	private InputFile inputFile;
+
+	@BeforeEach
+	void setup() throws IOException {
+		baseJar = library(tempDir, "liba", "Base", "public class Base {\n	public int value() {\n		return 1;\n	}\n}\n", null);
+		childJar = library(tempDir, "libb", "Child", "public class Child extends liba.Base {\n}\n", baseJar);
+		unusedJar = library(tempDir, "unused", "Unused", "public class Unused {\n}\n", null);
+		classesDir = Files.createDirectories(tempDir.resolve("classes")).toFile();
+
+		Path source = tempDir.resolve("src/app/App.java");
+		Files.createDirectories(source.getParent());
+		Files.writeString(source, "package app;\n\nimport libb.Child;\n\npublic class App {\n	public int value(Child child) {\n		return child.value();\n	}\n}\n");
+		inputFile = new TestInputFile(source, Path.of("app/App.java"), StandardCharsets.UTF_8, Type.MAIN);
+	}
+
+	@Test
+	void classpathIndex() throws IOException {
+		List<File> classpath = List.of(baseJar, childJar, unusedJar, classesDir);
+		Path indexFile = tempDir.resolve("index/classpath.index");
+		ErrorAwayClasspathIndex classpathIndex = ErrorAwayClasspathIndex.load(classpath, indexFile);
+
+		assertThat(classpathIndex.entries("libb")).containsExactly(childJar, classesDir);
+		assertThat(classpathIndex.entries("java.util")).containsExactly(classesDir);
+		assertThat(classpathIndex.packages(baseJar)).containsExactly("liba");
+		assertThat(indexFile).isRegularFile();
+
+		// The classes are only looked for in the jars containing their package, the jars are read from the pool
+		ErrorAwayJarPool jarPool = new ErrorAwayJarPool();
+		List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+		compiler(classpath, null).compile(List.of(new InputFileJavaFileObject(inputFile)), List.of(), diagnostics::add);
+		compiler(classpath, jarPool).compile(List.of(new InputFileJavaFileObject(inputFile)), List.of(), diagnostics::add);
+		compiler(classpath, jarPool).compile(List.of(new InputFileJavaFileObject(inputFile)), List.of(), diagnostics::add);
+
+		assertThat(diagnostics).noneMatch(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR);
+		assertThat(jarPool.openJars()).isEqualTo(3);
+
+		jarPool.stop();
+		assertThat(jarPool.openJars()).isZero();
+	}
+
+	@Test
+	void changedJar() throws IOException {
+		List<File> classpath = List.of(baseJar);
+		assertThat(ErrorAwayClasspathIndex.load(classpath, null).packages(baseJar)).containsExactly("liba");
+
+		// The jar is rebuilt with another package, the packages kept in memory for its previous version are not used
+		try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(baseJar.toPath()))) {
+			output.putNextEntry(new JarEntry("libc/Base.class"));
+			output.putNextEntry(new JarEntry("libc/Other.class"));
+		}
+
+		assertThat(ErrorAwayClasspathIndex.load(classpath, null).packages(baseJar)).containsExactly("libc");
+	}
+
+	@Test
+	void boundedJarCache() throws IOException {
+		List<File> classpath = new ArrayList<>();
+		for (int i = 0; i < ErrorAwayClasspathIndex.MAX_CACHED_JARS + 10; i++) {
+			classpath.add(Files.createFile(tempDir.resolve("cached" + i + ".jar")).toFile());
+		}
+
+		ErrorAwayClasspathIndex.load(classpath, null);
+
+		assertThat(ErrorAwayClasspathIndex.cachedJars()).isEqualTo(ErrorAwayClasspathIndex.MAX_CACHED_JARS);
+	}
+
+	@Test
+	void resourceWithoutClasses() throws IOException {
+		File resourcesJar = tempDir.resolve("resources.jar").toFile();
+		try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(resourcesJar.toPath()))) {
+			output.putNextEntry(new JarEntry("liba/messages/errors.properties"));
+			output.write("missing=Missing value".getBytes(StandardCharsets.UTF_8));
+			output.putNextEntry(new JarEntry("liba/Base.class"));
+		}
+
+		List<File> classpath = List.of(resourcesJar);
+		ErrorAwayClasspathIndex classpathIndex = ErrorAwayClasspathIndex.load(classpath, null);
+		ErrorAwayJarPool jarPool = new ErrorAwayJarPool();
+
+		// The index only lists the packages containing classes
+		assertThat(classpathIndex.entries("liba.messages")).isEmpty();
+
+		try (StandardJavaFileManager fileManager = ToolProvider.getSystemJavaCompiler().getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+			fileManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+
+			try (ErrorAwayClasspathFileManager classpathFileManager = new ErrorAwayClasspathFileManager(fileManager, fileManager, classpathIndex, jarPool, classpath)) {
+				FileObject messages = classpathFileManager.getFileForInput(StandardLocation.CLASS_PATH, "liba.messages", "errors.properties");
+				assertThat(messages).isNotNull();
+				try (InputStream input = messages.openInputStream()) {
+					assertThat(input.readAllBytes()).asString(StandardCharsets.UTF_8).isEqualTo("missing=Missing value");
+				}
+
+				assertThat(classpathFileManager.getFileForInput(StandardLocation.CLASS_PATH, "liba.messages", "warnings.properties")).isNull();
+				assertThat(classpathFileManager.getFileForInput(StandardLocation.CLASS_PATH, "libb", "Child.class")).isNull();
+			}
+		} finally {
+			jarPool.stop();
+		}
+	}
+
+	private ErrorAwayCompiler compiler(List<File> classpath, ErrorAwayJarPool jarPool) {
+		TempFolder tempFolder = mock(TempFolder.class);
+		when(tempFolder.newDir(anyString())).thenAnswer(i -> Files.createDirectories(tempDir.resolve(i.getArgument(0, String.class))).toFile());
+
+		return new ErrorAwayCompiler(ToolProvider.getSystemJavaCompiler(), StandardCharsets.UTF_8, List.of(), classpath, null,
+				ErrorAwayClasspathIndex.load(classpath, null), jarPool, List.of(), tempFolder,
+				1024 * 1024, new ErrorAwayCheckerReport(), new ErrorAwayPhaseReport());
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static com.github.erroraway.sonarqube.ErrorAwayTestUtil.library;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.InputFile.Type;
+import org.sonar.api.utils.TempFolder;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwayClasspathPrunerTest {
+
+	@TempDir
+	private Path tempDir;
+
+	private File baseJar;
+	private File childJar;
+	private File unusedJar;
+	private File processorJar;
+	private File classesDir;
+	private InputFile inputFile;
+
+	@BeforeEach
+	void setup() throws IOException {
+		baseJar = library(tempDir, "liba", "Base", "public class Base {\n	public int value() {\n		return 1;\n	}\n}\n", null);
+		childJar = library(tempDir, "libb", "Child", "public class Child extends liba.Base {\n}\n", baseJar);
+		unusedJar = library(tempDir, "unused", "Unused", "public class Unused {\n}\n", null);
+		processorJar = library(tempDir, "proc", "Processor", "public class Processor {\n}\n", null);
+		try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(processorJar.toPath()))) {
+			output.putNextEntry(new JarEntry("META-INF/services/javax.annotation.processing.Processor"));
+			output.putNextEntry(new JarEntry("proc/Processor.class"));
+		}
+		classesDir = Files.createDirectories(tempDir.resolve("classes")).toFile();
+
+		Path source = tempDir.resolve("src/app/App.java");
+		Files.createDirectories(source.getParent());
+		Files.writeString(source, "package app;\n\nimport libb.Child;\n\npublic class App {\n	public int value(Child child) {\n		return child.value();\n	}\n}\n");
+		inputFile = new TestInputFile(source, Path.of("app/App.java"), StandardCharsets.UTF_8, Type.MAIN);
+	}
+
+	@Test
+	void prune() {
+		List<File> classpath = List.of(baseJar, childJar, unusedJar, processorJar, classesDir, tempDir.resolve("missing.jar").toFile());
+
+		ErrorAwayClasspathIndex classpathIndex = ErrorAwayClasspathIndex.load(classpath, null);
+
+		assertThat(ErrorAwayClasspathPruner.prune(classpath, classpathIndex, List.of(inputFile), true)).containsExactly(childJar, processorJar, classesDir);
+		assertThat(ErrorAwayClasspathPruner.prune(classpath, classpathIndex, List.of(inputFile), false)).containsExactly(childJar, classesDir);
+	}
+
+	@Test
+	void fallbackToFullClasspath() {
+		List<File> classpath = List.of(baseJar, childJar, unusedJar);
+
+		// The super class of Child is not referenced by the sources
+		ErrorAwayCompiler compiler = compiler(classpath, List.of(childJar));
+		List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+		compiler.compile(List.of(new InputFileJavaFileObject(inputFile)), List.of(), diagnostics::add);
+
+		assertThat(compiler.prunedClasspathFallbacks()).isEqualTo(1);
+		assertThat(diagnostics).noneMatch(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR);
+
+		compiler = compiler(classpath, List.of(baseJar, childJar));
+		compiler.compile(List.of(new InputFileJavaFileObject(inputFile)), List.of(), diagnostics::add);
+
+		assertThat(compiler.prunedClasspathFallbacks()).isZero();
+	}
+
+	private ErrorAwayCompiler compiler(List<File> classpath, List<File> prunedClasspath) {
+		TempFolder tempFolder = mock(TempFolder.class);
+		when(tempFolder.newDir(anyString())).thenAnswer(i -> Files.createDirectories(tempDir.resolve(i.getArgument(0, String.class))).toFile());
+
+		return new ErrorAwayCompiler(ToolProvider.getSystemJavaCompiler(), StandardCharsets.UTF_8, List.of(), classpath, prunedClasspath,
+				ErrorAwayClasspathIndex.load(classpath, null), null, List.of(), tempFolder,
+				1024 * 1024, new ErrorAwayCheckerReport(), new ErrorAwayPhaseReport());
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipFile;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwayClasspathStubsTest {
+
+	@TempDir
+	private Path tempDir;
+
+	@Test
+	void stub() throws IOException {
+		Path libraryClasses = compile("lib", List.of(), "lib/Library.java", """
+				package lib;
+
+				public class Library {
+					public static final String NAME = "library";
+
+					@Deprecated
+					public int compute(int value) {
+						int result = 0;
+						for (int i = 0; i < value; i++) {
+							result += i * value;
+						}
+						return result;
+					}
+				}
+				""");
+		File jar = jar("lib.jar", libraryClasses, "lib/Library.class");
+		File folder = tempDir.resolve("classes").toFile();
+		Path cacheDir = tempDir.resolve("stubs");
+
+		List<File> classpath = ErrorAwayClasspathStubs.stub(List.of(jar, folder), cacheDir);
+
+		assertThat(classpath).hasSize(2).endsWith(folder);
+		File stub = classpath.get(0);
+		assertThat(stub.toPath()).startsWith(cacheDir);
+		assertThat(stub.getName()).matches("[0-9a-f]{64}\\.jar");
+
+		try (ZipFile original = new ZipFile(jar); ZipFile stubbed = new ZipFile(stub)) {
+			assertThat(stubbed.getEntry("lib/Library.class").getSize()).isLessThan(original.getEntry("lib/Library.class").getSize());
+		}
+
+		// The constants and the signatures are still available
+		compile("app", List.of(stub), "app/App.java", """
+				package app;
+
+				public class App {
+					public static final String NAME = lib.Library.NAME;
+
+					public int compute(lib.Library library) {
+						return library.compute(1);
+					}
+				}
+				""");
+
+		// The stub is only written once
+		long lastModified = stub.lastModified();
+		assertThat(ErrorAwayClasspathStubs.stub(List.of(jar), cacheDir)).containsExactly(stub);
+		assertThat(stub.lastModified()).isEqualTo(lastModified);
+	}
+
+	@Test
+	void resources() throws IOException {
+		Path libraryClasses = compile("lib", List.of(), "lib/Library.java", "package lib;\n\npublic class Library {\n}\n");
+		Files.createDirectories(libraryClasses.resolve("META-INF/services"));
+		Files.writeString(libraryClasses.resolve("META-INF/MANIFEST.MF"), "Manifest-Version: 1.0\nAutomatic-Module-Name: lib\n");
+		Files.writeString(libraryClasses.resolve("META-INF/services/java.lang.Runnable"), "lib.Library\n");
+		Files.writeString(libraryClasses.resolve("META-INF/LIB.SF"), "Signature-Version: 1.0\n");
+		Files.writeString(libraryClasses.resolve("lib/library.properties"), "name=library\n");
+		File jar = jar("lib.jar", libraryClasses, "META-INF/MANIFEST.MF", "META-INF/LIB.SF", "META-INF/services/java.lang.Runnable", "lib/Library.class",
+				"lib/library.properties");
+
+		File stub = ErrorAwayClasspathStubs.stub(List.of(jar), tempDir.resolve("stubs")).get(0);
+
+		assertThat(stub).isNotEqualTo(jar);
+		try (JarFile stubbed = new JarFile(stub)) {
+			assertThat(stubbed.getManifest().getMainAttributes().getValue("Automatic-Module-Name")).isEqualTo("lib");
+			assertThat(stubbed.getInputStream(stubbed.getEntry("META-INF/services/java.lang.Runnable"))).hasContent("lib.Library");
+			assertThat(stubbed.getInputStream(stubbed.getEntry("lib/library.properties"))).hasContent("name=library");
+			assertThat(stubbed.getEntry("lib/Library.class")).isNotNull();
+
+			// The signature does not match the stubbed classes
+			assertThat(stubbed.getEntry("META-INF/LIB.SF")).isNull();
+		}
+	}
+
+	@Test
+	void manifestClassPath() throws IOException {
+		Path libraryClasses = compile("lib", List.of(), "lib/Library.java", "package lib;\n\npublic class Library {\n}\n");
+		Files.createDirectories(libraryClasses.resolve("META-INF"));
+		Files.writeString(libraryClasses.resolve("META-INF/MANIFEST.MF"), "Manifest-Version: 1.0\nClass-Path: other.jar\n");
+		File jar = jar("lib.jar", libraryClasses, "META-INF/MANIFEST.MF", "lib/Library.class");
+
+		// The Class-Path is relative to the location of the jar
+		assertThat(ErrorAwayClasspathStubs.stub(List.of(jar), tempDir.resolve("stubs"))).containsExactly(jar);
+	}
+
+	@Test
+	void multiReleaseJar() throws IOException {
+		Path libraryClasses = compile("lib", List.of(), "lib/Library.java", "package lib;\n\npublic class Library {\n}\n");
+		Files.createDirectories(libraryClasses.resolve("META-INF/versions/11/lib"));
+		Files.copy(libraryClasses.resolve("lib/Library.class"), libraryClasses.resolve("META-INF/versions/11/lib/Library.class"));
+		File jar = jar("multi.jar", libraryClasses, "lib/Library.class", "META-INF/versions/11/lib/Library.class");
+
+		assertThat(ErrorAwayClasspathStubs.stub(List.of(jar), tempDir.resolve("stubs"))).containsExactly(jar);
+	}
+
+	private Path compile(String name, List<File> classpath, String path, String source) throws IOException {
+		Path sourceFile = tempDir.resolve(name + "/src/" + path);
+		Path classDir = Files.createDirectories(tempDir.resolve(name + "/classes"));
+		Files.createDirectories(sourceFile.getParent());
+		Files.writeString(sourceFile, source);
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+			fileManager.setLocation(StandardLocation.CLASS_OUTPUT, List.of(classDir.toFile()));
+			fileManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+
+			assertThat(compiler.getTask(null, fileManager, null, null, null, fileManager.getJavaFileObjects(sourceFile)).call()).isTrue();
+		}
+
+		return classDir;
+	}
+
+	private File jar(String name, Path classDir, String... entries) throws IOException {
+		Path jar = tempDir.resolve(name);
+
+		try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(jar))) {
+			for (String entry : entries) {
+				output.putNextEntry(new JarEntry(entry));
+				output.write(Files.readAllBytes(classDir.resolve(entry)));
+			}
+		}
+
+		return jar.toFile();
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.event.Level;
+import org.sonar.api.utils.TempFolder;
+import org.sonar.api.testfixtures.log.LogAndArguments;
+import org.sonar.api.testfixtures.log.LogTesterJUnit5;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwayDaemonTest {
+	private static final List<String> CHECKERS = List.of("com.google.errorprone.bugpatterns.EqualsNaN");
+
+	@RegisterExtension
+	private LogTesterJUnit5 logTester = new LogTesterJUnit5();
+
+	@TempDir
+	private Path tempDir;
+
+	@Test
+	void key() {
+		assertThat(ErrorAwayDaemon.key(CHECKERS, List.of())).hasSize(16).isEqualTo(ErrorAwayDaemon.key(CHECKERS, List.of()))
+				.isNotEqualTo(ErrorAwayDaemon.key(List.of("com.google.errorprone.bugpatterns.ZoneIdOfZ"), List.of()))
+				.isNotEqualTo(ErrorAwayDaemon.key(CHECKERS, List.of("-Xmx1g")));
+	}
+
+	@Test
+	void reuseUntilIdle() throws IOException, InterruptedException {
+		ErrorAwayDaemon daemon = new ErrorAwayDaemon(tempDir, CHECKERS, List.of("-Xmx256m"), 2);
+		assertThat(daemon.healthCheck()).isTrue();
+		String token = daemon.token();
+
+		// Another scan with the same checkers connects to the running daemon
+		ErrorAwayDaemon otherScanDaemon = new ErrorAwayDaemon(tempDir, CHECKERS, List.of("-Xmx256m"), 2);
+		assertThat(otherScanDaemon.socketFile()).isEqualTo(daemon.socketFile());
+		assertThat(otherScanDaemon.healthCheck()).isTrue();
+		assertThat(otherScanDaemon.token()).isEqualTo(token);
+		assertThat(logTester.getLogs(Level.INFO).stream().map(LogAndArguments::getRawMsg).filter("Starting the analysis daemon {} with the options {}"::equals)).hasSize(1);
+
+		// The daemon deletes its socket when it exits
+		for (int i = 0; i < 300 && Files.exists(daemon.socketFile()); i++) {
+			Thread.sleep(100);
+		}
+		assertThat(daemon.socketFile()).doesNotExist();
+
+		// A new daemon is started on demand
+		assertThat(daemon.healthCheck()).isTrue();
+		assertThat(daemon.token()).isNotEqualTo(token);
+	}
+
+	@Test
+	void daemonKilledAfterHealthCheck() throws IOException {
+		// The daemon is killed once the task is connected, like a daemon exiting after its idle timeout
+		// The command line of a process may be truncated, the daemon of the test is found by an option before its classpath
+		String marker = "-Derroraway.test.daemon=" + tempDir;
+		AtomicBoolean kill = new AtomicBoolean();
+		AtomicBoolean killed = new AtomicBoolean();
+		ErrorAwayDaemon daemon = new ErrorAwayDaemon(tempDir, CHECKERS, List.of("-Xmx256m", marker), 10) {
+			@Override
+			public SocketChannel connect() throws IOException {
+				SocketChannel channel = super.connect();
+				if (kill.getAndSet(false)) {
+					killed.set(ErrorAwayTestUtil.kill(marker));
+				}
+
+				return channel;
+			}
+		};
+		assertThat(daemon.healthCheck()).isTrue();
+		kill.set(true);
+
+		Path source = Files.createDirectories(tempDir.resolve("src")).resolve("A.java");
+		Files.writeString(source, "class A {\n  boolean isNaN(double d) {\n    return d == Double.NaN;\n  }\n}\n");
+		TempFolder tempFolder = mock(TempFolder.class);
+		when(tempFolder.newDir(anyString())).thenAnswer(i -> Files.createDirectories(tempDir.resolve(i.getArgument(0, String.class))).toFile());
+
+		List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+		try (ErrorAwayForkedCompiler compiler = new ErrorAwayForkedCompiler(CHECKERS, List.of(), StandardCharsets.UTF_8, List.of(), List.of(), null, null, List.of(),
+				tempFolder, 1024 * 1024, List.of("-Xmx256m"), 1, daemon, null, new ErrorAwayCheckerReport(), new ErrorAwayPhaseReport());
+				StandardJavaFileManager fileManager = ToolProvider.getSystemJavaCompiler().getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+			List<JavaFileObject> compilationUnits = new ArrayList<>();
+			fileManager.getJavaFileObjects(source.toFile()).forEach(compilationUnits::add);
+
+			compiler.compile(compilationUnits, List.of(), diagnostics::add);
+		}
+
+		// The task is sent again to a new daemon, its issues are reported once
+		assertThat(killed).isTrue();
+		assertThat(diagnostics).filteredOn(diagnostic -> diagnostic.getMessage(Locale.ENGLISH).contains("[EqualsNaN]")).hasSize(1);
+		assertThat(logTester.getLogs(Level.WARN).stream().map(LogAndArguments::getRawMsg))
+				.contains("The analysis daemon {} stopped before the end of the task, running the task again");
+		assertThat(logTester.getLogs(Level.INFO).stream().map(LogAndArguments::getRawMsg).filter("Starting the analysis daemon {} with the options {}"::equals)).hasSize(2);
+	}
+
+	@Test
+	void healthCheckFailure() {
+		ErrorAwayDaemon daemon = new ErrorAwayDaemon(tempDir, CHECKERS, List.of("-XX:+NoSuchOption"), 2);
+
+		assertThat(daemon.healthCheck()).isFalse();
+		assertThat(logTester.getLogs(Level.WARN).stream().map(LogAndArguments::getRawMsg)).contains("The analysis daemon {} is not available");
+	}
+}
@@ -15,14 +15,28 @@
  */
 package com.github.erroraway.sonarqube;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -31,6 +45,8 @@ import org.sonar.api.config.Configuration;
 import org.sonar.api.utils.TempFolder;
 
 import com.github.erroraway.ErrorAwayException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 
 /**
  * @author Guillaume Toison
@@ -54,6 +70,8 @@ class ErrorAwayDependencyManagerTest {
 
 			return new File(tempDirPath.toFile(), name);
 		});
+
+		ErrorAwayTestUtil.setConfiguration(configuration, ErrorAwayPluginConstants.MAVEN_LOCK_FILE, tempDirPath.resolve("dependencies.lock").toString());
 	}
 
 	@Test
@@ -61,7 +79,154 @@ class ErrorAwayDependencyManagerTest {
 		ErrorAwayTestUtil.setConfiguration(configuration, ErrorAwayPluginConstants.MAVEN_USER_SETTINGS_FILE,
 				"src/test/resources/samples/invalid-settings.xml");
 
-		assertThrows(ErrorAwayException.class, () -> new ErrorAwayDependencyManager(tempFolder, configuration));
+		// The settings are only read when dependencies are resolved
+		ErrorAwayDependencyManager dependencyManager = new ErrorAwayDependencyManager(tempFolder, configuration);
+
+		assertThrows(ErrorAwayException.class, () -> dependencyManager.downloadDependencies("x:y:1.2.3"));
+	}
+
+	@Test
+	void invalidUpdatePolicy() {
+		ErrorAwayTestUtil.setConfiguration(configuration, ErrorAwayPluginConstants.MAVEN_UPDATE_POLICY, "weekly");
+		ErrorAwayDependencyManager dependencyManager = new ErrorAwayDependencyManager(tempFolder, configuration);
+
+		assertThatThrownBy(() -> dependencyManager.downloadDependencies("x:y:1.2.3")).hasMessageStartingWith("Invalid update policy weekly");
+	}
+
+	@Test
+	void resolveOnce() throws Exception {
+		Path remoteRepository = tempDirPath.resolve("remote");
+		Path jar = remoteRepository.resolve("com/example/lib/1.0/lib-1.0.jar");
+		Files.createDirectories(jar.getParent());
+		Files.write(jar, new byte[] { 'P', 'K' });
+
+		ErrorAwayTestUtil.setConfiguration(configuration, ErrorAwayPluginConstants.MAVEN_LOCAL_REPOSITORY, tempDirPath.resolve("local").toString());
+		ErrorAwayTestUtil.setConfiguration(configuration, ErrorAwayPluginConstants.MAVEN_UPDATE_POLICY, "interval:60");
+		ErrorAwayTestUtil.setConfigurationStringArray(configuration, ErrorAwayPluginConstants.MAVEN_REPOSITORIES, new String[] { remoteRepository.toUri().toString() });
+		ErrorAwayDependencyManager dependencyManager = new ErrorAwayDependencyManager(tempFolder, configuration);
+
+		List<File> files = dependencyManager.downloadDependencies("com.example:lib:1.0");
+		assertThat(files).singleElement().satisfies(file -> assertThat(file).hasName("lib-1.0.jar").exists());
+
+		// The second module gets the same files without resolving them again
+		Files.delete(jar);
+		assertThat(dependencyManager.downloadDependencies("com.example:lib:1.0")).isSameAs(files);
+
+		ErrorAwayException failure = assertThrows(ErrorAwayException.class, () -> dependencyManager.downloadDependencies("com.example:missing:1.0"));
+		ErrorAwayException cachedFailure = assertThrows(ErrorAwayException.class, () -> dependencyManager.downloadDependencies("com.example:missing:1.0"));
+		assertThat(cachedFailure).hasCause(failure);
+	}
+
+	@Test
+	void lockFile() throws Exception {
+		Path remoteRepository = tempDirPath.resolve("remote");
+		Path jar = remoteRepository.resolve("com/example/lib/1.0/lib-1.0.jar");
+		Files.createDirectories(jar.getParent());
+		Files.write(jar, new byte[] { 'P', 'K' });
+
+		ErrorAwayTestUtil.setConfiguration(configuration, ErrorAwayPluginConstants.MAVEN_LOCAL_REPOSITORY, tempDirPath.resolve("local").toString());
+		ErrorAwayTestUtil.setConfigurationStringArray(configuration, ErrorAwayPluginConstants.MAVEN_REPOSITORIES, new String[] { remoteRepository.toUri().toString() });
+		List<File> files = new ErrorAwayDependencyManager(tempFolder, configuration).downloadDependencies("com.example:lib:1.0");
+		assertThat(tempDirPath.resolve("dependencies.lock")).exists();
+
+		// The next analysis does not read the settings nor create a session
+		ErrorAwayTestUtil.setConfiguration(configuration, ErrorAwayPluginConstants.MAVEN_USER_SETTINGS_FILE,
+				"src/test/resources/samples/invalid-settings.xml");
+		assertThat(new ErrorAwayDependencyManager(tempFolder, configuration).downloadDependencies("com.example:lib:1.0")).isEqualTo(files);
+
+		// A file that changed is resolved again
+		Files.write(files.get(0).toPath(), new byte[] { 'P', 'K', 3, 4 });
+		ErrorAwayDependencyManager dependencyManager = new ErrorAwayDependencyManager(tempFolder, configuration);
+		assertThrows(ErrorAwayException.class, () -> dependencyManager.downloadDependencies("com.example:lib:1.0"));
+	}
+
+	@Test
+	void parallelDownloads() throws Exception {
+		Path remoteRepository = tempDirPath.resolve("remote");
+		String[] coordinates = new String[8];
+		for (int i = 0; i < coordinates.length; i++) {
+			Path jar = remoteRepository.resolve("com/example/lib" + i + "/1.0/lib" + i + "-1.0.jar");
+			Files.createDirectories(jar.getParent());
+			Files.write(jar, new byte[] { 'P', 'K', (byte) i });
+			coordinates[i] = "com.example:lib" + i + ":1.0";
+		}
+
+		// Serve the file repository over HTTP, when a gate is set the requests wait for a second request before being served
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+		AtomicReference<CountDownLatch> gate = new AtomicReference<>();
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		ExecutorService executor = Executors.newCachedThreadPool();
+		server.createContext("/", exchange -> {
+			maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+
+			try {
+				CountDownLatch latch = gate.get();
+				if (latch != null) {
+					latch.countDown();
+					latch.await(30, TimeUnit.SECONDS);
+				}
+				serve(exchange, remoteRepository.resolve(exchange.getRequestURI().getPath().substring(1)));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				inFlight.decrementAndGet();
+				exchange.close();
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+
+		try {
+			String url = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+
+			// The first requests only get past the gate if they are received at the same time
+			CountDownLatch concurrentRequests = new CountDownLatch(2);
+			gate.set(concurrentRequests);
+			download("parallel", url, 8, coordinates);
+			gate.set(null);
+
+			assertThat(concurrentRequests.getCount()).isZero();
+			assertThat(maxInFlight.get()).isGreaterThanOrEqualTo(2);
+
+			download("serial", url, 1, coordinates);
+		} finally {
+			server.stop(0);
+			executor.shutdownNow();
+		}
+	}
+
+	private void download(String name, String url, int threads, String... coordinates) {
+		Path dir = tempDirPath.resolve(name);
+
+		ErrorAwayTestUtil.setConfiguration(configuration, ErrorAwayPluginConstants.MAVEN_LOCAL_REPOSITORY, dir.resolve("local").toString());
+		ErrorAwayTestUtil.setConfiguration(configuration, ErrorAwayPluginConstants.MAVEN_LOCK_FILE, dir.resolve("dependencies.lock").toString());
+		ErrorAwayTestUtil.setConfigurationStringArray(configuration, ErrorAwayPluginConstants.MAVEN_REPOSITORIES, new String[] { url });
+		when(configuration.getInt(ErrorAwayPluginConstants.MAVEN_DOWNLOAD_THREADS)).thenReturn(Optional.of(threads));
+
+		assertThat(new ErrorAwayDependencyManager(tempFolder, configuration).downloadDependencies(coordinates)).hasSize(coordinates.length);
+	}
+
+	private static void serve(HttpExchange exchange, Path file) throws IOException {
+		if (!Files.isRegularFile(file)) {
+			exchange.sendResponseHeaders(404, -1);
+			return;
+		}
+
+		byte[] content = Files.readAllBytes(file);
+		exchange.sendResponseHeaders(200, content.length);
+
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(content);
+		}
+	}
+
+	@Test
+	void invalidDownloadThreads() {
+		when(configuration.getInt(ErrorAwayPluginConstants.MAVEN_DOWNLOAD_THREADS)).thenReturn(Optional.of(0));
+		ErrorAwayDependencyManager dependencyManager = new ErrorAwayDependencyManager(tempFolder, configuration);
+
+		assertThatThrownBy(() -> dependencyManager.downloadDependencies("x:y:1.2.3")).hasMessageStartingWith("Invalid number of download threads 0");
 	}
 
 	@Test
@@ -18,21 +18,38 @@ package com.github.erroraway.sonarqube;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
 import javax.tools.Diagnostic;
 import javax.tools.Diagnostic.Kind;
 import javax.tools.JavaFileObject;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.event.Level;
 import org.sonar.api.batch.fs.FilePredicates;
 import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.InputFile.Type;
+import org.sonar.api.batch.rule.ActiveRule;
+import org.sonar.api.batch.rule.ActiveRules;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.sensor.error.NewAnalysisError;
+import org.sonar.api.batch.sensor.issue.NewIssue;
+import org.sonar.api.batch.sensor.issue.NewIssueLocation;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.testfixtures.log.LogAndArguments;
+import org.sonar.api.testfixtures.log.LogTesterJUnit5;
 
 import com.github.erroraway.ErrorAwayException;
 
@@ -41,6 +58,10 @@ import com.github.erroraway.ErrorAwayException;
  *
  */
 class ErrorAwayDiagnosticListenerTest {
+
+	@RegisterExtension
+	private LogTesterJUnit5 logTester = new LogTesterJUnit5();
+
 	private SensorContext context;
 	private NewAnalysisError analysisError;
 	private FileSystem fs;
@@ -99,6 +120,54 @@ class ErrorAwayDiagnosticListenerTest {
 		assertThrows(ErrorAwayException.class, () -> listener.report(diagnostic));
 	}
 
+	@Test
+	@SuppressWarnings("unchecked")
+	void reportFromActiveRulesAndInputFiles() {
+		InputFile inputFile = new TestInputFile(Path.of("src/test/resources/samples/com/bug/BugSamples.java"), Path.of("com/bug/BugSamples.java"),
+				StandardCharsets.UTF_8, Type.MAIN);
+		ActiveRule activeRule = mock(ActiveRule.class);
+		when(activeRule.ruleKey()).thenReturn(RuleKey.of("picnic-errorprone", "CollectorMutability"));
+		List<ActiveRule> picnicRules = List.of(activeRule);
+
+		ActiveRules activeRules = mock(ActiveRules.class);
+		when(activeRules.findByRepository(anyString())).thenReturn(List.of());
+		when(activeRules.findByRepository("picnic-errorprone")).thenReturn(picnicRules);
+		when(context.activeRules()).thenReturn(activeRules);
+
+		NewIssue newIssue = mock(NewIssue.class);
+		when(newIssue.newLocation()).thenReturn(mock(NewIssueLocation.class));
+		when(context.newIssue()).thenReturn(newIssue);
+
+		Diagnostic<JavaFileObject> diagnostic = mock(Diagnostic.class);
+		when(diagnostic.getCode()).thenReturn("compiler.warn.error.prone");
+		when(diagnostic.getMessage(any())).thenReturn("[CollectorMutability] Avoid Collectors.toList()\n  [see the documentation]");
+		when(diagnostic.getSource()).thenReturn(new InputFileJavaFileObject(inputFile));
+		when(diagnostic.getLineNumber()).thenReturn(1L);
+
+		ErrorAwayDiagnosticListener listener = new ErrorAwayDiagnosticListener(context, null, List.of(inputFile), new ErrorAwayIssueWriter(context, 0));
+		listener.report(diagnostic);
+
+		verify(newIssue).forRule(RuleKey.of("picnic-errorprone", "CollectorMutability"));
+		verify(fs, never()).inputFile(any());
+		assertThat(listener.issueCounts()).containsEntry("CollectorMutability", 1L);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void missingInputFile() {
+		JavaFileObject javaFileObject = mock(JavaFileObject.class);
+		when(javaFileObject.toUri()).thenReturn(URI.create("file:///generated/Foo.java"));
+		when(javaFileObject.getName()).thenReturn("Foo.java");
+
+		Diagnostic<JavaFileObject> diagnostic = mock(Diagnostic.class);
+		when(diagnostic.getSource()).thenReturn(javaFileObject);
+
+		ErrorAwayDiagnosticListener listener = new ErrorAwayDiagnosticListener(context, null, List.of(), new ErrorAwayIssueWriter(context, 0));
+
+		assertThat(listener.getInputFile(diagnostic, fs)).isNull();
+		assertThat(logTester.getLogs(Level.WARN).stream().map(LogAndArguments::getRawMsg).toList()).contains("Could not file input file for source {}");
+	}
+
 	@Test
 	@SuppressWarnings("unchecked")
 	void nullSourceDiagnostic() {
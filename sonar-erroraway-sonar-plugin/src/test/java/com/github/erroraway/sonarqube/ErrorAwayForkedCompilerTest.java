@@ -0,0 +1,87 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.event.Level;
+import org.sonar.api.testfixtures.log.LogAndArguments;
+import org.sonar.api.testfixtures.log.LogTesterJUnit5;
+import org.sonar.api.utils.TempFolder;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwayForkedCompilerTest {
+	private static final List<String> CHECKERS = List.of("com.google.errorprone.bugpatterns.EqualsNaN");
+
+	@RegisterExtension
+	private LogTesterJUnit5 logTester = new LogTesterJUnit5();
+
+	@TempDir
+	private Path tempDir;
+
+	@Test
+	void workerKilledBetweenTasks() throws IOException {
+		// The command line of a process may be truncated, the worker of the test is found by an option before its classpath
+		String marker = "-Derroraway.test.worker=" + tempDir;
+
+		Path source = Files.createDirectories(tempDir.resolve("src")).resolve("A.java");
+		Files.writeString(source, "class A {\n  boolean isNaN(double d) {\n    return d == Double.NaN;\n  }\n}\n");
+		TempFolder tempFolder = mock(TempFolder.class);
+		when(tempFolder.newDir(anyString())).thenAnswer(i -> Files.createDirectories(tempDir.resolve(i.getArgument(0, String.class))).toFile());
+
+		List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+		try (ErrorAwayForkedCompiler compiler = new ErrorAwayForkedCompiler(CHECKERS, List.of(), StandardCharsets.UTF_8, List.of(), List.of(), null, null, List.of(),
+				tempFolder, 1024 * 1024, List.of("-Xmx256m", marker), 1, null, null, new ErrorAwayCheckerReport(), new ErrorAwayPhaseReport());
+				StandardJavaFileManager fileManager = ToolProvider.getSystemJavaCompiler().getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+			List<JavaFileObject> compilationUnits = new ArrayList<>();
+			fileManager.getJavaFileObjects(source.toFile()).forEach(compilationUnits::add);
+
+			compiler.compile(compilationUnits, List.of(), diagnostics::add);
+
+			// The worker exits between two tasks, like a worker killed by the system when the memory is low
+			assertThat(ErrorAwayTestUtil.kill(marker)).isTrue();
+			compiler.compile(compilationUnits, List.of(), diagnostics::add);
+		}
+
+		// The second task is run by a new worker
+		assertThat(diagnostics).filteredOn(diagnostic -> diagnostic.getMessage(Locale.ENGLISH).contains("[EqualsNaN]")).hasSize(2);
+		assertThat(logTester.getLogs(Level.WARN).stream().map(LogAndArguments::getRawMsg))
+				.contains("The analysis worker {} stopped before the end of the task, running the task again in a new worker");
+		assertThat(logTester.getLogs(Level.INFO).stream().map(LogAndArguments::getRawMsg).filter("Starting the analysis worker {} with the options {}"::equals)).hasSize(2);
+	}
+}
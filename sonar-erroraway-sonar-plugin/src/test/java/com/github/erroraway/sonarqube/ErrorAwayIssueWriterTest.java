@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.InputFile.Type;
+import org.sonar.api.batch.sensor.SensorContext;
+import org.sonar.api.batch.sensor.issue.NewIssue;
+import org.sonar.api.batch.sensor.issue.NewIssueLocation;
+import org.sonar.api.rule.RuleKey;
+
+import com.github.erroraway.ErrorAwayException;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwayIssueWriterTest {
+
+	@Test
+	void drainBeforeClose() throws Exception {
+		SensorContext context = mock(SensorContext.class);
+		NewIssue newIssue = mock(NewIssue.class);
+		List<String> savingThreads = new ArrayList<>();
+
+		when(context.newIssue()).thenReturn(newIssue);
+		when(newIssue.newLocation()).thenReturn(mock(NewIssueLocation.class));
+		when(newIssue.forRule(any())).then(invocation -> {
+			// Slow down the writer to fill the queue
+			Thread.sleep(1);
+			savingThreads.add(Thread.currentThread().getName());
+			return newIssue;
+		});
+
+		InputFile inputFile = new TestInputFile(Path.of("src/test/resources/samples/com/bug/BugSamples.java"), Path.of("com/bug/BugSamples.java"),
+				StandardCharsets.UTF_8, Type.MAIN);
+
+		ErrorAwayIssueWriter issueWriter = new ErrorAwayIssueWriter(context, 2);
+		try (issueWriter) {
+			for (int i = 0; i < 20; i++) {
+				issueWriter.write(new ErrorAwayIssue(inputFile, RuleKey.of("errorprone", "DeadException"), 1, "Issue " + i));
+			}
+		}
+
+		verify(newIssue, times(20)).save();
+		assertThat(savingThreads).hasSize(20).containsOnly("erroraway-issue-writer");
+		assertThat(issueWriter.savedIssues()).isEqualTo(20);
+		assertThat(issueWriter.maxQueueDepth()).isBetween(1, 2);
+		assertThat(issueWriter.maxDrainLatency()).isPositive().isGreaterThanOrEqualTo(issueWriter.averageDrainLatency());
+	}
+
+	@Test
+	void writeAfterClose() {
+		SensorContext context = mock(SensorContext.class);
+		InputFile inputFile = new TestInputFile(Path.of("src/test/resources/samples/com/bug/BugSamples.java"), Path.of("com/bug/BugSamples.java"),
+				StandardCharsets.UTF_8, Type.MAIN);
+
+		// e.g. a shard still running after the failure of another shard, the sensor context is no longer used
+		for (int capacity : new int[] { 0, 2 }) {
+			ErrorAwayIssueWriter issueWriter = new ErrorAwayIssueWriter(context, capacity);
+			issueWriter.close();
+
+			assertThatThrownBy(() -> issueWriter.write(new ErrorAwayIssue(inputFile, RuleKey.of("errorprone", "DeadException"), 1, "Late issue")))
+					.isInstanceOf(ErrorAwayException.class).hasMessage("The issue writer is closed, the issue Late issue is not saved");
+		}
+
+		verify(context, never()).newIssue();
+	}
+
+	@Test
+	@Timeout(30)
+	void writerThreadError() {
+		SensorContext context = mock(SensorContext.class);
+		NewIssue newIssue = mock(NewIssue.class);
+
+		when(context.newIssue()).thenReturn(newIssue);
+		when(newIssue.newLocation()).thenReturn(mock(NewIssueLocation.class));
+		when(newIssue.forRule(any())).thenReturn(newIssue);
+		doThrow(new LinkageError("Broken Sonar API")).when(newIssue).save();
+
+		InputFile inputFile = new TestInputFile(Path.of("src/test/resources/samples/com/bug/BugSamples.java"), Path.of("com/bug/BugSamples.java"),
+				StandardCharsets.UTF_8, Type.MAIN);
+
+		ErrorAwayIssueWriter issueWriter = new ErrorAwayIssueWriter(context, 2);
+
+		// The writer thread dies on the first issue, the queue fills up and the next writes fail instead of blocking
+		assertThatThrownBy(() -> {
+			for (int i = 0; i < 20; i++) {
+				issueWriter.write(new ErrorAwayIssue(inputFile, RuleKey.of("errorprone", "DeadException"), 1, "Issue " + i));
+			}
+		}).isInstanceOf(ErrorAwayException.class).hasRootCauseInstanceOf(LinkageError.class);
+
+		assertThatThrownBy(issueWriter::close).isInstanceOf(ErrorAwayException.class).hasRootCauseMessage("Broken Sonar API");
+	}
+}
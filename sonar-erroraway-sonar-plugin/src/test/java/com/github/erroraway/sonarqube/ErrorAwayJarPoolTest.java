@@ -0,0 +1,123 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwayJarPoolTest {
+
+	@TempDir
+	private Path tempDir;
+
+	@Test
+	void shareJars() throws IOException {
+		File file = jar("lib.jar", "com/acme/Foo.class", "com/acme/Bar.class", "com/acme/internal/Baz.class", "com/acme/messages.properties");
+		ErrorAwayJarPool jarPool = new ErrorAwayJarPool();
+
+		ErrorAwayJarPool.Jar jar = jarPool.acquire(file);
+		assertThat(jarPool.acquire(file)).isSameAs(jar);
+		assertThat(jarPool.openJars()).isEqualTo(1);
+
+		assertThat(jar.list("com.acme", Set.of(Kind.CLASS))).extracting(JavaFileObject::getName).containsExactlyInAnyOrder(file + "(com/acme/Foo.class)",
+				file + "(com/acme/Bar.class)");
+		assertThat(jar.list("com.acme", Set.of(Kind.SOURCE))).isEmpty();
+		assertThat(jar.file("com.acme", "messages.properties")).isNotNull();
+		assertThat(jar.file("com.acme", "Baz.class")).isNull();
+
+		ErrorAwayJarPool.JarFileObject foo = (ErrorAwayJarPool.JarFileObject) jar.file("com.acme", "Foo.class");
+		assertThat(jar.file("com.acme", "Foo.class")).isSameAs(foo);
+		assertThat(jar.list("com.acme", Set.of(Kind.CLASS))).contains(foo);
+		assertThat(foo.binaryName()).isEqualTo("com.acme.Foo");
+		assertThat(foo.isNameCompatible("Foo", Kind.CLASS)).isTrue();
+		assertThat(foo.isNameCompatible("Fo", Kind.CLASS)).isFalse();
+		try (InputStream input = foo.openInputStream()) {
+			assertThat(input.readAllBytes()).containsExactly("com/acme/Foo.class".getBytes());
+		}
+
+		// The jar stays open for the next modules
+		jarPool.release(jar);
+		jarPool.release(jar);
+		assertThat(jarPool.openJars()).isEqualTo(1);
+
+		jarPool.stop();
+		assertThat(jarPool.openJars()).isZero();
+	}
+
+	@Test
+	void modifiedJar() throws IOException {
+		File file = jar("lib.jar", "com/acme/Foo.class");
+		ErrorAwayJarPool jarPool = new ErrorAwayJarPool();
+		ErrorAwayJarPool.Jar jar = jarPool.acquire(file);
+
+		jar("lib.jar", "com/acme/Foo.class", "com/acme/Bar.class");
+		Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(file.lastModified() + 10_000));
+
+		ErrorAwayJarPool.Jar modifiedJar = jarPool.acquire(file);
+		assertThat(modifiedJar).isNotSameAs(jar);
+		assertThat(modifiedJar.list("com.acme", Set.of(Kind.CLASS))).hasSize(2);
+		assertThat(jarPool.openJars()).isEqualTo(2);
+
+		// The previous version is closed once no longer used
+		jarPool.release(jar);
+		assertThat(jarPool.openJars()).isEqualTo(1);
+
+		jarPool.release(modifiedJar);
+		jarPool.stop();
+	}
+
+	@Test
+	void unpooledJars() throws IOException {
+		ErrorAwayJarPool jarPool = new ErrorAwayJarPool();
+		Path invalid = Files.writeString(tempDir.resolve("invalid.jar"), "not a jar");
+
+		assertThat(jarPool.acquire(invalid.toFile())).isNull();
+		assertThat(jarPool.acquire(jar("multi.jar", "com/acme/Foo.class", "META-INF/versions/11/com/acme/Foo.class"))).isNull();
+		assertThat(jarPool.openJars()).isZero();
+	}
+
+	private File jar(String name, String... entries) throws IOException {
+		Path jar = tempDir.resolve(name);
+
+		try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(jar))) {
+			for (String entry : entries) {
+				output.putNextEntry(new JarEntry(entry));
+				output.write(entry.getBytes());
+			}
+		}
+
+		return jar.toFile();
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import javax.management.Notification;
+import javax.tools.Diagnostic;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.erroraway.ErrorAwayException;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwayMemoryControllerTest {
+
+	@Test
+	void thresholds() {
+		Map<MemoryPoolMXBean, Long> thresholds = new HashMap<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported() && pool.getUsage().getMax() > 0) {
+				thresholds.put(pool, pool.getUsageThreshold());
+			}
+		}
+
+		try (ErrorAwayMemoryController controller = new ErrorAwayMemoryController(80)) {
+			thresholds.keySet().forEach(pool -> assertThat(pool.getUsageThreshold()).isEqualTo(pool.getUsage().getMax() / 100 * 80));
+		}
+
+		thresholds.forEach((pool, threshold) -> assertThat(pool.getUsageThreshold()).isEqualTo(threshold));
+	}
+
+	@Test
+	void shrinkBatchesUnderPressure() {
+		List<Integer> items = IntStream.range(0, 20).boxed().toList();
+		List<Integer> batchSizes = new ArrayList<>();
+
+		try (ErrorAwayMemoryController controller = new ErrorAwayMemoryController(80)) {
+			controller.forEachBatch(items, 8, batch -> {
+				batchSizes.add(batch.size());
+
+				if (batchSizes.size() == 1) {
+					controller.handleNotification(new Notification(MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED, "test", 1), null);
+				}
+
+				return true;
+			});
+
+			assertThat(batchSizes).containsExactly(8, 4, 4, 4);
+			assertThat(controller.adjustments()).containsExactly("The old generation went above 80% of its maximum, analyzing the 12 remaining files in batches of 4 files");
+		}
+	}
+
+	@Test
+	void retryOutOfMemoryBatches() {
+		List<Integer> items = IntStream.range(0, 10).boxed().toList();
+		List<List<Integer>> batches = new ArrayList<>();
+
+		try (ErrorAwayMemoryController controller = new ErrorAwayMemoryController(80)) {
+			assertThat(controller.canRetry(items)).isTrue();
+			assertThat(controller.canRetry(items.subList(0, 1))).isFalse();
+
+			controller.forEachBatch(items, 8, batch -> {
+				batches.add(List.copyOf(batch));
+
+				// The first batch does not fit in the heap
+				return batch.size() < 8;
+			});
+
+			assertThat(batches).containsExactly(List.of(0, 1, 2, 3, 4, 5, 6, 7), List.of(0, 1, 2, 3), List.of(4, 5, 6, 7), List.of(8, 9));
+			assertThat(controller.adjustments()).containsExactly("Out of memory analyzing a batch of 8 files, analyzing it again in batches of 4 files");
+
+			assertThatThrownBy(() -> controller.forEachBatch(items, 8, batch -> false)).isInstanceOf(ErrorAwayException.class)
+					.hasMessage("Out of memory analyzing 0, the analyzer max heap must be increased");
+		}
+	}
+
+	@Test
+	void disabled() {
+		List<Integer> items = IntStream.range(0, 10).boxed().toList();
+		List<List<Integer>> batches = new ArrayList<>();
+
+		try (ErrorAwayMemoryController controller = new ErrorAwayMemoryController(0)) {
+			assertThat(controller.isEnabled()).isFalse();
+			assertThat(controller.canRetry(items)).isFalse();
+
+			// The batches are not adjusted, a batch running out of memory fails the analysis
+			controller.forEachBatch(items, 8, batch -> batches.add(List.copyOf(batch)));
+			assertThat(batches).containsExactly(List.of(0, 1, 2, 3, 4, 5, 6, 7), List.of(8, 9));
+			assertThatThrownBy(() -> controller.forEachBatch(items, 8, batch -> false)).isInstanceOf(ErrorAwayException.class)
+					.hasMessage("Out of memory analyzing 8 files, the analyzer max heap must be increased");
+			assertThat(controller.adjustments()).isEmpty();
+		}
+	}
+
+	@Test
+	void outOfMemory() {
+		assertThat(ErrorAwayMemoryController.isOutOfMemory(new RuntimeException(new OutOfMemoryError("Java heap space")))).isTrue();
+		assertThat(ErrorAwayMemoryController.isOutOfMemory(new RuntimeException(new IllegalStateException()))).isFalse();
+
+		Diagnostic<?> crash = mock(Diagnostic.class);
+		when(crash.getCode()).thenReturn(ErrorAwayDiagnosticListener.ERROR_PRONE_COMPILER_CRASH_CODE);
+		when(crash.toString()).thenReturn("An unhandled exception was thrown by the Error Prone static analysis plugin.\njava.lang.OutOfMemoryError: Java heap space");
+		assertThat(ErrorAwayMemoryController.isOutOfMemory(crash)).isTrue();
+
+		Diagnostic<?> error = mock(Diagnostic.class);
+		when(error.getCode()).thenReturn("compiler.err.cant.resolve");
+		assertThat(ErrorAwayMemoryController.isOutOfMemory(error)).isFalse();
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwayMemoryFileManagerTest {
+	private static final String SOURCE = "package com.sample; public class Sample { int value() { return 1; } }";
+
+	@TempDir
+	Path classOutput;
+
+	private JavaCompiler compiler;
+	private StandardJavaFileManager standardFileManager;
+
+	@BeforeEach
+	void setup() throws IOException {
+		compiler = ToolProvider.getSystemJavaCompiler();
+		standardFileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+		standardFileManager.setLocation(StandardLocation.CLASS_OUTPUT, List.of(classOutput.toFile()));
+	}
+
+	private boolean compile(ErrorAwayMemoryFileManager fileManager) {
+		JavaFileObject source = new SimpleJavaFileObject(URI.create("string:///com/sample/Sample.java"), Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return SOURCE;
+			}
+		};
+
+		return compiler.getTask(null, fileManager, null, List.of("-proc:none"), null, List.of(source)).call();
+	}
+
+	private long diskFilesCount() throws IOException {
+		try (Stream<Path> files = Files.walk(classOutput)) {
+			return files.filter(Files::isRegularFile).count();
+		}
+	}
+
+	@Test
+	void keepClassesInMemory() throws IOException {
+		AtomicLong availableBytes = new AtomicLong(1024 * 1024);
+
+		try (ErrorAwayMemoryFileManager fileManager = new ErrorAwayMemoryFileManager(standardFileManager, StandardCharsets.UTF_8, availableBytes)) {
+			assertThat(compile(fileManager)).isTrue();
+
+			assertThat(diskFilesCount()).isZero();
+			assertThat(fileManager.memoryBytes()).isPositive();
+			assertThat(availableBytes.get()).isEqualTo(1024 * 1024 - fileManager.memoryBytes());
+
+			JavaFileObject classFile = fileManager.getJavaFileForInput(StandardLocation.CLASS_OUTPUT, "com.sample.Sample", Kind.CLASS);
+			try (InputStream input = classFile.openInputStream()) {
+				assertThat(input.readNBytes(4)).containsExactly(0xCA, 0xFE, 0xBA, 0xBE);
+			}
+
+			assertThat(fileManager.list(StandardLocation.CLASS_OUTPUT, "com.sample", Set.of(Kind.CLASS), false)).containsExactly(classFile);
+			assertThat(fileManager.inferBinaryName(StandardLocation.CLASS_OUTPUT, classFile)).isEqualTo("com.sample.Sample");
+		}
+
+		// The memory is given back when the file manager is closed
+		assertThat(availableBytes.get()).isEqualTo(1024 * 1024);
+	}
+
+	@Test
+	void spillToDisk() throws IOException {
+		AtomicLong availableBytes = new AtomicLong(16);
+
+		try (ErrorAwayMemoryFileManager fileManager = new ErrorAwayMemoryFileManager(standardFileManager, StandardCharsets.UTF_8, availableBytes)) {
+			assertThat(compile(fileManager)).isTrue();
+
+			assertThat(fileManager.memoryBytes()).isZero();
+			assertThat(classOutput.resolve("com/sample/Sample.class")).isNotEmptyFile();
+
+			JavaFileObject classFile = fileManager.getJavaFileForInput(StandardLocation.CLASS_OUTPUT, "com.sample.Sample", Kind.CLASS);
+			try (InputStream input = classFile.openInputStream()) {
+				assertThat(input.readAllBytes()).isEqualTo(Files.readAllBytes(classOutput.resolve("com/sample/Sample.class")));
+			}
+		}
+
+		assertThat(availableBytes.get()).isEqualTo(16);
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.InputFile.Type;
+import org.sonar.api.batch.rule.ActiveRule;
+import org.sonar.api.batch.rule.ActiveRules;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.rule.RuleKey;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwayRuleTriggersTest {
+	@TempDir
+	private Path tempDir;
+
+	private ActiveRules activeRules;
+	private Map<String, List<ActiveRule>> activeRulesByRepository;
+	private Configuration configuration;
+
+	private InputFile slf4jSamples;
+	private InputFile bugSamples;
+
+	@BeforeEach
+	void setup() {
+		activeRules = mock(ActiveRules.class);
+		activeRulesByRepository = new HashMap<>();
+		when(activeRules.findByRepository(anyString())).thenAnswer(i -> activeRulesByRepository.getOrDefault(i.getArgument(0), List.of()));
+		configuration = mock(Configuration.class);
+
+		slf4jSamples = inputFile("com/bug/Slf4jSamples.java");
+		bugSamples = inputFile("com/bug/BugSamples.java");
+	}
+
+	@Test
+	void slf4jRules() throws IOException {
+		enableRule(RuleKey.of("errorprone-slf4j", "Slf4jPlaceholderMismatch"));
+
+		// The logger of the child class is inherited, the file does not reference SLF4J
+		sourceFile("com/app/Base.java", "package com.app;\n\npublic class Base {\n	protected final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(getClass());\n}\n");
+		InputFile child = sourceFile("com/app/Child.java", "package com.app;\n\npublic class Child extends Base {\n	void run() {\n		logger.info(\"{} {}\", 1);\n	}\n}\n");
+		assertThat(child.contents()).doesNotContain("slf4j");
+
+		assertThat(ErrorAwayRuleTriggers.of(activeRules, configuration)).isNull();
+	}
+
+	@Test
+	void nullAway() {
+		enableRule(RuleKey.of("nullaway", "NullAway"));
+		assertThat(ErrorAwayRuleTriggers.of(activeRules, configuration)).isNull();
+
+		ErrorAwayTestUtil.setConfigurationStringArray(configuration, NullAwayOption.ANNOTATED_PACKAGES.getKey(), new String[] { "com.other", "com.bu" });
+		assertThat(ErrorAwayRuleTriggers.of(activeRules, configuration).filter(List.of(slf4jSamples, bugSamples), List.of(slf4jSamples, bugSamples))).isEmpty();
+
+		ErrorAwayTestUtil.setConfigurationStringArray(configuration, NullAwayOption.ANNOTATED_PACKAGES.getKey(), new String[] { "com" });
+		assertThat(ErrorAwayRuleTriggers.of(activeRules, configuration).filter(List.of(slf4jSamples, bugSamples), List.of(slf4jSamples, bugSamples)))
+				.containsExactly(slf4jSamples, bugSamples);
+
+		// Regular expressions are not supported
+		ErrorAwayTestUtil.setConfigurationStringArray(configuration, NullAwayOption.ANNOTATED_PACKAGES.getKey(), new String[] { "com\\.bug.*" });
+		assertThat(ErrorAwayRuleTriggers.of(activeRules, configuration)).isNull();
+	}
+
+	@Test
+	void nullMarkedPackage() throws IOException {
+		enableRule(RuleKey.of("nullaway", "NullAway"));
+		ErrorAwayTestUtil.setConfigurationStringArray(configuration, NullAwayOption.ANNOTATED_PACKAGES.getKey(), new String[] { "com.other" });
+
+		InputFile packageInfo = sourceFile("com/marked/package-info.java", "@org.jspecify.annotations.NullMarked\npackage com.marked;\n");
+		InputFile marked = sourceFile("com/marked/Marked.java", "package com.marked;\n\npublic class Marked {\n}\n");
+		InputFile subPackage = sourceFile("com/marked/sub/NotMarked.java", "package com.marked.sub;\n\npublic class NotMarked {\n}\n");
+		List<InputFile> moduleFiles = List.of(packageInfo, marked, subPackage, bugSamples);
+
+		// Only the changed file is analyzed, the package-info is found in the files of the module
+		ErrorAwayRuleTriggers ruleTriggers = ErrorAwayRuleTriggers.of(activeRules, configuration);
+		assertThat(ruleTriggers.filter(List.of(marked, subPackage, bugSamples), moduleFiles)).containsExactly(marked);
+		assertThat(ruleTriggers.filter(List.of(marked, subPackage, bugSamples), List.of(marked, subPackage, bugSamples))).isEmpty();
+
+		// All the files of a @NullMarked module
+		InputFile moduleInfo = sourceFile("module-info.java", "@org.jspecify.annotations.NullMarked\nmodule app {\n}\n");
+		assertThat(ruleTriggers.filter(List.of(subPackage, bugSamples), List.of(moduleInfo, subPackage, bugSamples))).containsExactly(subPackage, bugSamples);
+	}
+
+	@Test
+	void rulesWithoutHints() {
+		enableRule(RuleKey.of("nullaway", "NullAway"));
+		ErrorAwayTestUtil.setConfigurationStringArray(configuration, NullAwayOption.ANNOTATED_PACKAGES.getKey(), new String[] { "com" });
+		enableRule(RuleKey.of("errorprone", "DurationTemporalUnit"));
+
+		assertThat(ErrorAwayRuleTriggers.of(activeRules, configuration)).isNull();
+	}
+
+	private void enableRule(RuleKey ruleKey) {
+		ActiveRule activeRule = mock(ActiveRule.class);
+		when(activeRule.ruleKey()).thenReturn(ruleKey);
+		activeRulesByRepository.computeIfAbsent(ruleKey.repository(), r -> new ArrayList<>()).add(activeRule);
+	}
+
+	private InputFile sourceFile(String relativePath, String content) throws IOException {
+		Path path = tempDir.resolve(relativePath);
+		Files.createDirectories(path.getParent());
+		Files.writeString(path, content);
+
+		return new TestInputFile(path, Path.of(relativePath), StandardCharsets.UTF_8, Type.MAIN);
+	}
+
+	private static InputFile inputFile(String relativePath) {
+		return new TestInputFile(Path.of("src/test/resources/samples").resolve(relativePath), Path.of(relativePath), StandardCharsets.UTF_8, Type.MAIN);
+	}
+}
@@ -16,34 +16,57 @@
 package com.github.erroraway.sonarqube;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertThrowsExactly;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URISyntaxException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import javax.tools.ToolProvider;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.JRE;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.LoggerFactory;
 import org.slf4j.event.Level;
 import org.sonar.api.batch.fs.FilePredicate;
 import org.sonar.api.batch.fs.FilePredicates;
 import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.InputFile.Status;
 import org.sonar.api.batch.fs.InputFile.Type;
 import org.sonar.api.batch.rule.ActiveRule;
 import org.sonar.api.batch.rule.ActiveRules;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.sensor.SensorDescriptor;
+import org.sonar.api.batch.sensor.cache.ReadCache;
+import org.sonar.api.batch.sensor.cache.WriteCache;
 import org.sonar.api.batch.sensor.error.NewAnalysisError;
 import org.sonar.api.batch.sensor.issue.NewIssue;
 import org.sonar.api.batch.sensor.issue.NewIssueLocation;
@@ -55,6 +78,9 @@ import org.sonar.api.utils.TempFolder;
 
 import com.github.erroraway.ErrorAwayException;
 import com.github.erroraway.rules.ErrorAwayRulesMapping;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 /**
  * @author Guillaume Toison
@@ -65,6 +91,9 @@ class ErrorAwaySensorTest {
 	@RegisterExtension
 	private LogTesterJUnit5 logTester = new LogTesterJUnit5();
 
+	private File baseDir;
+	private Path sourceRoot = Path.of("src/test/resources/samples");
+
 	@TempDir
 	private Path tempDirPath;
 
@@ -72,6 +101,7 @@ class ErrorAwaySensorTest {
 	private FileSystem fs;
 	private SensorContext context;
 	private ActiveRules activeRules;
+	private Map<String, List<ActiveRule>> activeRulesByRepository;
 	private FilePredicates filePredicates;
 	private TempFolder tempFolder;
 	private NewIssue newIssue;
@@ -80,8 +110,8 @@ class ErrorAwaySensorTest {
 	private ErrorAwayDependencyManager dependencyManager;
 
 	private FilePredicate mainJavaFilePredicate;
-	private FilePredicate uriFilePredicate;
 	private InputFile inputFile;
+	private List<InputFile> inputFiles;
 
 	@BeforeEach
 	void setup() {
@@ -96,19 +126,23 @@ class ErrorAwaySensorTest {
 
 			return dir;
 		});
+
+		ErrorAwayTestUtil.setConfiguration(configuration, ErrorAwayPluginConstants.MAVEN_LOCK_FILE, tempDirPath.resolve("dependencies.lock").toString());
+		ErrorAwayTestUtil.setConfiguration(configuration, "sonar.userHome", tempDirPath.toString());
 	}
 
 	/**
-	 * @param relativePath The path of the source file (e.g. com/bug/BugSamples.java)
+	 * @param relativePaths The paths of the source files (e.g. com/bug/BugSamples.java)
 	 */
-	void setup(Path relativePath) {
-		Path path = Path.of("src/test/resources/samples");
+	void setup(Path... relativePaths) {
+		Path path = sourceRoot;
 		Charset charset = Charset.forName("UTF-8");
 
 		// Mocked dependencies
 		fs = mock(FileSystem.class);
 		context = mock(SensorContext.class);
 		activeRules = mock(ActiveRules.class);
+		activeRulesByRepository = new HashMap<>();
 		filePredicates = mock(FilePredicates.class);
 		newIssue = mock(NewIssue.class);
 		location = mock(NewIssueLocation.class);
@@ -120,24 +154,32 @@ class ErrorAwaySensorTest {
 		FilePredicate javaFilePredicate = file -> file.filename().endsWith("java");
 		FilePredicate mainFilePredicate = file -> file.type() == Type.MAIN;
 		mainJavaFilePredicate = file -> javaFilePredicate.apply(file) && mainFilePredicate.apply(file);
-		uriFilePredicate = file -> file.uri().equals(file.uri());
-		inputFile = new TestInputFile(path.resolve(relativePath), relativePath, charset, Type.MAIN);
-		Iterable<InputFile> inputFiles = Collections.singleton(inputFile);
+		inputFiles = new ArrayList<>();
+		for (Path relativePath : relativePaths) {
+			InputFile file = new TestInputFile(path.resolve(relativePath), relativePath, charset, Type.MAIN);
+			FilePredicate filePredicate = f -> f.uri().equals(file.uri());
+
+			when(fs.inputFile(filePredicate)).thenReturn(file);
+			when(filePredicates.hasURI(file.uri())).thenReturn(filePredicate);
+
+			inputFiles.add(file);
+		}
+		inputFile = inputFiles.get(0);
 
 		// Mock some methods
 		when(context.config()).thenReturn(configuration);
 		when(context.activeRules()).thenReturn(activeRules);
+		when(activeRules.findByRepository(anyString())).then(invocation -> activeRulesByRepository.getOrDefault(invocation.getArgument(0), List.of()));
 		when(context.fileSystem()).thenReturn(fs);
 
 		when(fs.encoding()).thenReturn(charset);
+		when(fs.baseDir()).thenReturn(baseDir);
 		when(fs.predicates()).thenReturn(filePredicates);
 		when(fs.inputFiles(mainJavaFilePredicate)).thenReturn(inputFiles);
-		when(fs.inputFile(uriFilePredicate)).thenReturn(inputFile);
 
 		when(filePredicates.hasLanguage("java")).thenReturn(javaFilePredicate);
 		when(filePredicates.hasType(Type.MAIN)).thenReturn(mainFilePredicate);
 		when(filePredicates.and(mainFilePredicate, javaFilePredicate)).thenReturn(mainJavaFilePredicate);
-		when(filePredicates.hasURI(inputFile.uri())).thenReturn(uriFilePredicate);
 
 		when(context.newIssue()).thenReturn(newIssue);
 		when(context.newAnalysisError()).thenReturn(analisysError);
@@ -154,7 +196,11 @@ class ErrorAwaySensorTest {
 	}
 
 	private void enableRule(RuleKey ruleKey) {
-		when(activeRules.find(ruleKey)).thenReturn(mock(ActiveRule.class));
+		ActiveRule activeRule = mock(ActiveRule.class);
+		when(activeRule.ruleKey()).thenReturn(ruleKey);
+
+		when(activeRules.find(ruleKey)).thenReturn(activeRule);
+		activeRulesByRepository.computeIfAbsent(ruleKey.repository(), r -> new ArrayList<>()).add(activeRule);
 	}
 
 	@Test
@@ -163,7 +209,7 @@ class ErrorAwaySensorTest {
 		enableRule(RuleKey.of("errorprone", "DurationTemporalUnit"));
 
 		// Call the sensor
-		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, tempFolder);
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
 		sensor.execute(context);
 
 		verify(context, times(1)).newIssue();
@@ -180,10 +226,49 @@ class ErrorAwaySensorTest {
 		enableRule(RuleKey.of("errorprone", "DurationTemporalUnit"));
 
 		// Call the sensor
-		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, tempFolder);
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
+		sensor.execute(context);
+
+		verify(context, times(1)).newIssue();
+	}
+
+	@Test
+	void analyzeWithClasspathStubs() {
+		setConfigurationStringArray(ErrorAwayPluginConstants.CLASS_PATH_MAVEN_COORDINATES, new String[] { "com.google.auto.value:auto-value-annotations:1.9" });
+		setConfigurationBoolean(ErrorAwayPluginConstants.MAVEN_USE_TEMP_LOCAL_REPOSITORY, true);
+		setConfigurationStringArray(ErrorAwayPluginConstants.MAVEN_REPOSITORIES, new String[] { "https://repo1.maven.org/maven2/" });
+		setConfigurationBoolean(ErrorAwayPluginConstants.CLASSPATH_STUBS, true);
+
+		setup(Path.of("com/bug/BugSamples.java"));
+		enableRule(RuleKey.of("errorprone", "DurationTemporalUnit"));
+
+		// Call the sensor
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
+		sensor.execute(context);
+
+		verify(context, times(1)).newIssue();
+		assertThat(tempDirPath.resolve("erroraway/stubs")).isNotEmptyDirectory();
+	}
+
+	@Test
+	void analyzeWithClasspathStubsAndAnnotationProcessor() {
+		setConfigurationStringArray(ErrorAwayPluginConstants.CLASS_PATH_MAVEN_COORDINATES, new String[] { "com.google.auto.value:auto-value-annotations:1.9" });
+		setConfigurationStringArray(ErrorAwayPluginConstants.ANNOTATION_PROCESSORS_MAVEN_COORDINATES, new String[] { "com.google.auto.value:auto-value:1.9" });
+		setConfigurationBoolean(ErrorAwayPluginConstants.MAVEN_USE_TEMP_LOCAL_REPOSITORY, true);
+		setConfigurationStringArray(ErrorAwayPluginConstants.MAVEN_REPOSITORIES, new String[] { "https://repo1.maven.org/maven2/" });
+		setConfigurationBoolean(ErrorAwayPluginConstants.CLASSPATH_STUBS, true);
+
+		setup(Path.of("com/bug/AutoValueSamples.java"));
+		enableRule(RuleKey.of("errorprone", "DurationTemporalUnit"));
+
+		// Call the sensor
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
 		sensor.execute(context);
 
+		// The annotation processors read the parameter names that the stubs do not have
 		verify(context, times(1)).newIssue();
+		assertThat(tempDirPath.resolve("erroraway/stubs")).doesNotExist();
+		assertThat(logTester.getLogs(Level.INFO).stream().map(LogAndArguments::getRawMsg).toList()).contains("The classpath is not stubbed because the analysis runs annotation processors");
 	}
 
 	@Test
@@ -192,7 +277,7 @@ class ErrorAwaySensorTest {
 		enableRule(RuleKey.of("errorprone", "DurationTemporalUnit"));
 
 		// Call the sensor
-		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, tempFolder);
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
 		// Javac wraps our exception in a RuntimeException
 		assertThrowsExactly(RuntimeException.class, () -> sensor.execute(context));
 
@@ -207,12 +292,12 @@ class ErrorAwaySensorTest {
 	@Test
 	void analyzeWithNullAway() {
 		setup(Path.of("com/bug/BugSamples.java"));
-		when(activeRules.find(RuleKey.of("nullaway", "NullAway"))).thenReturn(mock(ActiveRule.class));
+		enableRule(RuleKey.of("nullaway", "NullAway"));
 
 		setConfigurationStringArray(NullAwayOption.ANNOTATED_PACKAGES.getKey(), new String[] { "foo", "com.bug", "bar" });
 
 		// Call the sensor
-		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, tempFolder);
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
 		sensor.execute(context);
 
 		verify(context, times(1)).newIssue();
@@ -221,13 +306,31 @@ class ErrorAwaySensorTest {
 	@Test
 	void analyzeWithNullAwayWithoutAnnotatedPackageOption() {
 		setup(Path.of("com/bug/BugSamples.java"));
-		when(activeRules.find(RuleKey.of("nullaway", "NullAway"))).thenReturn(mock(ActiveRule.class));
+		enableRule(RuleKey.of("nullaway", "NullAway"));
 
 		// Call the sensor
-		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, tempFolder);
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
 		assertThrows(ErrorAwayException.class, () -> sensor.execute(context));
 	}
 
+	@Test
+	void analyzeWithPrefilter() {
+		setConfigurationStringArray(ErrorAwayPluginConstants.MAVEN_REPOSITORIES, new String[] { "https://repo1.maven.org/maven2/" });
+		setConfigurationBoolean(ErrorAwayPluginConstants.PREFILTER, true);
+		setup(Path.of("com/bug/Slf4jSamples.java"), Path.of("com/bug/BugSamples.java"), Path.of("com/bug/ManyBugs.java"));
+
+		RuleKey ruleKey = RuleKey.of("errorprone-slf4j", "Slf4jPlaceholderMismatch");
+		enableRule(ruleKey);
+		setConfigurationStringArray(ErrorAwayPluginConstants.CLASS_PATH_MAVEN_COORDINATES, new String[] { "org.slf4j:slf4j-api:1.7.36" });
+
+		// Call the sensor
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
+		sensor.execute(context);
+
+		verify(context, times(1)).newIssue();
+		verify(newIssue, times(1)).forRule(ruleKey);
+	}
+
 	@Test
 	void analyzeWithErrorProneSlf4j() {
 		setConfigurationStringArray(ErrorAwayPluginConstants.MAVEN_REPOSITORIES, new String[] { "https://repo1.maven.org/maven2/" });
@@ -238,7 +341,7 @@ class ErrorAwaySensorTest {
 		setConfigurationStringArray(ErrorAwayPluginConstants.CLASS_PATH_MAVEN_COORDINATES, new String[] { "org.slf4j:slf4j-api:1.7.36" });
 
 		// Call the sensor
-		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, tempFolder);
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
 		sensor.execute(context);
 
 		verify(context, times(1)).newIssue();
@@ -257,7 +360,7 @@ class ErrorAwaySensorTest {
 				new String[]{"com.google.guava:guava:31.1-jre"});
 
 		// Call the sensor
-		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, tempFolder);
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
 		sensor.execute(context);
 
 		verify(context, times(1)).newIssue();
@@ -274,41 +377,402 @@ class ErrorAwaySensorTest {
 		enableRule(RuleKey.of("errorprone", "NullTernary"));
 
 		// Call the sensor
-		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, tempFolder);
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
 		sensor.execute(context);
 
 		verify(context, times(256)).newIssue();
 	}
 
 	@Test
-	void compilerWarning() {
-		setup(Path.of("com/bug/VarArgsArray.java"));
+	void analyzeWithCheckerReport() throws IOException {
+		setup(Path.of("com/bug/ManyBugs.java"));
+		when(fs.workDir()).thenReturn(tempDirPath.toFile());
+
+		enableRule(RuleKey.of("errorprone", "BadShiftAmount"));
+		enableRule(RuleKey.of("errorprone", "ComparingThisWithNull"));
+		enableRule(RuleKey.of("errorprone", "EqualsNaN"));
+		enableRule(RuleKey.of("errorprone", "NullTernary"));
+
+		// Call the sensor
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
+		sensor.execute(context);
+
+		JsonObject report;
+		try (Reader reader = Files.newBufferedReader(tempDirPath.resolve(ErrorAwayCheckerReport.REPORT_FILE_NAME))) {
+			report = JsonParser.parseReader(reader).getAsJsonObject();
+		}
+
+		Map<String, Long> issues = new HashMap<>();
+		for (JsonElement checker : report.getAsJsonArray("checkers")) {
+			issues.put(checker.getAsJsonObject().get("name").getAsString(), checker.getAsJsonObject().get("issues").getAsLong());
+		}
+
+		assertThat(issues).containsKeys("BadShiftAmount", "ComparingThisWithNull", "EqualsNaN", "NullTernary");
+		assertThat(issues.values().stream().mapToLong(Long::longValue).sum()).isEqualTo(256);
+		assertThat(report.get("taskWallTimeMs").getAsDouble()).isPositive();
+		assertThat(logTester.getLogs(Level.INFO).stream().map(LogAndArguments::getRawMsg).toList())
+				.contains("Javac tasks took {} ms ({} ms CPU), checkers initialization took {} ms, slowest checkers:");
+	}
+
+	@Test
+	void analyzeWithPhaseReport() throws IOException {
+		setup(Path.of("com/bug/BugSamples.java"), Path.of("com/bug/ManyBugs.java"));
+		when(fs.workDir()).thenReturn(tempDirPath.toFile());
+		when(fs.baseDir()).thenReturn(Path.of("src/test/resources/samples").toAbsolutePath().toFile());
+
 		enableRule(RuleKey.of("errorprone", "DurationTemporalUnit"));
+		enableRule(RuleKey.of("errorprone", "BadShiftAmount"));
 
 		// Call the sensor
-		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, tempFolder);
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
 		sensor.execute(context);
 
-		if (JRE.currentVersion().compareTo(JRE.JAVA_21) < 0) {
-			// One compiler warning that there are unsage operations in the file and another to recompile for more details
-			verify(context, times(2)).newAnalysisError();
-		} else {
-			// Since JDK 21 one warning about implicit annotation processing
-			verify(context, times(3)).newAnalysisError();
+		JsonObject report;
+		try (Reader reader = Files.newBufferedReader(tempDirPath.resolve(ErrorAwayPhaseReport.REPORT_FILE_NAME))) {
+			report = JsonParser.parseReader(reader).getAsJsonObject();
+		}
+
+		JsonObject phases = report.getAsJsonObject("phasesMs");
+		assertThat(phases.get("PARSE").getAsDouble()).isPositive();
+		assertThat(phases.get("ENTER").getAsDouble()).isPositive();
+		assertThat(phases.get("ATTRIBUTE_AND_FLOW").getAsDouble()).isPositive();
+		assertThat(phases.get("ERROR_PRONE").getAsDouble()).isPositive();
+		assertThat(phases.get("SAVE_ISSUES").getAsDouble()).isPositive();
+		assertThat(phases.get("GENERATE").getAsDouble()).isZero();
+
+		List<String> files = new ArrayList<>();
+		for (JsonElement file : report.getAsJsonArray("files")) {
+			files.add(file.getAsJsonObject().get("file").getAsString());
 		}
+		assertThat(files).containsExactlyInAnyOrder(Path.of("com/bug/BugSamples.java").toString(), Path.of("com/bug/ManyBugs.java").toString());
+		assertThat(logTester.getLogs(Level.INFO).stream().map(LogAndArguments::getRawMsg).toList()).contains("Slowest files:");
 	}
 
 	@Test
-	void missingInputFile() {
+	void analyzeWithShards() {
+		Path[] files = { Path.of("com/bug/BugSamples.java"), Path.of("com/bug/CrossReferenceSamples.java"), Path.of("com/bug/ManyBugs.java") };
+
+		List<String> singleTaskMessages = analyzeManyBugsMessages(1, files);
+		List<String> shardsMessages = analyzeManyBugsMessages(3, files);
+
+		assertThat(shardsMessages).hasSize(258).containsExactlyInAnyOrderElementsOf(singleTaskMessages);
+	}
+
+	@Test
+	void analyzeWithBatches() throws IOException {
+		Path[] files = { Path.of("com/bug/BugSamples.java"), Path.of("com/bug/CrossReferenceSamples.java"), Path.of("com/bug/ManyBugs.java") };
+		List<String> singleTaskMessages = analyzeManyBugsMessages(1, files);
+
+		// Without binaries the files of the other batches are read from the source path
+		when(configuration.get(ErrorAwayPluginConstants.ANALYSIS_BATCH_SIZE)).thenReturn(Optional.of("1"));
+		assertThat(analyzeManyBugsMessages(1, files)).containsExactlyInAnyOrderElementsOf(singleTaskMessages);
+		assertThat(logTester.getLogs(Level.WARN).stream().map(LogAndArguments::getRawMsg).toList())
+				.contains("The binaries of the module were not found, the files analyzed by the other tasks are read from the source path");
+
+		logTester.clear();
+		baseDir = tempDirPath.toFile();
+		setConfigurationStringArray("sonar.java.binaries", new String[] { compileSamples(files).toString() });
+		assertThat(analyzeManyBugsMessages(1, files)).containsExactlyInAnyOrderElementsOf(singleTaskMessages);
+		assertThat(logTester.getLogs(Level.WARN)).isEmpty();
+		assertThat(logTester.getLogs(Level.INFO).stream().map(LogAndArguments::getFormattedMsg).toList()).contains("Analyzing 3 files in batches of 1 files");
+	}
+
+	@Test
+	void invalidBatchSize() {
 		setup(Path.of("com/bug/BugSamples.java"));
 		enableRule(RuleKey.of("errorprone", "DurationTemporalUnit"));
-		when(fs.inputFile(uriFilePredicate)).thenReturn(null);
+		when(configuration.get(ErrorAwayPluginConstants.ANALYSIS_BATCH_SIZE)).thenReturn(Optional.of("many"));
+
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
+		assertThatThrownBy(() -> sensor.execute(context)).isInstanceOf(ErrorAwayException.class).hasMessage("Invalid batch size many, expected a number of files or auto");
+	}
+
+	private Path compileSamples(Path... files) throws IOException {
+		Path binaries = Files.createDirectories(tempDirPath.resolve("binaries"));
+		List<String> arguments = new ArrayList<>(List.of("-d", binaries.toString()));
+		for (Path file : files) {
+			arguments.add(Path.of("src/test/resources/samples").resolve(file).toString());
+		}
+
+		assertThat(ToolProvider.getSystemJavaCompiler().run(null, null, null, arguments.toArray(String[]::new))).isZero();
+
+		return binaries;
+	}
+
+	@Test
+	void analyzeForked() throws URISyntaxException {
+		Path[] files = setupSimpleProject();
+
+		List<String> inProcessMessages = analyzeSimpleProjectMessages(files);
+
+		setConfigurationBoolean(ErrorAwayPluginConstants.ANALYSIS_FORK, true);
+		ErrorAwayTestUtil.setConfiguration(configuration, ErrorAwayPluginConstants.ANALYSIS_FORK_JVM_OPTIONS, "-Xmx512m -XX:+UseSerialGC");
+		List<String> forkedMessages = analyzeSimpleProjectMessages(files);
+
+		assertThat(forkedMessages).hasSize(5).containsExactlyInAnyOrderElementsOf(inProcessMessages);
+		assertThat(logTester.getLogs(Level.INFO).stream().map(LogAndArguments::getFormattedMsg).toList())
+				.contains("Starting the analysis worker 1 with the options [-Xmx512m, -XX:+UseSerialGC]");
+	}
+
+	@Test
+	void analyzeForkedWithReports() throws IOException {
+		// The malformed bytes of a comment are replaced like in the analysis in process
+		Path sources = Files.createDirectories(tempDirPath.resolve("sources/com/bug"));
+		Files.write(sources.resolve("ManyBugs.java"),
+				(Files.readString(Path.of("src/test/resources/samples/com/bug/ManyBugs.java")) + "// \u00FF").getBytes(StandardCharsets.ISO_8859_1));
+		sourceRoot = tempDirPath.resolve("sources");
+		setup(Path.of("com/bug/ManyBugs.java"));
+		when(fs.workDir()).thenReturn(tempDirPath.toFile());
+		when(fs.baseDir()).thenReturn(sourceRoot.toFile());
+
+		enableRule(RuleKey.of("errorprone", "BadShiftAmount"));
+		enableRule(RuleKey.of("errorprone", "EqualsNaN"));
+		setConfigurationBoolean(ErrorAwayPluginConstants.ANALYSIS_FORK, true);
+
+		// Call the sensor
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
+		sensor.execute(context);
+
+		verify(context, atLeast(1)).newIssue();
+
+		// The timings measured by the worker are sent to the reports of the sensor
+		JsonObject checkers;
+		try (Reader reader = Files.newBufferedReader(tempDirPath.resolve(ErrorAwayCheckerReport.REPORT_FILE_NAME))) {
+			checkers = JsonParser.parseReader(reader).getAsJsonObject();
+		}
+		assertThat(checkers.get("taskWallTimeMs").getAsDouble()).isPositive();
+
+		JsonObject phases;
+		try (Reader reader = Files.newBufferedReader(tempDirPath.resolve(ErrorAwayPhaseReport.REPORT_FILE_NAME))) {
+			phases = JsonParser.parseReader(reader).getAsJsonObject();
+		}
+		assertThat(phases.getAsJsonObject("phasesMs").get("ERROR_PRONE").getAsDouble()).isPositive();
+		assertThat(phases.getAsJsonArray("files")).hasSize(1);
+	}
+
+	@Test
+	void analyzeForkedClusters() throws URISyntaxException {
+		Path[] files = setupSimpleProject();
+
+		List<String> inProcessMessages = analyzeSimpleProjectMessages(files);
+
+		setConfigurationBoolean(ErrorAwayPluginConstants.ANALYSIS_FORK, true);
+		when(configuration.getInt(ErrorAwayPluginConstants.ANALYSIS_FORK_WORKERS)).thenReturn(Optional.of(2));
+		List<String> clusteredMessages = analyzeSimpleProjectMessages(files);
+
+		// The issues are reported in the order of the clusters, whichever worker finishes first
+		assertThat(clusteredMessages).hasSize(5).containsExactlyInAnyOrderElementsOf(inProcessMessages);
+		assertThat(logTester.getLogs(Level.INFO).stream().map(LogAndArguments::getFormattedMsg).toList()).contains("Analyzing 3 files in 2 clusters with 2 worker JVMs")
+				.anyMatch(message -> message.startsWith("Starting the analysis worker 2 "));
+	}
+
+	@Test
+	void analyzeWithDaemon() throws URISyntaxException {
+		Path[] files = setupSimpleProject();
+
+		List<String> inProcessMessages = analyzeSimpleProjectMessages(files);
+
+		setConfigurationBoolean(ErrorAwayPluginConstants.ANALYSIS_DAEMON, true);
+		when(configuration.getInt(ErrorAwayPluginConstants.ANALYSIS_DAEMON_IDLE_TIMEOUT)).thenReturn(Optional.of(5));
+		List<String> daemonMessages = analyzeSimpleProjectMessages(files);
+		// The second scan reuses the daemon
+		List<String> warmDaemonMessages = analyzeSimpleProjectMessages(files);
+
+		assertThat(daemonMessages).hasSize(5).containsExactlyInAnyOrderElementsOf(inProcessMessages);
+		assertThat(warmDaemonMessages).containsExactlyInAnyOrderElementsOf(inProcessMessages);
+		assertThat(logTester.getLogs(Level.INFO).stream().map(LogAndArguments::getRawMsg).filter("Starting the analysis daemon {} with the options {}"::equals)).hasSize(1);
+	}
+
+	@Test
+	void analyzeWithoutDaemonWhenItCannotStart() throws URISyntaxException {
+		Path[] files = setupSimpleProject();
+
+		List<String> inProcessMessages = analyzeSimpleProjectMessages(files);
+
+		setConfigurationBoolean(ErrorAwayPluginConstants.ANALYSIS_DAEMON, true);
+		ErrorAwayTestUtil.setConfiguration(configuration, ErrorAwayPluginConstants.ANALYSIS_FORK_JVM_OPTIONS, "-XX:+NoSuchOption");
+		List<String> fallbackMessages = analyzeSimpleProjectMessages(files);
+
+		assertThat(fallbackMessages).hasSize(5).containsExactlyInAnyOrderElementsOf(inProcessMessages);
+		assertThat(logTester.getLogs(Level.WARN).stream().map(LogAndArguments::getRawMsg)).contains("The analysis daemon is not available, the analysis runs without it");
+	}
+
+	/**
+	 * @return The files of the simple project, analyzed with the SLF4J jar of the tests so that no dependency is
+	 *         downloaded
+	 */
+	private Path[] setupSimpleProject() throws URISyntaxException {
+		sourceRoot = Path.of("src/test/resources/projects/simple/src/main/java");
+		baseDir = Path.of("src/test/resources/projects/simple").toAbsolutePath().toFile();
+		setConfigurationStringArray("sonar.java.libraries", new String[] { Path.of(LoggerFactory.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString() });
+
+		return new Path[] { Path.of("Simple.java"), Path.of("application/Simple.java"), Path.of("com/bugs/BugsSamples.java") };
+	}
+
+	private List<String> analyzeSimpleProjectMessages(Path... files) {
+		setup(files);
+
+		enableRule(RuleKey.of("errorprone", "EqualsNaN"));
+		enableRule(RuleKey.of("errorprone", "ZoneIdOfZ"));
+		enableRule(RuleKey.of("errorprone-slf4j", "Slf4jPlaceholderMismatch"));
+
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
+		sensor.execute(context);
+
+		ArgumentCaptor<String> messages = ArgumentCaptor.forClass(String.class);
+		verify(location, atLeast(0)).message(messages.capture());
+
+		return messages.getAllValues();
+	}
+
+	@Test
+	void analyzeWithoutGeneratingClasses() throws IOException {
+		Path[] files = { Path.of("com/bug/BugSamples.java"), Path.of("com/bug/ManyBugs.java") };
+		// Error Prone errors prevent the bytecode generation, this file does not have any
+		Path errorFreeFile = Path.of("com/bug/VarArgsArray.java");
+
+		List<String> analysisOnlyMessages = analyzeManyBugsMessages(1, files);
+		analyzeManyBugsMessages(1, errorFreeFile);
+		assertThat(classFiles()).isEmpty();
+
+		// Write the generated classes in the temp folder
+		setConfigurationBoolean(ErrorAwayPluginConstants.ANALYSIS_ONLY, false);
+		when(configuration.getInt(ErrorAwayPluginConstants.OUTPUT_MEMORY_MB)).thenReturn(Optional.of(0));
+		List<String> fullCompilationMessages = analyzeManyBugsMessages(1, files);
+		analyzeManyBugsMessages(1, errorFreeFile);
+		assertThat(classFiles()).isNotEmpty();
+
+		assertThat(analysisOnlyMessages).hasSize(257).containsExactlyInAnyOrderElementsOf(fullCompilationMessages);
+	}
+
+	private List<Path> classFiles() throws IOException {
+		try (Stream<Path> files = Files.walk(tempDirPath)) {
+			return files.filter(f -> f.toString().endsWith(".class")).toList();
+		}
+	}
+
+	@Test
+	void analyzeWithClasspathPruningAndErrorSeverity() {
+		setup(Path.of("com/bug/ManyBugs.java"));
+		setConfigurationBoolean(ErrorAwayPluginConstants.CLASSPATH_PRUNING, true);
+
+		// The issues of BadShiftAmount are errors, they are not caused by a class missing from the pruned classpath
+		enableRule(RuleKey.of("errorprone", "BadShiftAmount"));
+
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
+		sensor.execute(context);
+
+		verify(context, atLeast(1)).newIssue();
+		assertThat(logTester.getLogs(Level.INFO).stream().map(LogAndArguments::getFormattedMsg).toList())
+				.contains("0 tasks were run again with the full classpath because the pruned classpath missed a class")
+				.noneMatch(message -> message.startsWith("Analyzing 1 files again with the full classpath"));
+	}
+
+	private List<String> analyzeManyBugsMessages(int shards, Path... files) {
+		setup(files);
+		when(configuration.getInt(ErrorAwayPluginConstants.ANALYSIS_SHARDS)).thenReturn(Optional.of(shards));
+
+		enableRule(RuleKey.of("errorprone", "DurationTemporalUnit"));
+		enableRule(RuleKey.of("errorprone", "BadShiftAmount"));
+		enableRule(RuleKey.of("errorprone", "ComparingThisWithNull"));
+		enableRule(RuleKey.of("errorprone", "EqualsNaN"));
+		enableRule(RuleKey.of("errorprone", "NullTernary"));
+
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
+		sensor.execute(context);
+
+		ArgumentCaptor<String> messages = ArgumentCaptor.forClass(String.class);
+		verify(location, atLeast(0)).message(messages.capture());
+
+		return messages.getAllValues();
+	}
+
+	@Test
+	void analyzeWithAnalysisCache() {
+		Map<String, byte[]> cache = new HashMap<>();
+		Path[] files = { Path.of("com/bug/BugSamples.java"), Path.of("com/bug/CrossReferenceSamples.java") };
+
+		// First analysis fills the cache
+		setupAnalysisCache(cache, files);
+		new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder).execute(context);
+
+		verify(context, times(2)).newIssue();
+		assertThat(cache).containsOnlyKeys("erroraway:issues:com/bug/BugSamples.java", "erroraway:issues:com/bug/CrossReferenceSamples.java");
+
+		// Second analysis reuses the issues of the unchanged file
+		setupAnalysisCache(cache, files);
+		((TestInputFile) inputFiles.get(0)).setStatus(Status.SAME);
+		((TestInputFile) inputFiles.get(1)).setStatus(Status.CHANGED);
+		new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder).execute(context);
+
+		verify(context, times(2)).newIssue();
+		verify(context.nextCache(), times(1)).copyFromPrevious("erroraway:issues:com/bug/BugSamples.java");
+		assertThat(logTester.getLogs(Level.INFO).stream().map(LogAndArguments::getFormattedMsg).toList()).contains("Reused the cached issues of 1 unchanged files, analyzing 1 files");
+
+		// Third analysis only replays the issues, the summary and the reports are still written
+		setupAnalysisCache(cache, files);
+		((TestInputFile) inputFiles.get(0)).setStatus(Status.SAME);
+		((TestInputFile) inputFiles.get(1)).setStatus(Status.SAME);
+		logTester.clear();
+		new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder).execute(context);
+
+		verify(context, times(2)).newIssue();
+		assertThat(logTester.getLogs(Level.INFO).stream().map(LogAndArguments::getRawMsg).toList()).contains("Compilation phases: {}")
+				.anyMatch(message -> message.startsWith("Saved {} issues in {} ms"));
+	}
+
+	@Test
+	void analyzeWithAnalysisCacheAndPrefilter() throws URISyntaxException {
+		setup(setupSimpleProject());
+		setConfigurationBoolean(ErrorAwayPluginConstants.PREFILTER, true);
+		enableRule(RuleKey.of("nullaway", "NullAway"));
+		setConfigurationStringArray(NullAwayOption.ANNOTATED_PACKAGES.getKey(), new String[] { "application" });
+
+		WriteCache writeCache = mock(WriteCache.class);
+		when(context.isCacheEnabled()).thenReturn(true);
+		when(context.nextCache()).thenReturn(writeCache);
+
+		new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder).execute(context);
+
+		// The files skipped by the prefilter may raise issues with other NullAway settings, they are not cached
+		verify(writeCache).write(eq("erroraway:issues:application/Simple.java"), any(byte[].class));
+		verify(writeCache, times(1)).write(anyString(), any(byte[].class));
+	}
+
+	private void setupAnalysisCache(Map<String, byte[]> cache, Path... files) {
+		setup(files);
+		enableRule(RuleKey.of("errorprone", "DurationTemporalUnit"));
+
+		ReadCache readCache = mock(ReadCache.class);
+		WriteCache writeCache = mock(WriteCache.class);
+		Map<String, byte[]> previousCache = new HashMap<>(cache);
+
+		when(context.isCacheEnabled()).thenReturn(true);
+		when(context.canSkipUnchangedFiles()).thenReturn(true);
+		when(context.previousCache()).thenReturn(readCache);
+		when(context.nextCache()).thenReturn(writeCache);
+
+		when(readCache.contains(anyString())).thenAnswer(i -> previousCache.containsKey(i.getArgument(0)));
+		when(readCache.read(anyString())).thenAnswer(i -> new ByteArrayInputStream(previousCache.get(i.getArgument(0))));
+		doAnswer(i -> cache.put(i.getArgument(0), i.getArgument(1))).when(writeCache).write(anyString(), any(byte[].class));
+	}
+
+	@Test
+	void compilerWarning() {
+		setup(Path.of("com/bug/VarArgsArray.java"));
+		enableRule(RuleKey.of("errorprone", "DurationTemporalUnit"));
 
 		// Call the sensor
-		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, tempFolder);
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
 		sensor.execute(context);
 
-		assertThat(logTester.getLogs(Level.WARN).stream().map(LogAndArguments::getRawMsg).toList()).contains("Could not file input file for source {}");
+		if (JRE.currentVersion().compareTo(JRE.JAVA_21) < 0) {
+			// One compiler warning that there are unsage operations in the file and another to recompile for more details
+			verify(context, times(2)).newAnalysisError();
+		} else {
+			// Since JDK 21 one warning about implicit annotation processing
+			verify(context, times(3)).newAnalysisError();
+		}
 	}
 
 	@Test
@@ -316,7 +780,7 @@ class ErrorAwaySensorTest {
 		setup(Path.of("com/bug/BugSamples.java"));
 		SensorDescriptor descriptor = mock(SensorDescriptor.class);
 
-		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, tempFolder);
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
 		sensor.describe(descriptor);
 
 		verify(descriptor, times(1)).onlyOnLanguage("java");
@@ -324,14 +788,14 @@ class ErrorAwaySensorTest {
 
 	@Test
 	void getVersion() {
-		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, tempFolder);
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
 
 		assertThat(sensor.getVersion()).doesNotStartWith("UNKNOWN");
 	}
 
 	@Test
 	void getVersionError() {
-		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, tempFolder);
+		ErrorAwaySensor sensor = new ErrorAwaySensor(dependencyManager, new ErrorAwayJarPool(), tempFolder);
 
 		assertThat(sensor.getVersion("/foo/bar.properties")).startsWith("UNKNOWN");
 	}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.InputFile.Type;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwaySourceClustersTest {
+
+	@TempDir
+	private Path tempDir;
+
+	private InputFile a;
+	private InputFile b;
+	private InputFile c;
+	private InputFile d1;
+	private InputFile d2;
+
+	@BeforeEach
+	void setup() throws IOException {
+		// a and b reference each other, c only references a and d is independent
+		a = inputFile("a/A.java", "package a;\n\nimport b.B;\n\npublic class A {\n	B b;\n}\n");
+		b = inputFile("b/B.java", "package b;\n\npublic class B {\n	a.A a;\n}\n");
+		c = inputFile("c/C.java", "package c;\n\nimport a.A;\n\npublic class C {\n	A a;\n}\n");
+		d1 = inputFile("d/D1.java", "package d;\n\npublic class D1 {\n	java.util.List<D2> d2;\n}\n");
+		d2 = inputFile("d/D2.java", "package d;\n\npublic class D2 {\n}\n");
+	}
+
+	@Test
+	void cluster() {
+		assertThat(ErrorAwaySourceClusters.cluster(List.of(a, b, c, d1, d2), 2)).containsExactly(List.of(a, b, c), List.of(d1, d2));
+	}
+
+	@Test
+	void clusterDependentPackagesTogether() {
+		List<List<InputFile>> clusters = ErrorAwaySourceClusters.cluster(List.of(a, b, c, d1, d2), 5);
+
+		assertThat(clusters).hasSize(3).contains(List.of(a, b), List.of(c), List.of(d1, d2));
+	}
+
+	@Test
+	void clusterSingle() {
+		assertThat(ErrorAwaySourceClusters.cluster(List.of(a, b, c, d1, d2), 1)).containsExactly(List.of(a, b, c, d1, d2));
+	}
+
+	@Test
+	void clusterDoesNotDependOnTheOrder() {
+		List<InputFile> inputFiles = new ArrayList<>(List.of(a, b, c, d1, d2));
+		Collections.reverse(inputFiles);
+
+		assertThat(ErrorAwaySourceClusters.cluster(inputFiles, 3)).isEqualTo(ErrorAwaySourceClusters.cluster(List.of(a, b, c, d1, d2), 3));
+	}
+
+	private InputFile inputFile(String relativePath, String content) throws IOException {
+		Path path = tempDir.resolve(relativePath);
+		Files.createDirectories(path.getParent());
+		Files.writeString(path, content);
+
+		return new TestInputFile(path, Path.of(relativePath), StandardCharsets.UTF_8, Type.MAIN);
+	}
+}
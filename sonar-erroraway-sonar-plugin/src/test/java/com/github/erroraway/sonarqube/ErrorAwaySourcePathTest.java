@@ -0,0 +1,53 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.InputFile.Type;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwaySourcePathTest {
+	private static final Path SAMPLES = Path.of("src/test/resources/samples");
+
+	private InputFile inputFile(String relativePath) {
+		return new TestInputFile(SAMPLES.resolve(relativePath), Path.of(relativePath), StandardCharsets.UTF_8, Type.MAIN);
+	}
+
+	@Test
+	void packageName() {
+		assertThat(ErrorAwaySourcePath.packageName(inputFile("com/bug/BugSamples.java"))).isEqualTo("com.bug");
+		assertThat(ErrorAwaySourcePath.packageName(inputFile("com/bug/ManyBugs.java"))).isEmpty();
+	}
+
+	@Test
+	void sourceRoots() {
+		List<InputFile> inputFiles = List.of(inputFile("com/bug/BugSamples.java"), inputFile("com/bug/Slf4jSamples.java"), inputFile("com/bug/ManyBugs.java"));
+
+		assertThat(ErrorAwaySourcePath.sourceRoots(inputFiles)).containsExactly(
+				SAMPLES.toAbsolutePath().toFile(),
+				SAMPLES.resolve("com/bug").toAbsolutePath().toFile());
+	}
+}
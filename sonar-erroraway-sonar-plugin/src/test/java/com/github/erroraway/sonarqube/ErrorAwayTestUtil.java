@@ -15,9 +15,23 @@
  */
 package com.github.erroraway.sonarqube;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Optional;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
 
 import org.sonar.api.config.Configuration;
 
@@ -41,4 +55,62 @@ public class ErrorAwayTestUtil {
 		when(configuration.hasKey(key)).thenReturn(true);
 		when(configuration.getBoolean(key)).thenReturn(Optional.of(value));
 	}
+
+	/**
+	 * Kills the child processes of the test, the command line of a process may be truncated so the marker should be an
+	 * option placed before the classpath
+	 *
+	 * @param marker
+	 *            A string contained in the command line of the processes to kill
+	 * @return true if a process was killed
+	 */
+	public static boolean kill(String marker) {
+		List<ProcessHandle> processes = ProcessHandle.current().children()
+				.filter(process -> process.info().commandLine().filter(commandLine -> commandLine.contains(marker)).isPresent()).toList();
+
+		for (ProcessHandle process : processes) {
+			process.destroyForcibly();
+			process.onExit().join();
+		}
+
+		return !processes.isEmpty();
+	}
+
+	/**
+	 * @param directory
+	 *            The folder where the library is built
+	 * @param packageName
+	 *            The package of the class of the library
+	 * @param className
+	 *            The simple name of the class
+	 * @param body
+	 *            The declaration of the class
+	 * @param dependency
+	 *            A jar the class depends on, <code>null</code> if none
+	 * @return A jar with the compiled class
+	 */
+	public static File library(Path directory, String packageName, String className, String body, File dependency) throws IOException {
+		Path sourceDir = Files.createDirectories(directory.resolve(packageName + "/src/" + packageName));
+		Path classDir = Files.createDirectories(directory.resolve(packageName + "/classes"));
+		Path source = sourceDir.resolve(className + ".java");
+		Files.writeString(source, "package " + packageName + ";\n\n" + body);
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+			fileManager.setLocation(StandardLocation.CLASS_OUTPUT, List.of(classDir.toFile()));
+			if (dependency != null) {
+				fileManager.setLocation(StandardLocation.CLASS_PATH, List.of(dependency));
+			}
+
+			assertThat(compiler.getTask(null, fileManager, null, null, null, fileManager.getJavaFileObjects(source)).call()).isTrue();
+		}
+
+		Path jar = directory.resolve(packageName + ".jar");
+		try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(jar))) {
+			output.putNextEntry(new JarEntry(packageName + "/" + className + ".class"));
+			output.write(Files.readAllBytes(classDir.resolve(packageName + "/" + className + ".class")));
+		}
+
+		return jar.toFile();
+	}
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2022 The ErrorAway Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.erroraway.sonarqube;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.erroraway.ErrorAwayException;
+import com.github.erroraway.sonarqube.ErrorAwayCheckerReport.CheckerStatistics;
+import com.github.erroraway.sonarqube.ErrorAwayPhaseReport.FileTimings;
+import com.github.erroraway.sonarqube.ErrorAwayPhaseReport.Phase;
+import com.github.erroraway.sonarqube.ErrorAwayWorkerProtocol.Ping;
+import com.github.erroraway.sonarqube.ErrorAwayWorkerProtocol.Request;
+
+/**
+ * @author Guillaume Toison
+ *
+ */
+class ErrorAwayWorkerProtocolTest {
+
+	@Test
+	void request() throws IOException {
+		Request request = new Request("token", List.of("com.google.errorprone.bugpatterns.EqualsNaN"), List.of(), List.of("-Xmaxerrs", "10"), "UTF-8",
+				List.of("/lib/a.jar", "/lib/b.jar"), null, List.of(), null, "/tmp/worker", 1024, List.of("file:/src/A.java"), List.of("/src"));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ErrorAwayWorkerProtocol.writeRequest(new DataOutputStream(bytes), request);
+
+		assertThat(ErrorAwayWorkerProtocol.readMessage(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())))).isEqualTo(request);
+	}
+
+	@Test
+	void ping() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ErrorAwayWorkerProtocol.writePing(new DataOutputStream(bytes), "token");
+
+		assertThat(ErrorAwayWorkerProtocol.readMessage(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())))).isEqualTo(new Ping("token"));
+	}
+
+	@Test
+	void diagnostics() throws IOException {
+		JavaFileObject compilationUnit = mock(JavaFileObject.class);
+		when(compilationUnit.toUri()).thenReturn(URI.create("file:/src/A.java"));
+		Map<URI, JavaFileObject> compilationUnits = new HashMap<>(Map.of(compilationUnit.toUri(), compilationUnit));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		ErrorAwayWorkerProtocol.writeDiagnostic(output, diagnostic(compilationUnit, "[EqualsNaN] == NaN always returns false"));
+		ErrorAwayWorkerProtocol.writeDiagnostic(output, diagnostic(null, "Some input files use unchecked or unsafe operations."));
+		ErrorAwayWorkerProtocol.writeEnd(output, 2);
+
+		List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+		assertThat(ErrorAwayWorkerProtocol.readDiagnostics(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), compilationUnits, diagnostics::add))
+				.isEqualTo(2);
+
+		assertThat(diagnostics).hasSize(2);
+		assertThat(diagnostics.get(0).getSource()).isSameAs(compilationUnit);
+		assertThat(diagnostics.get(0).getKind()).isEqualTo(Diagnostic.Kind.WARNING);
+		assertThat(diagnostics.get(0).getLineNumber()).isEqualTo(12);
+		assertThat(diagnostics.get(0).getCode()).isEqualTo("compiler.warn.error.prone");
+		assertThat(diagnostics.get(0).getMessage(Locale.ENGLISH)).isEqualTo("[EqualsNaN] == NaN always returns false");
+		assertThat(diagnostics.get(1).getSource()).isNull();
+	}
+
+	@Test
+	void timings() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		ErrorAwayWorkerProtocol.writeTaskTimings(output, Map.of("EqualsNaN", Duration.ofMillis(30)), Duration.ofMillis(10), Duration.ofMillis(100),
+				Duration.ofMillis(80));
+		ErrorAwayWorkerProtocol.writePhase(output, URI.create("file:/src/A.java"), Phase.PARSE, 5_000_000);
+		ErrorAwayWorkerProtocol.writePhase(output, null, Phase.GENERATE, 7_000_000);
+		ErrorAwayWorkerProtocol.writeEnd(output, 0);
+
+		ErrorAwayCheckerReport checkerReport = new ErrorAwayCheckerReport();
+		ErrorAwayPhaseReport phaseReport = new ErrorAwayPhaseReport();
+		ErrorAwayWorkerProtocol.readDiagnostics(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), new HashMap<>(), diagnostic -> {
+		}, checkerReport, phaseReport);
+
+		assertThat(checkerReport.statistics(Map.of())).extracting(CheckerStatistics::checker, CheckerStatistics::wallTime)
+				.containsExactly(tuple("EqualsNaN", Duration.ofMillis(30)));
+		assertThat(phaseReport.phases()).containsEntry(Phase.PARSE, Duration.ofMillis(5)).containsEntry(Phase.GENERATE, Duration.ofMillis(7));
+		assertThat(phaseReport.slowestFiles(1)).extracting(FileTimings::file).containsExactly(URI.create("file:/src/A.java"));
+	}
+
+	@Test
+	void failure() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ErrorAwayWorkerProtocol.writeFailure(new DataOutputStream(bytes), "java.lang.IllegalStateException: boom", false);
+
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertThatThrownBy(() -> ErrorAwayWorkerProtocol.readDiagnostics(input, new HashMap<>(), diagnostic -> {
+		})).isInstanceOf(ErrorAwayException.class).hasMessage("The analysis worker failed: java.lang.IllegalStateException: boom")
+				.matches(e -> !ErrorAwayMemoryController.isOutOfMemory(e));
+	}
+
+	@Test
+	void outOfMemoryFailure() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ErrorAwayWorkerProtocol.writeFailure(new DataOutputStream(bytes), "java.lang.OutOfMemoryError: Java heap space", true);
+
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertThatThrownBy(() -> ErrorAwayWorkerProtocol.readDiagnostics(input, new HashMap<>(), diagnostic -> {
+		})).isInstanceOf(ErrorAwayException.class).matches(ErrorAwayMemoryController::isOutOfMemory);
+	}
+
+	private static Diagnostic<JavaFileObject> diagnostic(JavaFileObject source, String message) {
+		return new ErrorAwayDeferredDiagnosticListener.DeferredDiagnostic(source != null ? Diagnostic.Kind.WARNING : Diagnostic.Kind.NOTE, source, 120, 110, 130,
+				source != null ? 12 : Diagnostic.NOPOS, 5, source != null ? "compiler.warn.error.prone" : null, message, message);
+	}
+}
@@ -36,6 +36,7 @@ public class TestInputFile implements InputFile {
 	private Path relativePath;
 	private Charset charset;
 	private Type type;
+	private Status status;
 
 	public TestInputFile(Path path, Path relativePath, Charset charset, Type type) {
 		this.path = path;
@@ -56,7 +57,7 @@ public class TestInputFile implements InputFile {
 
 	@Override
 	public String key() {
-		return null;
+		return relativePath.toString();
 	}
 
 	@Override
@@ -107,7 +108,11 @@ public class TestInputFile implements InputFile {
 	@Override
 	@SuppressWarnings("deprecation")
 	public Status status() {
-		return null;
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
 	}
 
 	@Override
@@ -0,0 +1,11 @@
+package com.bug;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
+public class CrossReferenceSamples {
+
+	public Duration duration() {
+		return new BugSamples().duration().plus(Duration.of(1, ChronoUnit.YEARS));
+	}
+}